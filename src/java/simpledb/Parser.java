@@ -585,15 +585,30 @@ public class Parser {
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
+        if (warmStartFile != null) {
+            try {
+                Database.getBufferPool().saveResidentPages(warmStartFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         System.out.println("Bye");
     }
 
+    // the buffer pool's resident pages are saved here and read back on start
+    private File warmStartFile = null;
+
     protected boolean interactive = true;
 
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
         TableStats.computeStatistics();
+        warmStartFile = new File(argv[0] + ".warm");
+        int warmed = Database.warmStart(warmStartFile);
+        if (warmed > 0) {
+            System.out.println("Read " + warmed + " pages saved at the last shutdown.");
+        }
 
         String queryFile = null;
 
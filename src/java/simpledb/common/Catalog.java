@@ -57,9 +57,18 @@ public class Catalog {
             return this.PkeyField;
         }
 
+        public String getPoolName() {
+            return this.PoolName;
+        }
+
+        public void setPoolName(String poolName) {
+            this.PoolName = poolName;
+        }
+
         private String Name;
         private DbFile File;
         private String PkeyField;
+        private volatile String PoolName;
     }
 
     private HashMap<String, Table> HashMapName;
@@ -165,6 +174,42 @@ public class Catalog {
         }
     }
 
+    /**
+     * Assign the specified table or index file to a named pool of the
+     * BufferPool. Its pages are cached in that pool from now on.
+     *
+     * @param tableid  The id of the table, as specified by the DbFile.getId()
+     *                 function passed to addTable
+     * @param poolName the name of the pool, or null for the default pool
+     * @throws NoSuchElementException if the table doesn't exist
+     * @see simpledb.storage.BufferPool#addPool
+     */
+    public void setBufferPool(int tableid, String poolName) throws NoSuchElementException {
+        Table tid_item = this.HashMapId.get(tableid);
+        if (tid_item == null) {
+            throw new NoSuchElementException("Table does not exist");
+        } else {
+            tid_item.setPoolName(poolName);
+        }
+    }
+
+    /**
+     * Returns the name of the BufferPool pool the specified table is assigned
+     * to, or null if it uses the default pool.
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *                function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public String getBufferPoolName(int tableid) throws NoSuchElementException {
+        Table tid_item = this.HashMapId.get(tableid);
+        if (tid_item == null) {
+            throw new NoSuchElementException("Table does not exist");
+        } else {
+            return tid_item.getPoolName();
+        }
+    }
+
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
         Set<Integer> keys = this.HashMapId.keySet();
@@ -1,7 +1,9 @@
 package simpledb.common;
 
 import simpledb.storage.BufferPool;
+import simpledb.storage.BufferPoolMonitor;
 import simpledb.storage.LogFile;
+import simpledb.storage.ReplacementPolicy;
 
 import java.io.*;
 import java.util.concurrent.atomic.AtomicReference;
@@ -35,6 +37,7 @@ public class Database {
             System.exit(1);
         }
         _logfile = tmp;
+        BufferPoolMonitor.register();
         // startControllerThread();
     }
 
@@ -48,6 +51,25 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /** Number of threads reading pages back in on a warm start. */
+    public static final int WARM_START_THREADS = 4;
+
+    /**
+     * Warm up the buffer pool of the static Database instance from the page
+     * ids saved in the given file, if it exists, and keep saving them there
+     * on every checkpoint. Call once the catalog is loaded.
+     *
+     * @return the number of pages read
+     */
+    public static int warmStart(File f) throws IOException {
+        BufferPool bp = getBufferPool();
+        bp.setWarmStartFile(f);
+        if (!f.exists()) {
+            return 0;
+        }
+        return bp.loadResidentPages(f, WARM_START_THREADS);
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
@@ -58,11 +80,31 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the given replacement policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy policy) {
+        return resetBufferPool(new BufferPool(pages, policy));
+    }
+
+    /**
+     * Method used for testing -- create a new buffer pool limited to the
+     * given bytes of retained page memory and return it
+     */
+    public static BufferPool resetBufferPoolWithBudget(long bytes) {
+        return resetBufferPool(BufferPool.withMemoryBudget(bytes));
+    }
+
+    private static BufferPool resetBufferPool(BufferPool bufferPool) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bufferPool);
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
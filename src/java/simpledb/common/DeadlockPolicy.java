@@ -0,0 +1,19 @@
+package simpledb.common;
+
+/**
+ * How the LockManager keeps transactions waiting for locks from waiting
+ * for each other forever. Transactions are ordered by their
+ * TransactionId: a smaller id is an older transaction.
+ *
+ * @see LockManager#setDeadlockPolicy
+ */
+public enum DeadlockPolicy {
+    /** Wait, and abort the transaction whose wait closes a cycle in the wait-for graph. */
+    DETECT,
+    /** An older transaction waits for younger ones; a younger one asking for an older one's lock aborts. */
+    WAIT_DIE,
+    /** A younger transaction waits for older ones; an older one asking for a younger one's lock aborts it. */
+    WOUND_WAIT,
+    /** Wait, and abort once the wait has lasted longer than the lock timeout. */
+    TIMEOUT
+}
@@ -0,0 +1,133 @@
+package simpledb.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts durations in nanoseconds into power-of-two
+ * buckets: bucket i holds durations of at least 2^(i-1) and less than 2^i
+ * nanoseconds. Recording is lock-free and cheap enough for hot paths such
+ * as page writes and lock waits. Percentiles are read from a
+ * {@link Snapshot} and are accurate to within a factor of two.
+ *
+ * @Threadsafe
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /** Record one duration. Negative durations count as zero. */
+    public void record(long nanos) {
+        long n = Math.max(0, nanos);
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(n)); // 0 for n == 0
+        count.increment();
+        totalNanos.add(n);
+        long max;
+        while (n > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, n)) {
+            // retry
+        }
+    }
+
+    /** @return the number of durations recorded */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /** @return the sum of all durations recorded, in nanoseconds */
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /** Forget everything recorded so far. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    /** @return a copy of the current counts */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = buckets.get(i);
+        }
+        return new Snapshot(copy, totalNanos.sum(), maxNanos.get());
+    }
+
+    /** An immutable copy of a LatencyHistogram. */
+    public static final class Snapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        Snapshot(long[] buckets, long totalNanos, long maxNanos) {
+            this.buckets = buckets;
+            long n = 0;
+            for (long b : buckets) {
+                n += b;
+            }
+            this.count = n;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /** @return the mean duration in nanoseconds, or 0 if nothing was recorded */
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * @param p a fraction between 0 and 1, e.g. 0.99
+         * @return an upper bound on the p-th quantile of the durations, in
+         *         nanoseconds, or 0 if nothing was recorded
+         */
+        public long getPercentileNanos(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(p * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= Math.max(1, rank)) {
+                    return i == 0 ? 0 : Math.min(maxNanos, i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                }
+            }
+            return maxNanos;
+        }
+
+        /** @return the number of durations in each bucket; see {@link LatencyHistogram} */
+        public long[] getBuckets() {
+            return buckets.clone();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus", count,
+                    getMeanNanos() / 1000, getPercentileNanos(0.5) / 1000.0,
+                    getPercentileNanos(0.99) / 1000.0, maxNanos / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package simpledb.common;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * The lock on one resource of the LockManager, a record, a page or a
+ * table: the {@link LockMode} each transaction holds on it, and the
+ * requests waiting for it in arrival order. A record is locked in S or X
+ * only; a page in S or X, or in IS or IX by transactions locking its
+ * records.
+ * <p>
+ * Requests are granted first come, first served: a new request waits
+ * behind any queued one, even if it is compatible with the holders, so a
+ * stream of readers cannot starve a writer. A holder asking for a stronger
+ * mode is the exception; its upgrade goes ahead of every other waiter.
+ * <p>
+ * Not thread-safe; guarded by the latch of the lock table partition the
+ * resource belongs to.
+ */
+public class LockEntry {
+
+    /** A transaction waiting for a mode on an entry. */
+    static final class Request {
+        final TransactionId tid;
+        final LockMode mode;
+        final boolean upgrade;
+        final Condition wakeup;
+        boolean granted = false;
+
+        Request(TransactionId tid, LockMode mode, boolean upgrade, Condition wakeup) {
+            this.tid = tid;
+            this.mode = mode;
+            this.upgrade = upgrade;
+            this.wakeup = wakeup;
+        }
+    }
+
+    private HashMap<TransactionId, LockMode> holders;
+    private LinkedList<Request> queue;
+
+    public LockEntry() {
+        holders = new HashMap<>();
+        queue = new LinkedList<>();
+    }
+
+    /** @return the mode tid holds, or null if it holds none */
+    public LockMode getMode(TransactionId tid) {
+        return holders.get(tid);
+    }
+
+    /** @return the transactions holding this lock and their modes */
+    public Map<TransactionId, LockMode> getHolders() {
+        return Collections.unmodifiableMap(holders);
+    }
+
+    /** @return the transactions waiting for this lock, first to be granted first */
+    public List<TransactionId> getWaiters() {
+        List<TransactionId> waiters = new ArrayList<>();
+        for (Request r : queue) {
+            waiters.add(r.tid);
+        }
+        return waiters;
+    }
+
+    void setMode(TransactionId tid, LockMode mode) {
+        holders.put(tid, mode);
+    }
+
+    /** @return true if tid held this lock */
+    boolean release(TransactionId tid) {
+        return holders.remove(tid) != null;
+    }
+
+    /** @return true if nobody holds or waits for this lock */
+    boolean isFree() {
+        return holders.isEmpty() && queue.isEmpty();
+    }
+
+    /** @return true if mode is compatible with the modes of every other holder */
+    boolean compatible(TransactionId tid, LockMode mode) {
+        for (Map.Entry<TransactionId, LockMode> e : holders.entrySet()) {
+            if (!e.getKey().equals(tid) && !mode.isCompatibleWith(e.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return true if tid may take mode right away, without queueing */
+    boolean canGrant(TransactionId tid, LockMode mode) {
+        boolean upgrade = holders.containsKey(tid);
+        return compatible(tid, mode) && (upgrade || queue.isEmpty());
+    }
+
+    /** Queue a request; an upgrade goes behind the other upgrades, ahead of the rest. */
+    Request enqueue(TransactionId tid, LockMode mode, Condition wakeup) {
+        Request r = new Request(tid, mode, holders.containsKey(tid), wakeup);
+        if (r.upgrade) {
+            ListIterator<Request> it = queue.listIterator();
+            while (it.hasNext()) {
+                if (!it.next().upgrade) {
+                    it.previous();
+                    break;
+                }
+            }
+            it.add(r);
+        } else {
+            queue.add(r);
+        }
+        return r;
+    }
+
+    void dequeue(Request r) {
+        queue.remove(r);
+    }
+
+    /**
+     * Grant queued requests in order until one cannot be granted, waking
+     * exactly the transactions that were granted.
+     */
+    void grantWaiters() {
+        Iterator<Request> it = queue.iterator();
+        while (it.hasNext()) {
+            Request r = it.next();
+            if (!compatible(r.tid, r.mode)) {
+                break;
+            }
+            it.remove();
+            holders.put(r.tid, r.mode);
+            r.granted = true;
+            r.wakeup.signal();
+        }
+    }
+
+    /** @return for each queued request, the transactions it waits for */
+    Map<TransactionId, Set<TransactionId>> waitsFor() {
+        Map<TransactionId, Set<TransactionId>> edges = new HashMap<>();
+        for (Request r : queue) {
+            edges.computeIfAbsent(r.tid, k -> new HashSet<>()).addAll(blockers(r));
+        }
+        return edges;
+    }
+
+    /**
+     * @return the transactions a queued request waits for: holders whose
+     *         modes conflict with it, and conflicting requests ahead of it
+     */
+    HashSet<TransactionId> blockers(Request r) {
+        HashSet<TransactionId> blockers = new HashSet<>();
+        for (Map.Entry<TransactionId, LockMode> e : holders.entrySet()) {
+            if (!e.getKey().equals(r.tid) && !r.mode.isCompatibleWith(e.getValue())) {
+                blockers.add(e.getKey());
+            }
+        }
+        for (Request ahead : queue) {
+            if (ahead == r) {
+                break;
+            }
+            if (!ahead.tid.equals(r.tid) && !r.mode.isCompatibleWith(ahead.mode)) {
+                blockers.add(ahead.tid);
+            }
+        }
+        return blockers;
+    }
+}
@@ -1,132 +1,1035 @@
 package simpledb.common;
 import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 
+/**
+ * LockManager grants locks on a hierarchy of tables, the pages below them
+ * and the records on those pages. It also detects deadlocks among the
+ * transactions waiting for them.
+ * <p>
+ * A page lock is shared or exclusive. Before taking one, a transaction
+ * takes an intention lock on the page's table, IS for a shared page lock
+ * or IX for an exclusive one (see {@link LockMode}). A transaction holding
+ * S, SIX or X on a table needs no page lock to read its pages, and one
+ * holding X needs none to write them. Once a transaction holds more than
+ * {@link #getEscalationThreshold} page locks on one table, its intention
+ * lock is escalated to S (from IS) or X (from IX or SIX), provided that
+ * can be granted without waiting, and its page locks on the table are
+ * dropped. A long scan or bulk insert thus ends up with one lock table
+ * entry instead of one per page. The dropped locks leave the cache of
+ * granted locks and unpin their pages, but the pages a transaction touched
+ * are still listed in transacMap, which the BufferPool uses to find its
+ * dirty pages.
+ * <p>
+ * A transaction changing single records instead takes IX on the page, on
+ * top of IX on the table, and an exclusive lock on each record it
+ * inserts or deletes (see {@link #acquireRecordLock}). IX is compatible
+ * with IX, so transactions changing different records of one page do not
+ * wait for each other, while a page lock in S or X still excludes them.
+ * A transaction holding S or X on the page, or on its table, needs no
+ * record locks there.
+ * <p>
+ * The lock table is split into {@link #NUM_PARTITIONS} partitions by the
+ * hash of the page or table, each with its own latch, so transactions
+ * locking different pages do not contend. Each {@link LockEntry} queues
+ * its waiters first come, first served, with upgrades first. A release
+ * grants the queued requests that have become compatible and wakes only
+ * their transactions. A waiter also wakes up every
+ * {@link #WAIT_RECHECK_MILLIS} to look for deadlocks again.
+ * <p>
+ * How deadlocks are handled is chosen with {@link #setDeadlockPolicy}. By
+ * default they are detected on the wait-for graph in waitMap, the only
+ * state guarded by the LockManager's own monitor. A transaction about to
+ * wait records the transactions it waits for and searches the graph from
+ * there for a path back to itself; if it closed a cycle, it aborts
+ * itself. The search only visits the transactions it waits for, directly
+ * or not, rather than the whole graph. Partition latches are always taken
+ * before the monitor. The other policies prevent deadlocks without a
+ * graph: wait-die and wound-wait by letting only older transactions wait
+ * for younger ones or only younger for older, and a timeout by aborting
+ * any transaction that waited too long. A transaction wounded under
+ * wound-wait aborts at its next lock request, or at once if it is waiting.
+ * The number of conflicts, aborts and the time spent waiting are kept per
+ * policy, so the policies can be compared on one workload.
+ * <p>
+ * Besides its tables, it keeps a concurrent cache of the locks granted to
+ * each transaction. A transaction asking again for a lock it already holds
+ * is answered from the cache without taking any latch, so re-reading pages
+ * it has already touched does not serialize with other transactions. An
+ * entry exists exactly as long as the lock it records.
+ * <p>
+ * The cache also gives each page a pin count, the number of transactions
+ * holding a lock on it, which the BufferPool reads to avoid evicting pages
+ * that are in use.
+ * <p>
+ * For finding contended pages, the current holders and waiters of each
+ * page ({@link #getPageLocks}) and the live wait-for graph
+ * ({@link #getWaitForGraphDot}) can be read from the lock table at any
+ * time. The pages waited for most ({@link #getHotPages}), the lock wait
+ * times of each table and the aborts by the mode the victim asked for are
+ * counted as requests wait.
+ */
 public class LockManager {
 
-  private HashMap<PageId, PageLock> pgLock;
-  public HashMap<TransactionId, HashSet<PageId>> transacMap;
-  private HashMap<TransactionId,HashSet<TransactionId>> waitMap;
+  /** Default number of page locks on one table a transaction may hold before escalation. */
+  public static final int DEFAULT_ESCALATION_THRESHOLD = 512;
+
+  /** Number of partitions of the lock table. */
+  public static final int NUM_PARTITIONS = 64;
+
+  /** How often a waiting transaction checks for deadlocks again, in ms. */
+  public static final long WAIT_RECHECK_MILLIS = 100;
+
+  /** Default time a transaction may wait for a lock under {@link DeadlockPolicy#TIMEOUT}, in ms. */
+  public static final long DEFAULT_LOCK_TIMEOUT_MILLIS = 500;
+
+  /** One partition of the lock table: the entries of the pages and tables hashed to it. */
+  private static final class Partition {
+    final ReentrantLock latch = new ReentrantLock();
+    final HashMap<Object, LockEntry> entries = new HashMap<>(); // guarded by latch
+  }
+
+  /** A transaction waiting in a partition, so it can be woken when wounded. */
+  private static final class Waiter {
+    final Partition part;
+    final LockEntry.Request request;
+
+    Waiter(Partition part, LockEntry.Request request) {
+      this.part = part;
+      this.request = request;
+    }
+  }
+
+  /** How often, and how long, transactions waited for a page or its records. */
+  private static final class Contention {
+    final LongAdder waits = new LongAdder();
+    final LongAdder waitNanos = new LongAdder();
+  }
+
+  /** What happened to lock requests under one deadlock policy. */
+  private static final class PolicyStats {
+    final AtomicLong conflicts = new AtomicLong();
+    final AtomicLong aborts = new AtomicLong();
+    final LatencyHistogram waits = new LatencyHistogram();
+  }
+
+  /** The holders and waiters of the lock on one page at one moment. */
+  public static final class PageLockState {
+    private final PageId pid;
+    private final Map<TransactionId, LockMode> holders;
+    private final List<TransactionId> waiters;
+
+    PageLockState(PageId pid, Map<TransactionId, LockMode> holders, List<TransactionId> waiters) {
+      this.pid = pid;
+      this.holders = Collections.unmodifiableMap(holders);
+      this.waiters = Collections.unmodifiableList(waiters);
+    }
+
+    public PageId getPageId() {
+      return pid;
+    }
+
+    /** @return the transactions holding the lock and their modes */
+    public Map<TransactionId, LockMode> getHolders() {
+      return holders;
+    }
+
+    /** @return the transactions waiting for the lock, first to be granted first */
+    public List<TransactionId> getWaiters() {
+      return waiters;
+    }
+  }
+
+  /** How often, and how long, transactions waited for one page or its records. */
+  public static final class PageContention {
+    private final PageId pid;
+    private final long waits;
+    private final long waitNanos;
+
+    PageContention(PageId pid, long waits, long waitNanos) {
+      this.pid = pid;
+      this.waits = waits;
+      this.waitNanos = waitNanos;
+    }
+
+    public PageId getPageId() {
+      return pid;
+    }
+
+    /** @return the number of lock requests on the page or its records that had to wait */
+    public long getWaits() {
+      return waits;
+    }
+
+    /** @return the total time those requests waited before they were granted, in nanoseconds */
+    public long getWaitNanos() {
+      return waitNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s waits=%d wait=%.1fms", describe(pid), waits, waitNanos / 1e6);
+    }
+  }
+
+  private final Partition[] partitions;
+  public ConcurrentHashMap<TransactionId, Set<PageId>> transacMap;
+  private HashMap<TransactionId,HashSet<TransactionId>> waitMap; // guarded by this
+  // the tables each transaction holds a lock on
+  private final ConcurrentHashMap<TransactionId, Set<Integer>> tidTables = new ConcurrentHashMap<>();
+  // the records each transaction holds a lock on
+  private final ConcurrentHashMap<TransactionId, Set<RecordId>> tidRecords = new ConcurrentHashMap<>();
+  // the number of page locks each transaction holds, by table
+  private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<Integer, Integer>> pageLockCounts = new ConcurrentHashMap<>();
+  private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+  private final AtomicLong escalations = new AtomicLong();
+  private final LatencyHistogram lockWaits = new LatencyHistogram();
+  private volatile DeadlockPolicy policy = DeadlockPolicy.DETECT;
+  private volatile long lockTimeoutMillis = DEFAULT_LOCK_TIMEOUT_MILLIS;
+  private final EnumMap<DeadlockPolicy, PolicyStats> policyStats = new EnumMap<>(DeadlockPolicy.class);
+  // transactions waiting for a lock, and those wounded by an older one
+  private final ConcurrentHashMap<TransactionId, Waiter> waiting = new ConcurrentHashMap<>();
+  private final Set<TransactionId> wounded = ConcurrentHashMap.newKeySet();
+  // the locks held by each transaction, strongest permission granted
+  private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Permissions>> granted = new ConcurrentHashMap<>();
+  // the number of transactions holding a lock on each page
+  private final ConcurrentHashMap<PageId, Integer> pins = new ConcurrentHashMap<>();
+  // lock waits by table and by page, and aborts by the mode the victim asked for
+  private final ConcurrentHashMap<Integer, LatencyHistogram> tableWaits = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<PageId, Contention> contention = new ConcurrentHashMap<>();
+  private final EnumMap<LockMode, AtomicLong> victims = new EnumMap<>(LockMode.class);
 
 
   public LockManager() {
-    pgLock = new HashMap<>();
-    transacMap= new HashMap<>();
+    partitions = new Partition[NUM_PARTITIONS];
+    for (int i = 0; i < partitions.length; i++) {
+      partitions[i] = new Partition();
+    }
+    transacMap= new ConcurrentHashMap<>();
     waitMap = new HashMap<>();
+    for (DeadlockPolicy p : DeadlockPolicy.values()) {
+      policyStats.put(p, new PolicyStats());
+    }
+    for (LockMode m : LockMode.values()) {
+      victims.put(m, new AtomicLong());
+    }
+  }
+
+  /** Choose how deadlocks are handled from the next lock request on. */
+  public void setDeadlockPolicy(DeadlockPolicy policy) {
+    this.policy = policy;
+  }
+
+  public DeadlockPolicy getDeadlockPolicy() {
+    return policy;
+  }
+
+  /** Set how long a transaction may wait for a lock under {@link DeadlockPolicy#TIMEOUT}. */
+  public void setLockTimeout(long millis) {
+    this.lockTimeoutMillis = millis;
+  }
+
+  public long getLockTimeout() {
+    return lockTimeoutMillis;
+  }
+
+  /** @return the number of lock requests that could not be granted at once under the policy */
+  public long getConflictCount(DeadlockPolicy policy) {
+    return policyStats.get(policy).conflicts.get();
+  }
+
+  /** @return the number of transactions the policy aborted */
+  public long getAbortCount(DeadlockPolicy policy) {
+    return policyStats.get(policy).aborts.get();
+  }
+
+  /** @return the fraction of conflicting lock requests under the policy that ended in an abort */
+  public double getAbortRate(DeadlockPolicy policy) {
+    PolicyStats stats = policyStats.get(policy);
+    long conflicts = stats.conflicts.get();
+    return conflicts == 0 ? 0.0 : (double) stats.aborts.get() / conflicts;
+  }
+
+  /** @return the time spent waiting for locks that were granted in the end, under the policy */
+  public LatencyHistogram getLockWaits(DeadlockPolicy policy) {
+    return policyStats.get(policy).waits;
+  }
+
+  /**
+   * @return the time acquireLock calls spent waiting for a conflicting lock
+   *   to be released; calls granted at once are not recorded
+   */
+  public LatencyHistogram getLockWaits() {
+    return lockWaits;
+  }
+
+  /**
+   * Set the number of page locks on one table a transaction may hold before
+   * they are escalated to a table lock, or 0 to never escalate.
+   */
+  public void setEscalationThreshold(int threshold) {
+    this.escalationThreshold = threshold;
+  }
+
+  public int getEscalationThreshold() {
+    return escalationThreshold;
+  }
+
+  /** @return the number of times page locks were escalated to a table lock */
+  public long getEscalationCount() {
+    return escalations.get();
+  }
+
+  /**
+   * @return the number of transactions aborted, under any policy, while
+   *   asking for a lock in the given mode
+   */
+  public long getAbortCount(LockMode mode) {
+    return victims.get(mode).get();
+  }
+
+  /**
+   * @return the time spent waiting for locks that were granted in the end,
+   *   by table id, for the tables whose locks were waited for
+   */
+  public Map<Integer, LatencyHistogram.Snapshot> getTableLockWaits() {
+    Map<Integer, LatencyHistogram.Snapshot> waits = new HashMap<>();
+    tableWaits.forEach((tableId, h) -> waits.put(tableId, h.snapshot()));
+    return waits;
+  }
+
+  /**
+   * @return up to n of the pages whose locks, or the locks on whose records,
+   *   were waited for most often, most often first, ties broken by the
+   *   longer total wait
+   */
+  public List<PageContention> getHotPages(int n) {
+    List<PageContention> pages = new ArrayList<>();
+    contention.forEach((pid, c) -> pages.add(new PageContention(pid, c.waits.sum(), c.waitNanos.sum())));
+    pages.sort(Comparator.comparingLong(PageContention::getWaits)
+        .thenComparingLong(PageContention::getWaitNanos).reversed());
+    return pages.subList(0, Math.min(n, pages.size()));
+  }
+
+  /**
+   * @return the holders and waiters of the lock on every page that has one.
+   *   Each partition of the lock table is read under its own latch, so
+   *   each page is reported as it was at one moment, but not all pages at
+   *   the same moment.
+   */
+  public Map<PageId, PageLockState> getPageLocks() {
+    Map<PageId, PageLockState> locks = new HashMap<>();
+    forEachEntry((resource, entry) -> {
+      if (resource instanceof PageId) {
+        locks.put((PageId) resource,
+            new PageLockState((PageId) resource, new HashMap<>(entry.getHolders()), entry.getWaiters()));
+      }
+    });
+    return locks;
+  }
+
+  /**
+   * @return the live wait-for graph: each transaction waiting for a lock,
+   *   on a table, page or record, and the transactions it waits for. It is
+   *   read from the lock queues, whatever the deadlock policy.
+   */
+  public Map<TransactionId, Set<TransactionId>> getWaitForGraph() {
+    Map<TransactionId, Set<TransactionId>> graph = new HashMap<>();
+    forEachEntry((resource, entry) -> entry.waitsFor().forEach(
+        (tid, blockers) -> graph.computeIfAbsent(tid, k -> new HashSet<>()).addAll(blockers)));
+    return graph;
+  }
+
+  /**
+   * @return the live wait-for graph in Graphviz DOT, an edge from each
+   *   waiting transaction to each transaction it waits for, labelled with
+   *   the lock it waits on
+   */
+  public String getWaitForGraphDot() {
+    List<String> edges = new ArrayList<>();
+    forEachEntry((resource, entry) -> entry.waitsFor().forEach((tid, blockers) -> {
+      for (TransactionId blocker : blockers) {
+        edges.add(String.format("  \"T%d\" -> \"T%d\" [label=\"%s\"];",
+            tid.getId(), blocker.getId(), describe(resource)));
+      }
+    }));
+    Collections.sort(edges);
+    StringBuilder dot = new StringBuilder("digraph waitfor {\n");
+    for (String edge : edges) {
+      dot.append(edge).append('\n');
+    }
+    return dot.append("}\n").toString();
+  }
+
+  /** Call action on every lock entry, holding the latch of its partition. */
+  private void forEachEntry(BiConsumer<Object, LockEntry> action) {
+    for (Partition part : partitions) {
+      part.latch.lock();
+      try {
+        part.entries.forEach(action);
+      } finally {
+        part.latch.unlock();
+      }
+    }
+  }
+
+  /** @return the page a lock resource is or belongs to, or null for a table */
+  private static PageId pageOf(Object resource) {
+    if (resource instanceof RecordId) {
+      return ((RecordId) resource).getPageId();
+    }
+    return resource instanceof PageId ? (PageId) resource : null;
+  }
+
+  /** @return a readable name for a lock resource */
+  private static String describe(Object resource) {
+    PageId pid = pageOf(resource);
+    if (pid == null) {
+      return "table " + resource;
+    }
+    String page = pid.getTableId() + ":" + pid.getPageNumber();
+    if (resource instanceof RecordId) {
+      return "record " + page + ":" + ((RecordId) resource).getTupleNumber();
+    }
+    return "page " + page;
+  }
+
+  /** Count a request that has to wait for a lock on resource. */
+  private void contended(Object resource) {
+    PageId pid = pageOf(resource);
+    if (pid != null) {
+      contention.computeIfAbsent(pid, k -> new Contention()).waits.increment();
+    }
+  }
+
+  /** Record the time a request waited for a lock on resource before it was granted. */
+  private void waited(Object resource, long nanos) {
+    PageId pid = pageOf(resource);
+    int tableId = pid == null ? (Integer) resource : pid.getTableId();
+    tableWaits.computeIfAbsent(tableId, k -> new LatencyHistogram()).record(nanos);
+    if (pid != null) {
+      contention.computeIfAbsent(pid, k -> new Contention()).waitNanos.add(nanos);
+    }
+  }
+
+  private Partition partitionOf(Object resource) {
+    int h = resource.hashCode();
+    return partitions[Math.floorMod(h ^ (h >>> 16), partitions.length)];
+  }
+
+  /** @return the resource a table lock is kept under */
+  private static Object tableResource(int tableId) {
+    return Integer.valueOf(tableId);
+  }
+
+  /** @return the mode tid holds on a page or table, or null if it holds none */
+  private LockMode modeOf(TransactionId tid, Object resource) {
+    Partition part = partitionOf(resource);
+    part.latch.lock();
+    try {
+      LockEntry entry = part.entries.get(resource);
+      return entry == null ? null : entry.getMode(tid);
+    } finally {
+      part.latch.unlock();
+    }
+  }
+
+  /** @return the mode tid holds on the table, or null if it holds none */
+  public LockMode getTableLock(TransactionId tid, int tableId) {
+    return modeOf(tid, tableResource(tableId));
+  }
+
+  /** @return the number of page and table lock entries in use */
+  public int getLockTableSize() {
+    int size = 0;
+    for (Partition part : partitions) {
+      part.latch.lock();
+      try {
+        size += part.entries.size();
+      } finally {
+        part.latch.unlock();
+      }
+    }
+    return size;
+  }
+
+  public boolean holdsLock(TransactionId tid, PageId pid) {
+    if (coveredBy(getTableLock(tid, pid.getTableId()), Permissions.READ_ONLY)) {
+      return true;
+    }
+    return modeOf(tid, pid) != null;
+  }
+
+  /**
+   * Return true if a transaction other than tid holds a lock on the page,
+   * or on its table, that a shared lock would conflict with, so it may be
+   * changing the page. Does not wait.
+   */
+  public boolean isLockedForWrite(TransactionId tid, PageId pid) {
+    return !compatibleNow(tid, pid, LockMode.S)
+        || !compatibleNow(tid, tableResource(pid.getTableId()), LockMode.IS);
+  }
+
+  /** @return true if mode on the resource is compatible with every other holder's */
+  private boolean compatibleNow(TransactionId tid, Object resource, LockMode mode) {
+    Partition part = partitionOf(resource);
+    part.latch.lock();
+    try {
+      LockEntry entry = part.entries.get(resource);
+      return entry == null || entry.compatible(tid, mode);
+    } finally {
+      part.latch.unlock();
+    }
   }
 
-  synchronized public boolean holdsLock(TransactionId tid, PageId pid) {
-    if (!pgLock .containsKey(pid)) {
+  /**
+   * Return true if the transaction already holds a lock that covers perm:
+   * any lock for READ_ONLY, an exclusive one for READ_WRITE. Does not take
+   * any latch.
+   */
+  public boolean isGranted(TransactionId tid, PageId pid, Permissions perm) {
+    Map<PageId, Permissions> held = granted.get(tid);
+    if (held == null) {
       return false;
     }
-    PageLock lockPage = pgLock .get(pid);
-    return lockPage.holdsLock(tid);
+    Permissions p = held.get(pid);
+    return p == Permissions.READ_WRITE || (p != null && perm == Permissions.READ_ONLY);
   }
 
-  synchronized public void acquireLock(TransactionId tid, PageId pid, Permissions perm) throws DbException, TransactionAbortedException, InterruptedException {
-    pgLock .putIfAbsent(pid, new PageLock());
-    transacMap.putIfAbsent(tid, new HashSet<>());
+  /** @return the number of transactions holding a lock on the page */
+  public int getPinCount(PageId pid) {
+    return pins.getOrDefault(pid, 0);
+  }
 
+  /** Record a granted lock in the cache. */
+  private void grant(TransactionId tid, PageId pid, Permissions perm) {
+    Map<PageId, Permissions> held = granted.computeIfAbsent(tid, k -> new ConcurrentHashMap<>());
+    Permissions prev = held.putIfAbsent(pid, perm);
+    if (prev == null) {
+      pins.merge(pid, 1, Integer::sum);
+    } else if (perm == Permissions.READ_WRITE) {
+      held.put(pid, perm);
+    }
+  }
 
-    HashSet<PageId> currentPages = transacMap.get(tid);
-    currentPages.add(pid);
-    transacMap.put(tid, currentPages);
+  /** Drop a released lock from the cache. */
+  private void ungrant(TransactionId tid, PageId pid) {
+    Map<PageId, Permissions> held = granted.get(tid);
+    if (held != null && held.remove(pid) != null) {
+      pins.computeIfPresent(pid, (k, n) -> n == 1 ? null : n - 1);
+    }
+  }
 
-    PageLock page = pgLock.get(pid);
+  /** @return true if a table lock in the given mode lets its holder access any page with perm */
+  private static boolean coveredBy(LockMode mode, Permissions perm) {
+    if (mode == null) {
+      return false;
+    }
+    return mode == LockMode.X || (perm == Permissions.READ_ONLY && mode.covers(LockMode.S));
+  }
 
-    while(true){
-      if(page.holdsWriteLock()){
-        if(perm.equals(Permissions.READ_WRITE)){
-          if(page.holdsWriteLock(tid)) return;
-        }else if(perm.equals(Permissions.READ_ONLY)){
-          if(page.getWriteLock().equals(tid)) return;
-        }else{
-          throw new DbException("permission does not exist");
-        }
-        waitMap.putIfAbsent(tid,new HashSet<>());
-        if(!waitMap.get(tid).contains(page.getWriteLock()))
-        waitMap.get(tid).add(page.getWriteLock());
-        if(isDeadLock()){
-          waitMap.get(tid).remove(page.getWriteLock());
-          notifyAll();
-          throw new TransactionAbortedException();
+  /** @return the intention mode a page lock with perm needs on its table */
+  private static LockMode intentionFor(Permissions perm) {
+    return perm == Permissions.READ_WRITE ? LockMode.IX : LockMode.IS;
+  }
+
+  /**
+   * Take mode on a page or table for tid, strengthening the mode it holds
+   * already, waiting in the entry's queue as long as needed.
+   *
+   * @return the nanoseconds spent waiting
+   * @throws TransactionAbortedException if the deadlock policy aborts tid
+   */
+  private long acquire(TransactionId tid, Object resource, LockMode mode) throws TransactionAbortedException, InterruptedException {
+    DeadlockPolicy policy = this.policy;
+    Partition part = partitionOf(resource);
+    part.latch.lock();
+    try {
+      LockEntry entry = part.entries.computeIfAbsent(resource, k -> new LockEntry());
+      LockMode held = entry.getMode(tid);
+      LockMode wanted = held == null ? mode : held.combine(mode);
+      if (wanted == held) {
+        return 0;
+      }
+      if (entry.canGrant(tid, wanted)) {
+        entry.setMode(tid, wanted);
+        return 0;
+      }
+
+      PolicyStats stats = policyStats.get(policy);
+      stats.conflicts.incrementAndGet();
+      contended(resource);
+      LockEntry.Request request = entry.enqueue(tid, wanted, part.latch.newCondition());
+      Waiter waiter = new Waiter(part, request);
+      waiting.put(tid, waiter);
+      long waitStart = System.nanoTime();
+      long deadline = waitStart + TimeUnit.MILLISECONDS.toNanos(lockTimeoutMillis);
+      boolean done = false;
+      try {
+        while (!request.granted) {
+          if (mustAbort(tid, policy, entry.blockers(request), deadline)) {
+            stats.aborts.incrementAndGet();
+            victims.get(wanted).incrementAndGet();
+            throw new TransactionAbortedException();
+          }
+          long left = policy == DeadlockPolicy.TIMEOUT ? deadline - System.nanoTime() : Long.MAX_VALUE;
+          request.wakeup.await(Math.min(TimeUnit.MILLISECONDS.toNanos(WAIT_RECHECK_MILLIS), left), TimeUnit.NANOSECONDS);
         }
-      }else{
-        if(perm.equals(Permissions.READ_ONLY)){
-          page.addReadLock(tid);
-          return;
-        }else if(perm.equals(Permissions.READ_WRITE)){
-          if(page.getReadLocks().isEmpty()){
-            page.setWriteLock(tid);
-            return;
+        done = true;
+      } finally {
+        waiting.remove(tid, waiter);
+        if (!done && !request.granted) {
+          // a request ahead of the others may have held them back
+          entry.dequeue(request);
+          entry.grantWaiters();
+          if (entry.isFree()) {
+            part.entries.remove(resource);
           }
-          if((page.getReadLocks().size()==1) && (page.getReadLocks().contains(tid))){
-            page.upgradeLock(tid);
-            return;
-          }else{
-            waitMap.putIfAbsent(tid, new HashSet<>());
-            HashSet<TransactionId> tids = waitMap.get(tid);
-            for (TransactionId readLock : page.getReadLocks()) {
-              if (!readLock.equals(tid)) {
-                if (!tids.contains(readLock)) {
-                  tids.add(readLock);
-                }
-              }
-            }
-            waitMap.replace(tid, tids);
-            if (isDeadLock()) {
-              for (TransactionId readLock2 : page.getReadLocks()) {
-                if (waitMap.get(tid).contains(readLock2)) {
-                    waitMap.get(tid).remove(readLock2);
-                }
-              }
-              notifyAll();
-              throw new TransactionAbortedException();
-            }
+        }
+        if (policy == DeadlockPolicy.DETECT) {
+          waitFor(tid, null);
+        }
+      }
+      long waited = System.nanoTime() - waitStart;
+      stats.waits.record(waited);
+      waited(resource, waited);
+      return waited;
+    } finally {
+      part.latch.unlock();
+    }
+  }
+
+  /**
+   * Decide whether tid, waiting for the given transactions, must give up,
+   * wounding the younger ones first under wound-wait.
+   */
+  private boolean mustAbort(TransactionId tid, DeadlockPolicy policy, Set<TransactionId> blockers, long deadline) {
+    if (wounded.contains(tid)) {
+      return true;
+    }
+    switch (policy) {
+    case WAIT_DIE:
+      for (TransactionId other : blockers) {
+        if (other.getId() < tid.getId()) {
+          return true;
+        }
+      }
+      return false;
+    case WOUND_WAIT:
+      for (TransactionId other : blockers) {
+        if (other.getId() > tid.getId()) {
+          wound(other);
+        }
+      }
+      return false;
+    case TIMEOUT:
+      return System.nanoTime() - deadline >= 0;
+    default:
+      return waitFor(tid, blockers);
+    }
+  }
+
+  /**
+   * Mark a transaction to be aborted, waking it if it is waiting for a
+   * lock. If its partition is busy it finds out at its next recheck.
+   */
+  private void wound(TransactionId tid) {
+    wounded.add(tid);
+    Waiter w = waiting.get(tid);
+    if (w != null && w.part.latch.tryLock()) {
+      try {
+        w.request.wakeup.signal();
+      } finally {
+        w.part.latch.unlock();
+      }
+    }
+  }
+
+  /**
+   * Take mode on a page or table for tid if that needs no waiting.
+   *
+   * @return true if tid holds mode now
+   */
+  private boolean tryAcquire(TransactionId tid, Object resource, LockMode mode) {
+    Partition part = partitionOf(resource);
+    part.latch.lock();
+    try {
+      LockEntry entry = part.entries.computeIfAbsent(resource, k -> new LockEntry());
+      LockMode held = entry.getMode(tid);
+      LockMode wanted = held == null ? mode : held.combine(mode);
+      if (wanted != held) {
+        if (!entry.canGrant(tid, wanted)) {
+          if (entry.isFree()) {
+            part.entries.remove(resource);
           }
-        }else{
-          throw new DbException("permission does not exist");
+          return false;
         }
+        entry.setMode(tid, wanted);
       }
-      wait();
+      return true;
+    } finally {
+      part.latch.unlock();
     }
   }
 
+  /**
+   * Give tid's hold on a page or table back to the mode it had, or drop it
+   * if prev is null, and grant the waiters that can proceed now.
+   *
+   * @return true if tid held the lock
+   */
+  private boolean restore(TransactionId tid, Object resource, LockMode prev) {
+    Partition part = partitionOf(resource);
+    part.latch.lock();
+    try {
+      LockEntry entry = part.entries.get(resource);
+      if (entry == null || entry.getMode(tid) == null) {
+        return false;
+      }
+      if (prev == null) {
+        entry.release(tid);
+      } else {
+        entry.setMode(tid, prev);
+      }
+      entry.grantWaiters();
+      if (entry.isFree()) {
+        part.entries.remove(resource);
+      }
+      return true;
+    } finally {
+      part.latch.unlock();
+    }
+  }
 
-  synchronized public void releaseLock(TransactionId tid, PageId pid) throws DbException {
-    if (pgLock.containsKey(pid)) {
-        pgLock.get(pid).releaseLock(tid);
-        transacMap.get(tid).remove(pid);
-      notifyAll();
+  /**
+   * Record the transactions tid waits for, or that it waits no more if
+   * blockers is null.
+   *
+   * @return true if waiting for them closes a cycle of waiting transactions
+   */
+  synchronized private boolean waitFor(TransactionId tid, Set<TransactionId> blockers) {
+    if (blockers == null || blockers.isEmpty()) {
+      waitMap.remove(tid);
+      return false;
     }
+    waitMap.put(tid, new HashSet<>(blockers));
+    if (closesCycle(tid)) {
+      waitMap.remove(tid);
+      return true;
+    }
+    return false;
   }
 
+  /**
+   * Check whether tid, whose wait-for edges were just recorded, now waits
+   * for itself. The graph had no cycle before, so any new cycle runs
+   * through tid, and a search from it finds it without looking at the
+   * rest of the graph.
+   */
+  synchronized private boolean closesCycle(TransactionId tid) {
+    HashSet<TransactionId> seen = new HashSet<>();
+    Deque<TransactionId> toVisit = new ArrayDeque<>(waitMap.get(tid));
+    while (!toVisit.isEmpty()) {
+      TransactionId next = toVisit.pop();
+      if (next.equals(tid)) {
+        return true;
+      }
+      if (!seen.add(next)) {
+        continue;
+      }
+      HashSet<TransactionId> waitsFor = waitMap.get(next);
+      if (waitsFor != null) {
+        toVisit.addAll(waitsFor);
+      }
+    }
+    return false;
+  }
 
-  synchronized public void releaseAllLocks(TransactionId tid) throws DbException {
-    HashSet<PageId> currPages = transacMap.get(tid);
-    if (currPages == null) return;
+  private void releaseTableLock(TransactionId tid, int tableId) {
+    restore(tid, tableResource(tableId), null);
+    Set<Integer> tables = tidTables.get(tid);
+    if (tables != null) {
+      tables.remove(tableId);
+    }
+  }
+
+  /** Drop tid's page lock, counting it off its table. */
+  private void releasePageLock(TransactionId tid, PageId pid) {
+    if (!restore(tid, pid, null)) {
+      return;
+    }
+    Map<Integer, Integer> counts = pageLockCounts.get(tid);
+    if (counts != null) {
+      counts.computeIfPresent(pid.getTableId(), (k, n) -> n == 1 ? null : n - 1);
+    }
+  }
+
+  /**
+   * Count a page lock newly granted to tid, escalating its page locks on
+   * the table once there are too many.
+   */
+  private void pageLocked(TransactionId tid, PageId pid) {
+    int tableId = pid.getTableId();
+    int count = pageLockCounts.computeIfAbsent(tid, k -> new ConcurrentHashMap<>()).merge(tableId, 1, Integer::sum);
+    int threshold = escalationThreshold;
+    if (threshold <= 0 || count <= threshold) {
+      return;
+    }
+    LockMode held = getTableLock(tid, tableId);
+    LockMode wanted = held.covers(LockMode.IX) ? LockMode.X : LockMode.S;
+    if (!tryAcquire(tid, tableResource(tableId), wanted)) {
+      // escalate later, if the other holders are gone by then
+      return;
+    }
+    escalations.incrementAndGet();
+    for (PageId p : transacMap.get(tid)) {
+      if (p.getTableId() == tableId) {
+        releasePageLock(tid, p);
+        ungrant(tid, p);
+      }
+    }
+    // the page just asked for is held through the table lock now
+    grant(tid, pid, wanted == LockMode.X ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+    pageLockCounts.get(tid).remove(tableId);
+  }
+
+  public void acquireLock(TransactionId tid, PageId pid, Permissions perm) throws DbException, TransactionAbortedException, InterruptedException {
+    if (isGranted(tid, pid, perm)) {
+      return;
+    }
+    lock(tid, pid, perm);
+  }
+
+  private void lock(TransactionId tid, PageId pid, Permissions perm) throws DbException, TransactionAbortedException, InterruptedException {
+    if (!perm.equals(Permissions.READ_ONLY) && !perm.equals(Permissions.READ_WRITE)) {
+      throw new DbException("permission does not exist");
+    }
+    if (wounded.contains(tid)) {
+      policyStats.get(DeadlockPolicy.WOUND_WAIT).aborts.incrementAndGet();
+      victims.get(perm == Permissions.READ_WRITE ? LockMode.X : LockMode.S).incrementAndGet();
+      throw new TransactionAbortedException();
+    }
+    transacMap.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+
+    int tableId = pid.getTableId();
+    long waited = 0;
+    try {
+      LockMode table = getTableLock(tid, tableId);
+      if (coveredBy(table, perm)) {
+        grant(tid, pid, table == LockMode.X ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+        return;
+      }
+      waited += acquire(tid, tableResource(tableId), intentionFor(perm));
+      tidTables.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(tableId);
+
+      LockMode mode = perm == Permissions.READ_WRITE ? LockMode.X : LockMode.S;
+      boolean had = modeOf(tid, pid) != null;
+      waited += acquire(tid, pid, mode);
+      grant(tid, pid, modeOf(tid, pid) == LockMode.X ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+      if (!had) {
+        pageLocked(tid, pid);
+      }
+    } finally {
+      if (waited != 0) lockWaits.record(waited);
+    }
+  }
+
+
+  /**
+   * Acquire a lock without waiting.
+   *
+   * @return true if the lock was granted, false if another transaction holds
+   *   a conflicting lock
+   */
+  public boolean tryAcquireLock(TransactionId tid, PageId pid, Permissions perm) {
+    int tableId = pid.getTableId();
+    LockMode table = getTableLock(tid, tableId);
+    if (coveredBy(table, perm)) {
+      transacMap.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+      grant(tid, pid, table == LockMode.X ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+      return true;
+    }
+    if (!tryAcquire(tid, tableResource(tableId), intentionFor(perm))) {
+      return false;
+    }
+    LockMode mode = perm == Permissions.READ_WRITE ? LockMode.X : LockMode.S;
+    LockMode had = modeOf(tid, pid);
+    if (!tryAcquire(tid, pid, mode)) {
+      // give back the intention lock taken for this page
+      restore(tid, tableResource(tableId), table);
+      return false;
+    }
+    tidTables.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(tableId);
+    transacMap.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+    grant(tid, pid, modeOf(tid, pid) == LockMode.X ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+    if (had == null) pageLocked(tid, pid);
+    return true;
+  }
+
+  /**
+   * Take an intention lock on a page, IS for reading records of it or IX
+   * for changing them, and the matching intention lock on its table. The
+   * page is listed among the pages tid touched.
+   */
+  public void acquirePageIntention(TransactionId tid, PageId pid, Permissions perm) throws DbException, TransactionAbortedException, InterruptedException {
+    if (wounded.contains(tid)) {
+      policyStats.get(DeadlockPolicy.WOUND_WAIT).aborts.incrementAndGet();
+      victims.get(perm == Permissions.READ_WRITE ? LockMode.IX : LockMode.IS).incrementAndGet();
+      throw new TransactionAbortedException();
+    }
+    transacMap.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+
+    int tableId = pid.getTableId();
+    long waited = 0;
+    try {
+      if (coveredBy(getTableLock(tid, tableId), perm)) {
+        return;
+      }
+      waited += acquire(tid, tableResource(tableId), intentionFor(perm));
+      tidTables.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(tableId);
+
+      boolean had = modeOf(tid, pid) != null;
+      waited += acquire(tid, pid, intentionFor(perm));
+      if (!had) {
+        pageLocked(tid, pid);
+      }
+    } finally {
+      if (waited != 0) lockWaits.record(waited);
+    }
+  }
+
+  /** @return true if a lock tid holds on the record's page or table already covers perm on the record */
+  private boolean recordCovered(TransactionId tid, RecordId rid, Permissions perm) {
+    PageId pid = rid.getPageId();
+    if (coveredBy(getTableLock(tid, pid.getTableId()), perm)) {
+      return true;
+    }
+    LockMode page = modeOf(tid, pid);
+    return page == LockMode.X || (perm == Permissions.READ_ONLY && page != null && page.covers(LockMode.S));
+  }
+
+  /**
+   * Lock a record, shared for READ_ONLY or exclusive for READ_WRITE,
+   * taking the intention locks on its page and table first, and waiting as
+   * long as needed.
+   *
+   * @throws TransactionAbortedException if the deadlock policy aborts tid
+   */
+  public void acquireRecordLock(TransactionId tid, RecordId rid, Permissions perm) throws DbException, TransactionAbortedException, InterruptedException {
+    acquirePageIntention(tid, rid.getPageId(), perm);
+    if (recordCovered(tid, rid, perm)) {
+      return;
+    }
+    long waited = acquire(tid, rid, perm == Permissions.READ_WRITE ? LockMode.X : LockMode.S);
+    tidRecords.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(rid);
+    if (waited != 0) lockWaits.record(waited);
+  }
+
+  /**
+   * Lock a record without waiting. The caller must hold the intention lock
+   * on its page already, as from {@link #acquirePageIntention}.
+   *
+   * @return true if the lock was granted, false if another transaction
+   *   holds a conflicting lock on the record
+   */
+  public boolean tryAcquireRecordLock(TransactionId tid, RecordId rid, Permissions perm) {
+    if (recordCovered(tid, rid, perm)) {
+      return true;
+    }
+    if (!tryAcquire(tid, rid, perm == Permissions.READ_WRITE ? LockMode.X : LockMode.S)) {
+      return false;
+    }
+    tidRecords.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(rid);
+    return true;
+  }
+
+  /** @return true if tid holds a lock on the record itself */
+  public boolean holdsRecordLock(TransactionId tid, RecordId rid) {
+    return modeOf(tid, rid) != null;
+  }
+
+  /** Return true if the transaction holds a lock on any page */
+  public boolean holdsAnyLock(TransactionId tid) {
+    Set<PageId> pages = transacMap.get(tid);
+    return pages != null && !pages.isEmpty();
+  }
+
+  /**
+   * Release tid's lock on a page. If that was its last page lock on the
+   * table, its intention lock on the table is released as well; a table S,
+   * SIX or X lock stays until releaseAllLocks.
+   */
+  public void releaseLock(TransactionId tid, PageId pid) throws DbException {
+    releasePageLock(tid, pid);
+    Set<PageId> pages = transacMap.get(tid);
+    if (pages != null) {
+      pages.remove(pid);
+    }
+    ungrant(tid, pid);
+
+    int tableId = pid.getTableId();
+    LockMode held = getTableLock(tid, tableId);
+    Map<Integer, Integer> counts = pageLockCounts.get(tid);
+    if ((held == LockMode.IS || held == LockMode.IX) && (counts == null || !counts.containsKey(tableId))) {
+      releaseTableLock(tid, tableId);
+    }
+  }
+
+
+  public void releaseAllLocks(TransactionId tid) throws DbException {
+    Set<RecordId> records = tidRecords.remove(tid);
+    if (records != null) {
+      for (RecordId rid : records) {
+        restore(tid, rid, null);
+      }
+    }
+    Set<PageId> currPages = transacMap.get(tid);
+    if (currPages == null) {
+      wounded.remove(tid);
+      return;
+    }
 
     Iterator<PageId> page_iter = currPages.iterator();
     while (page_iter.hasNext()) {
       PageId pid = page_iter.next();
-      pgLock.get(pid).releaseLock(tid);
+      releasePageLock(tid, pid);
+      ungrant(tid, pid);
+    }
+    Set<Integer> tables = tidTables.remove(tid);
+    if (tables != null) {
+      for (Integer tableId : tables) {
+        restore(tid, tableResource(tableId), null);
+      }
     }
     transacMap.remove(tid);
-    if(waitMap.containsKey(tid)) waitMap.remove(tid);
-
-    notifyAll();
+    granted.remove(tid);
+    pageLockCounts.remove(tid);
+    wounded.remove(tid);
+    waitFor(tid, null);
   }
 
+  /**
+   * Check the whole wait-for graph for a cycle. Waiting transactions only
+   * search from themselves; this is kept to check the graph as a whole.
+   */
   synchronized public boolean isDeadLock(){
     HashMap<TransactionId,HashSet<TransactionId>> being_waited = new HashMap<>(); 
     HashMap<TransactionId,Integer> waiting_count = new HashMap<>(); 
     Deque<TransactionId> toExecute = new LinkedList<>(); 
+    // transactions come and go without this monitor; look at one set of them
+    HashSet<TransactionId> nodes = new HashSet<>(transacMap.keySet());
 
-    for(TransactionId tid1:transacMap.keySet()){
+    for(TransactionId tid1:nodes){
       waiting_count.putIfAbsent(tid1,0);
       if(waitMap.keySet().contains(tid1)){
         int temp_count = 0;
@@ -137,7 +1040,7 @@ public class LockManager {
             tids.add(tid1);
             being_waited.replace(tid2,tids);
           }
-          if(transacMap.containsKey(tid2)) temp_count++;
+          if(nodes.contains(tid2)) temp_count++;
         }
         waiting_count.replace(tid1,temp_count);
       }
@@ -152,6 +1055,7 @@ public class LockManager {
       TransactionId tid3 = toExecute.poll();
       if (being_waited.containsKey(tid3)) {
         for (TransactionId tid4 : being_waited.get(tid3)) {
+          if (!waiting_count.containsKey(tid4)) continue;
           waiting_count.replace(tid4,waiting_count.get(tid4)-1);
           if(waiting_count.get(tid4)==0) toExecute.offer(tid4);
         }
@@ -159,7 +1063,7 @@ public class LockManager {
       count++;
     }
 
-    return (count!=transacMap.size());
+    return (count!=nodes.size());
   }
 
 }
\ No newline at end of file
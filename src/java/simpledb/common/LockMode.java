@@ -0,0 +1,56 @@
+package simpledb.common;
+
+/**
+ * The modes of a lock in the multi-granularity lock hierarchy. IS and IX
+ * announce shared and exclusive locks below a table or page; S and X lock
+ * the whole table or page; SIX is a shared lock together with the
+ * intention to lock some of what is below exclusively. Records are locked
+ * in S or X.
+ *
+ * @see LockManager
+ */
+public enum LockMode {
+    IS, IX, S, SIX, X;
+
+    private static final boolean[][] COMPATIBLE = {
+            //          IS     IX     S      SIX    X
+            /* IS  */ { true,  true,  true,  true,  false },
+            /* IX  */ { true,  true,  false, false, false },
+            /* S   */ { true,  false, true,  false, false },
+            /* SIX */ { true,  false, false, false, false },
+            /* X   */ { false, false, false, false, false },
+    };
+
+    /** @return true if two transactions may hold this mode and other on one table */
+    public boolean isCompatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /** @return true if holding this mode grants everything other does */
+    public boolean covers(LockMode other) {
+        switch (this) {
+        case X:
+            return true;
+        case SIX:
+            return other != X;
+        case S:
+            return other == S || other == IS;
+        case IX:
+            return other == IX || other == IS;
+        default:
+            return other == IS;
+        }
+    }
+
+    /** @return the weakest mode that covers both this mode and other */
+    public LockMode combine(LockMode other) {
+        if (covers(other)) {
+            return this;
+        }
+        if (other.covers(this)) {
+            return other;
+        }
+        // S and IX
+        return SIX;
+    }
+}
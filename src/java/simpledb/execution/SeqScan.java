@@ -15,6 +15,12 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * A scan over a HeapFile larger than its buffer pool reads the pages that
+ * are not cached through a small ring of its own, so it does not push
+ * other transactions' pages out of the pool.
+ *
+ * @see simpledb.storage.BufferRing
  */
 public class SeqScan implements OpIterator {
 
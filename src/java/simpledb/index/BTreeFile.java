@@ -2,8 +2,10 @@ package simpledb.index;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import simpledb.common.Database;
+import simpledb.common.LockManager;
 import simpledb.common.Permissions;
 import simpledb.execution.IndexPredicate;
 import simpledb.execution.Predicate.Op;
@@ -19,6 +21,11 @@ import simpledb.transaction.TransactionId;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * <p>
+ * An insert first descends to its leaf page optimistically, reading the pages above it
+ * under their latches instead of locking them, and locks only the leaf. Only if the
+ * leaf must be split does it start over, locking the whole path as before, so inserts
+ * into different leaves do not wait for each other at the root.
  * 
  * @see BTreeLeafPage#BTreeLeafPage
  * @see BTreeInternalPage#BTreeInternalPage
@@ -33,6 +40,12 @@ public class BTreeFile implements DbFile {
 	private final int tableid ;
 	private final int keyField;
 
+	/** Optimistic descents an insert tries before it locks the path to its leaf. */
+	private static final int OPTIMISTIC_ATTEMPTS = 3;
+
+	private final AtomicLong optimisticInserts = new AtomicLong();
+	private final AtomicLong pessimisticInserts = new AtomicLong();
+
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
 	 * 
@@ -168,6 +181,21 @@ public class BTreeFile implements DbFile {
 		return keyField;
 	}
 
+	/**
+	 * @return the number of inserts that locked only their leaf page
+	 */
+	public long getOptimisticInsertCount() {
+		return optimisticInserts.get();
+	}
+
+	/**
+	 * @return the number of inserts that locked the path to their leaf page, because
+	 * it had to be split or the optimistic descent failed
+	 */
+	public long getPessimisticInsertCount() {
+		return pessimisticInserts.get();
+	}
+
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
 	 * the left-most page possibly containing the key field f. It locks all internal
@@ -193,28 +221,150 @@ public class BTreeFile implements DbFile {
 		}
 		else{
 			BTreeInternalPage currentPage = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
-			Iterator<BTreeEntry> currentpgIterator = currentPage.iterator();
-			BTreeEntry entry = null;
-			try{
-				if(currentpgIterator.hasNext()){
-					entry = currentpgIterator.next();
-				}
-			}catch (NoSuchElementException e){
-				throw new DbException("Empty internal page");
+			return findLeafPage(tid, dirtypages, childFor(currentPage, f), perm, f);
+		}
+	}
+
+	/**
+	 * Find the child of an internal page to search for the left-most leaf page possibly
+	 * containing the key field f, or the left-most child if f is null.
+	 * 
+	 * @param page - the internal page
+	 * @param f - the field to search for
+	 * @return the id of the child page
+	 * @throws DbException if the page has no entries
+	 */
+	private BTreePageId childFor(BTreeInternalPage page, Field f) throws DbException {
+		Iterator<BTreeEntry> it = page.iterator();
+		if(!it.hasNext()) {
+			throw new DbException("Empty internal page");
+		}
+		BTreeEntry entry = it.next();
+		if(f == null) {
+			return entry.getLeftChild();
+		}
+		while(it.hasNext() && entry.getKey().compare(Op.LESS_THAN, f)) {
+			entry = it.next();
+		}
+		if(entry.getKey().compare(Op.GREATER_THAN_OR_EQ, f)) {
+			return entry.getLeftChild();
+		}
+		return entry.getRightChild();
+	}
+
+	/**
+	 * Descend from the root pointer to the leaf page a tuple with key field f belongs in,
+	 * without locking the pages on the way, and lock the leaf with READ_WRITE permission
+	 * if that needs no waiting. Each internal page is read under its read latch, taken
+	 * before the latch of its parent is let go, and the leaf is locked before the last
+	 * latch is. A page is only read while no other transaction holds a lock on it that
+	 * could mean it is changing it: a transaction changes a page only holding it
+	 * exclusively, until it has committed or undone the change. No latch is held while
+	 * waiting for a lock.
+	 * 
+	 * @param tid - the transaction id
+	 * @param f - the field to search for
+	 * @return the id of the leaf page, or null if the descent met a page another
+	 * transaction may be changing
+	 */
+	private BTreePageId descendLatched(TransactionId tid, Field f) throws DbException {
+		BufferPool bp = Database.getBufferPool();
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bp.peekPage(BTreeRootPtrPage.getId(tableid));
+		BTreeInternalPage parent;
+		synchronized(rootPtr) {
+			if(mayBeChanging(tid, rootPtr)) {
+				return null;
 			}
-			if (f == null){
-				return findLeafPage(tid, dirtypages, entry.getLeftChild(), perm, f);
-			} else{
-				while (currentpgIterator.hasNext() && entry.getKey().compare(Op.LESS_THAN,f)) {
-					entry = currentpgIterator.next();
+			BTreePageId rootId = rootPtr.getRootId();
+			if(rootId == null) {
+				return null;
+			}
+			if(rootId.pgcateg() == BTreePageId.LEAF) {
+				bp.getLockManager().tryAcquireLock(tid, rootId, Permissions.READ_WRITE);
+				return rootId;
+			}
+			parent = readLatched(rootId);
+		}
+		try {
+			while(true) {
+				if(mayBeChanging(tid, parent) || parent.getNumEntries() == 0) {
+					return null;
 				}
-				if (entry.getKey().compare(Op.GREATER_THAN_OR_EQ,f)){
-					return findLeafPage(tid, dirtypages, entry.getLeftChild(), perm, f);
+				BTreePageId pid = childFor(parent, f);
+				if(pid.pgcateg() == BTreePageId.LEAF) {
+					bp.getLockManager().tryAcquireLock(tid, pid, Permissions.READ_WRITE);
+					return pid;
 				}
-				return findLeafPage(tid, dirtypages, entry.getRightChild(), perm, f);
+				BTreeInternalPage child = readLatched(pid);
+				parent.getLatch().readLock().unlock();
+				parent = child;
 			}
+		} finally {
+			parent.getLatch().readLock().unlock();
 		}
 	}
+
+	/**
+	 * @return the internal page with the given id, holding its read latch
+	 */
+	private BTreeInternalPage readLatched(BTreePageId pid) throws DbException {
+		BTreeInternalPage page = (BTreeInternalPage) Database.getBufferPool().peekPage(pid);
+		page.getLatch().readLock().lock();
+		return page;
+	}
+
+	/**
+	 * @return true if a transaction other than tid may be changing the page, or it is
+	 * no longer the copy in the buffer pool
+	 */
+	private boolean mayBeChanging(TransactionId tid, Page page) throws DbException {
+		BufferPool bp = Database.getBufferPool();
+		return bp.getLockManager().isLockedForWrite(tid, page.getId()) || bp.peekPage(page.getId()) != page;
+	}
+
+	/**
+	 * Find and lock, with READ_WRITE permission, the leaf page a tuple with key field f
+	 * belongs in, locking none of the pages above it. If another transaction holds a lock
+	 * on the leaf, it is waited for and the descent made again, as the leaf may have been
+	 * split or merged meanwhile.
+	 * @see #descendLatched(TransactionId, Field)
+	 * 
+	 * @param tid - the transaction id
+	 * @param f - the field to search for
+	 * @return the leaf page, or null if the descents met pages other transactions may be
+	 * changing
+	 */
+	private BTreeLeafPage findLeafPageOptimistic(TransactionId tid, Field f)
+			throws DbException, TransactionAbortedException {
+		BufferPool bp = Database.getBufferPool();
+		LockManager lm = bp.getLockManager();
+		BTreePageId waited = null;
+		boolean heldBefore = false;
+		for(int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+			BTreePageId leafId = descendLatched(tid, f);
+			if(leafId != null && lm.isGranted(tid, leafId, Permissions.READ_WRITE)) {
+				if(waited != null && !waited.equals(leafId) && !heldBefore) {
+					bp.unsafeReleasePage(tid, waited);
+				}
+				return (BTreeLeafPage) bp.getPage(tid, leafId, Permissions.READ_WRITE);
+			}
+			if(waited != null && !heldBefore) {
+				// nothing was changed under the lock
+				bp.unsafeReleasePage(tid, waited);
+			}
+			waited = null;
+			if(leafId == null) {
+				break;
+			}
+			heldBefore = lm.holdsLock(tid, leafId);
+			bp.getPage(tid, leafId, Permissions.READ_WRITE);
+			waited = leafId;
+		}
+		if(waited != null && !heldBefore) {
+			bp.unsafeReleasePage(tid, waited);
+		}
+		return null;
+	}
 	
 	/**
 	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
@@ -529,6 +679,8 @@ public class BTreeFile implements DbFile {
 	/**
 	 * Insert a tuple into this BTreeFile, keeping the tuples in sorted order. 
 	 * May cause pages to split if the page where tuple t belongs is full.
+	 * The leaf page is first found without locking the pages above it; only if it
+	 * must be split are they locked, top-down, as findLeafPage does.
 	 * 
 	 * @param tid - the transaction id
 	 * @param t - the tuple to insert
@@ -538,6 +690,19 @@ public class BTreeFile implements DbFile {
 	 */
 	public List<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
+		// lock only the leaf page if the tuple fits in it
+		if(f.length() > 0) {
+			BTreeLeafPage leafPage = findLeafPageOptimistic(tid, t.getField(keyField));
+			if(leafPage != null && leafPage.getNumEmptySlots() > 0) {
+				leafPage.insertTuple(t);
+				optimisticInserts.incrementAndGet();
+				List<Page> dirtied = new ArrayList<>();
+				dirtied.add(leafPage);
+				return dirtied;
+			}
+		}
+		pessimisticInserts.incrementAndGet();
+
 		Map<PageId, Page> dirtypages = new HashMap<>();
 
 		// get a read lock on the root pointer page and use it to locate the root page
@@ -7,6 +7,7 @@ import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.Page;
+import simpledb.storage.SizeOf;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
@@ -122,6 +123,16 @@ public class BTreeHeaderPage implements Page {
 		}
 	}
 
+	public long getRetainedSize() {
+		long size = SizeOf.object(5 * SizeOf.REFERENCE + 3 * 4 + 1)
+				+ SizeOf.byteArray(header.length);
+		byte[] before = oldData;
+		if (before != null) {
+			size += SizeOf.byteArray(before.length);
+		}
+		return size;
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
@@ -1,6 +1,7 @@
 package simpledb.index;
 
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.io.*;
 
 import simpledb.common.Catalog;
@@ -13,10 +14,16 @@ import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
+import simpledb.storage.SizeOf;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Besides the transaction locks on it, the page has a latch, held only while its
+ * entries are read or changed. Entries are inserted, updated and deleted holding
+ * the write latch, so a reader holding the read latch, without a lock, never sees
+ * an entry half moved.
  *
  * @see BTreeFile
  * @see BufferPool
@@ -30,6 +37,8 @@ public class BTreeInternalPage extends BTreePage {
 	
 	private int childCategory; // either leaf or internal
 
+	private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+
 	public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.INTERNAL);
@@ -116,6 +125,14 @@ public class BTreeInternalPage extends BTreePage {
 		setBeforeImage();
 	}
 
+	/**
+	 * @return the latch guarding the entries of this page, apart from any
+	 * transaction lock on it
+	 */
+	public ReentrantReadWriteLock getLatch() {
+		return latch;
+	}
+
 	/** 
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
  	 */
@@ -165,6 +182,24 @@ public class BTreeInternalPage extends BTreePage {
 		}
 	}
 
+	public long getRetainedSize() {
+		long size = SizeOf.object(10 * SizeOf.REFERENCE + 4 * 4 + 1)
+				+ SizeOf.byteArray(header.length)
+				+ SizeOf.referenceArray(keys.length)
+				+ SizeOf.intArray(children.length);
+		byte[] before = oldData;
+		if (before != null) {
+			size += SizeOf.byteArray(before.length);
+		}
+		long keySize = SizeOf.field(td.getFieldType(keyField));
+		for (Field key : keys) {
+			if (key != null) {
+				size += keySize;
+			}
+		}
+		return size;
+	}
+
 	/**
 	 * Read keys from the source file.
 	 */
@@ -381,7 +416,12 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to delete
 	 */
 	public void deleteKeyAndRightChild(BTreeEntry e) throws DbException {
-		deleteEntry(e, true);
+		latch.writeLock().lock();
+		try {
+			deleteEntry(e, true);
+		} finally {
+			latch.writeLock().unlock();
+		}
 	}
 	
 	/**
@@ -394,7 +434,12 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to delete
 	 */
 	public void deleteKeyAndLeftChild(BTreeEntry e) throws DbException {
-		deleteEntry(e, false);
+		latch.writeLock().lock();
+		try {
+			deleteEntry(e, false);
+		} finally {
+			latch.writeLock().unlock();
+		}
 	}
 	
 	/**
@@ -406,35 +451,40 @@ public class BTreeInternalPage extends BTreePage {
 	 *         order on the page
 	 */
 	public void updateEntry(BTreeEntry e) throws DbException {
-		RecordId rid = e.getRecordId();
-		if(rid == null)
-			throw new DbException("tried to update entry with null rid");
-		if((rid.getPageId().getPageNumber() != pid.getPageNumber()) || (rid.getPageId().getTableId() != pid.getTableId()))
-			throw new DbException("tried to update entry on invalid page or table");
-		if (!isSlotUsed(rid.getTupleNumber()))
-			throw new DbException("tried to update null entry.");
+		latch.writeLock().lock();
+		try {
+			RecordId rid = e.getRecordId();
+			if(rid == null)
+				throw new DbException("tried to update entry with null rid");
+			if((rid.getPageId().getPageNumber() != pid.getPageNumber()) || (rid.getPageId().getTableId() != pid.getTableId()))
+				throw new DbException("tried to update entry on invalid page or table");
+			if (!isSlotUsed(rid.getTupleNumber()))
+				throw new DbException("tried to update null entry.");
 		
-		for(int i = rid.getTupleNumber() + 1; i < numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(keys[i].compare(Op.LESS_THAN, e.getKey())) {
-					throw new DbException("attempt to update entry with invalid key " + e.getKey() +
-							" HINT: updated key must be less than or equal to keys on the right");
-				}
-				break;
-			}	
-		}
-		for(int i = rid.getTupleNumber() - 1; i >= 0; i--) {
-			if(isSlotUsed(i)) {
-				if(i > 0 && keys[i].compare(Op.GREATER_THAN, e.getKey())) {
-					throw new DbException("attempt to update entry with invalid key " + e.getKey() +
-							" HINT: updated key must be greater than or equal to keys on the left");
-				}
-				children[i] = e.getLeftChild().getPageNumber();
-				break;
-			}	
+			for(int i = rid.getTupleNumber() + 1; i < numSlots; i++) {
+				if(isSlotUsed(i)) {
+					if(keys[i].compare(Op.LESS_THAN, e.getKey())) {
+						throw new DbException("attempt to update entry with invalid key " + e.getKey() +
+								" HINT: updated key must be less than or equal to keys on the right");
+					}
+					break;
+				}	
+			}
+			for(int i = rid.getTupleNumber() - 1; i >= 0; i--) {
+				if(isSlotUsed(i)) {
+					if(i > 0 && keys[i].compare(Op.GREATER_THAN, e.getKey())) {
+						throw new DbException("attempt to update entry with invalid key " + e.getKey() +
+								" HINT: updated key must be greater than or equal to keys on the left");
+					}
+					children[i] = e.getLeftChild().getPageNumber();
+					break;
+				}	
+			}
+			children[rid.getTupleNumber()] = e.getRightChild().getPageNumber();
+			keys[rid.getTupleNumber()] = e.getKey();
+		} finally {
+			latch.writeLock().unlock();
 		}
-		children[rid.getTupleNumber()] = e.getRightChild().getPageNumber();
-		keys[rid.getTupleNumber()] = e.getKey();
 	}
 
 	/**
@@ -445,108 +495,113 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to add.
 	 */
 	public void insertEntry(BTreeEntry e) throws DbException {
-		if (!e.getKey().getType().equals(td.getFieldType(keyField)))
-			throw new DbException("key field type mismatch, in insertEntry");
+		latch.writeLock().lock();
+		try {
+			if (!e.getKey().getType().equals(td.getFieldType(keyField)))
+				throw new DbException("key field type mismatch, in insertEntry");
 
-		if(e.getLeftChild().getTableId() != pid.getTableId() || e.getRightChild().getTableId() != pid.getTableId())
-			throw new DbException("table id mismatch in insertEntry");
+			if(e.getLeftChild().getTableId() != pid.getTableId() || e.getRightChild().getTableId() != pid.getTableId())
+				throw new DbException("table id mismatch in insertEntry");
 
-		if(childCategory == 0) {
-			if(e.getLeftChild().pgcateg() != e.getRightChild().pgcateg())
-				throw new DbException("child page category mismatch in insertEntry");
+			if(childCategory == 0) {
+				if(e.getLeftChild().pgcateg() != e.getRightChild().pgcateg())
+					throw new DbException("child page category mismatch in insertEntry");
 
-			childCategory = e.getLeftChild().pgcateg();
-		}
-		else if(e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
-			throw new DbException("child page category mismatch in insertEntry");
+				childCategory = e.getLeftChild().pgcateg();
+			}
+			else if(e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
+				throw new DbException("child page category mismatch in insertEntry");
 
-		// if this is the first entry, add it and return
-		if(getNumEmptySlots() == getMaxEntries()) {
-			children[0] = e.getLeftChild().getPageNumber();
-			children[1] = e.getRightChild().getPageNumber();
-			keys[1] = e.getKey();
-			markSlotUsed(0, true);
-			markSlotUsed(1, true);
-			e.setRecordId(new RecordId(pid, 1));
-			return;
-		}
+			// if this is the first entry, add it and return
+			if(getNumEmptySlots() == getMaxEntries()) {
+				children[0] = e.getLeftChild().getPageNumber();
+				children[1] = e.getRightChild().getPageNumber();
+				keys[1] = e.getKey();
+				markSlotUsed(0, true);
+				markSlotUsed(1, true);
+				e.setRecordId(new RecordId(pid, 1));
+				return;
+			}
 
-		// find the first empty slot, starting from 1
-		int emptySlot = -1;
-		for (int i=1; i<numSlots; i++) {
-			if (!isSlotUsed(i)) {
-				emptySlot = i;
-				break;
+			// find the first empty slot, starting from 1
+			int emptySlot = -1;
+			for (int i=1; i<numSlots; i++) {
+				if (!isSlotUsed(i)) {
+					emptySlot = i;
+					break;
+				}
 			}
-		}
 
-		if (emptySlot == -1)
-			throw new DbException("called insertEntry on page with no empty slots.");        
+			if (emptySlot == -1)
+				throw new DbException("called insertEntry on page with no empty slots.");        
 
-		// find the child pointer matching the left or right child in this entry
-		int lessOrEqKey = -1;
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(children[i] == e.getLeftChild().getPageNumber() || children[i] == e.getRightChild().getPageNumber()) {
-					if(i > 0 && keys[i].compare(Op.GREATER_THAN, e.getKey())) {
-						throw new DbException("attempt to insert invalid entry with left child " + 
-								e.getLeftChild().getPageNumber() + ", right child " +
-								e.getRightChild().getPageNumber() + " and key " + e.getKey() +
-								" HINT: one of these children must match an existing child on the page" +
-								" and this key must be correctly ordered in between that child's" +
-								" left and right keys");
+			// find the child pointer matching the left or right child in this entry
+			int lessOrEqKey = -1;
+			for (int i=0; i<numSlots; i++) {
+				if(isSlotUsed(i)) {
+					if(children[i] == e.getLeftChild().getPageNumber() || children[i] == e.getRightChild().getPageNumber()) {
+						if(i > 0 && keys[i].compare(Op.GREATER_THAN, e.getKey())) {
+							throw new DbException("attempt to insert invalid entry with left child " + 
+									e.getLeftChild().getPageNumber() + ", right child " +
+									e.getRightChild().getPageNumber() + " and key " + e.getKey() +
+									" HINT: one of these children must match an existing child on the page" +
+									" and this key must be correctly ordered in between that child's" +
+									" left and right keys");
+						}
+						lessOrEqKey = i;
+						if(children[i] == e.getRightChild().getPageNumber()) {
+							children[i] = e.getLeftChild().getPageNumber();
+						}
 					}
-					lessOrEqKey = i;
-					if(children[i] == e.getRightChild().getPageNumber()) {
-						children[i] = e.getLeftChild().getPageNumber();
+					else if(lessOrEqKey != -1) {
+						// validate that the next key is greater than or equal to the one we are inserting
+						if(keys[i].compare(Op.LESS_THAN, e.getKey())) {
+							throw new DbException("attempt to insert invalid entry with left child " + 
+									e.getLeftChild().getPageNumber() + ", right child " +
+									e.getRightChild().getPageNumber() + " and key " + e.getKey() +
+									" HINT: one of these children must match an existing child on the page" +
+									" and this key must be correctly ordered in between that child's" +
+									" left and right keys");
+						}
+						break;
 					}
 				}
-				else if(lessOrEqKey != -1) {
-					// validate that the next key is greater than or equal to the one we are inserting
-					if(keys[i].compare(Op.LESS_THAN, e.getKey())) {
-						throw new DbException("attempt to insert invalid entry with left child " + 
-								e.getLeftChild().getPageNumber() + ", right child " +
-								e.getRightChild().getPageNumber() + " and key " + e.getKey() +
-								" HINT: one of these children must match an existing child on the page" +
-								" and this key must be correctly ordered in between that child's" +
-								" left and right keys");
-					}
-					break;
-				}
 			}
-		}
 
-		if(lessOrEqKey == -1) {
-			throw new DbException("attempt to insert invalid entry with left child " + 
-					e.getLeftChild().getPageNumber() + ", right child " +
-					e.getRightChild().getPageNumber() + " and key " + e.getKey() +
-					" HINT: one of these children must match an existing child on the page" +
-					" and this key must be correctly ordered in between that child's" +
-					" left and right keys");
-		}
+			if(lessOrEqKey == -1) {
+				throw new DbException("attempt to insert invalid entry with left child " + 
+						e.getLeftChild().getPageNumber() + ", right child " +
+						e.getRightChild().getPageNumber() + " and key " + e.getKey() +
+						" HINT: one of these children must match an existing child on the page" +
+						" and this key must be correctly ordered in between that child's" +
+						" left and right keys");
+			}
 
-		// shift entries back or forward to fill empty slot and make room for new entry
-		// while keeping entries in sorted order
-		int goodSlot = -1;
-		if(emptySlot < lessOrEqKey) {
-			for(int i = emptySlot; i < lessOrEqKey; i++) {
-				moveEntry(i+1, i);
+			// shift entries back or forward to fill empty slot and make room for new entry
+			// while keeping entries in sorted order
+			int goodSlot = -1;
+			if(emptySlot < lessOrEqKey) {
+				for(int i = emptySlot; i < lessOrEqKey; i++) {
+					moveEntry(i+1, i);
+				}
+				goodSlot = lessOrEqKey;
 			}
-			goodSlot = lessOrEqKey;
-		}
-		else {
-			for(int i = emptySlot; i > lessOrEqKey + 1; i--) {
-				moveEntry(i-1, i);
+			else {
+				for(int i = emptySlot; i > lessOrEqKey + 1; i--) {
+					moveEntry(i-1, i);
+				}
+				goodSlot = lessOrEqKey + 1;
 			}
-			goodSlot = lessOrEqKey + 1;
-		}
 
-		// insert new entry into the correct spot in sorted order
-		markSlotUsed(goodSlot, true);
-		Debug.log(1, "BTreeLeafPage.insertEntry: new entry, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.getPageNumber(), goodSlot);
-		keys[goodSlot] = e.getKey();
-		children[goodSlot] = e.getRightChild().getPageNumber();
-		e.setRecordId(new RecordId(pid, goodSlot));
+			// insert new entry into the correct spot in sorted order
+			markSlotUsed(goodSlot, true);
+			Debug.log(1, "BTreeLeafPage.insertEntry: new entry, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.getPageNumber(), goodSlot);
+			keys[goodSlot] = e.getKey();
+			children[goodSlot] = e.getRightChild().getPageNumber();
+			e.setRecordId(new RecordId(pid, goodSlot));
+		} finally {
+			latch.writeLock().unlock();
+		}
 	}
 
 	/**
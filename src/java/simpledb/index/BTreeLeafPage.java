@@ -156,6 +156,23 @@ public class BTreeLeafPage extends BTreePage {
 		}
 	}
 
+	public long getRetainedSize() {
+		long size = SizeOf.object(8 * SizeOf.REFERENCE + 5 * 4 + 1)
+				+ SizeOf.byteArray(header.length)
+				+ SizeOf.referenceArray(tuples.length);
+		byte[] before = oldData;
+		if (before != null) {
+			size += SizeOf.byteArray(before.length);
+		}
+		long tupleSize = SizeOf.tuple(td);
+		for (Tuple t : tuples) {
+			if (t != null) {
+				size += tupleSize;
+			}
+		}
+		return size;
+	}
+
 	/**
 	 * Read tuples from the source file.
 	 */
@@ -3,6 +3,7 @@ package simpledb.index;
 import simpledb.common.DbException;
 import simpledb.storage.BufferPool;
 import simpledb.storage.Page;
+import simpledb.storage.SizeOf;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
@@ -55,6 +56,15 @@ public class BTreeRootPtrPage implements Page {
 		oldData = getPageData().clone();
 	}
 
+	public long getRetainedSize() {
+		long size = SizeOf.object(3 * SizeOf.REFERENCE + 3 * 4 + 1);
+		byte[] before = oldData;
+		if (before != null) {
+			size += SizeOf.byteArray(before.length);
+		}
+		return size;
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
@@ -154,10 +164,11 @@ public class BTreeRootPtrPage implements Page {
 	}
 
 	/**
-	 * Get the id of the root page in this B+ tree
+	 * Get the id of the root page in this B+ tree. The root pointer is read and
+	 * set holding the page's monitor, which serves as its latch.
 	 * @return the id of the root page
 	 */
-	public BTreePageId getRootId() {
+	public synchronized BTreePageId getRootId() {
 		if(root == 0) {
 			return null;
 		}
@@ -169,7 +180,7 @@ public class BTreeRootPtrPage implements Page {
 	 * @param id - the id of the root page
 	 * @throws DbException if the id is invalid
 	 */
-	public void setRootId(BTreePageId id) throws DbException {
+	public synchronized void setRootId(BTreePageId id) throws DbException {
 		if(id == null) {
 			root = 0;
 		}
@@ -0,0 +1,41 @@
+package simpledb.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Helper for implementing ReplacementPolicies. Handles hit and miss counting. */
+public abstract class AbstractReplacementPolicy implements ReplacementPolicy {
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public void pageHit(PageId pid) {
+        hits.incrementAndGet();
+        onAccess(pid);
+    }
+
+    public void pageLoaded(PageId pid) {
+        misses.incrementAndGet();
+        pageAdded(pid);
+    }
+
+    /** By default a discarded page is forgotten as if it had been evicted. */
+    public void pageDiscarded(PageId pid) {
+        pageRemoved(pid);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** Update the recency information of a resident page after a hit. */
+    protected abstract void onAccess(PageId pid);
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[hits=" + getHitCount() + ", misses=" + getMissCount() + "]";
+    }
+}
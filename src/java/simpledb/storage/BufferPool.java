@@ -8,11 +8,18 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Iterator;
 
 import java.io.*;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.RuntimeErrorException;
 
@@ -27,6 +34,78 @@ import java.util.HashSet;
  * The BufferPool is also responsible for locking; when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is not guarded by a global monitor. A hit is a single
+ * lookup in store_cache. A miss, a flush or a discard holds the latch of
+ * the page's stripe, so a page is read from disk exactly once even when
+ * several transactions miss on it at the same time. Only the short step
+ * that makes room and installs a freshly read page is serialized over the
+ * whole pool.
+ * <p>
+ * By default the pool runs NO-STEAL/FORCE: a commit writes every page the
+ * transaction dirtied, and an abort drops them. {@link #setSteal} and
+ * {@link #setForce} switch to STEAL and NO-FORCE, which rely on the
+ * LogFile instead. Under NO-FORCE a commit only logs UPDATE records for
+ * the dirty pages and forces the log; the pages are written later by the
+ * page cleaner or on checkpoint. Under STEAL a transaction whose dirty
+ * pages fill the pool may have them written out, after logging, to make
+ * room; an abort then depends on LogFile.rollback to put the old contents
+ * back, so it must go through {@link simpledb.transaction.Transaction}.
+ * Every page write is preceded by its UPDATE record, and the log is forced
+ * first.
+ * <p>
+ * A pool is limited either to a number of pages or, when created with
+ * {@link #withMemoryBudget}, to the bytes of heap its pages retain as
+ * reported by {@link Page#getRetainedSize}. A decoded page retains
+ * several times the page size, so a budget is the safer way to size the
+ * pool against the JVM heap.
+ * <p>
+ * With a {@link FrameArena} set, HeapFile pages are read into off-heap
+ * frames and kept undecoded as {@link FrameHeapPage}s. A frame goes back
+ * to the arena when its page leaves the pool.
+ * <p>
+ * With a {@link CompressedPageCache} set as second tier, clean HeapFile
+ * pages that are evicted are kept compressed, and a miss looks there
+ * before reading from disk.
+ * <p>
+ * The pages can be divided among several {@link NamedPool}s, added with
+ * {@link #addPool}, each with its own capacity and replacement policy.
+ * getPage routes a page to the pool the Catalog assigns its table to, and
+ * a page only ever evicts pages of its own pool. Tables without a pool,
+ * or assigned to a pool this BufferPool does not have, use the default
+ * pool, which is the one sized by the constructor.
+ * <p>
+ * A sequential scan over a table larger than its pool reads through a
+ * {@link BufferRing} instead (see {@link #newScanRing}): the pages it
+ * finds resident come from the pool, the others are read into the scan's
+ * own small ring and never enter the pool.
+ * <p>
+ * The ids of the resident pages can be saved, on every checkpoint once
+ * {@link #setWarmStartFile} is called, and read back in bulk after a
+ * restart; see {@link WarmStart}.
+ * <p>
+ * An operator that knows several pages it needs, such as a range of
+ * index leaves, can ask for them with one {@link #getPages} call: locks
+ * are taken in a fixed order, and the misses are read through
+ * {@link DbFile#readPages}, which coalesces adjacent pages.
+ * <p>
+ * Page requests, evictions and write latencies are counted in a
+ * {@link BufferPoolMetrics}, exported over JMX by {@link BufferPoolMonitor}.
+ * <p>
+ * With {@link #setSnapshotReads} on, a read-only
+ * {@link simpledb.transaction.Transaction} reads HeapFile pages as of a
+ * snapshot taken when it starts, without taking page locks: it gets a copy
+ * of the committed version of each page, from the {@link VersionStore} if
+ * a later commit has replaced it. Writers then never wait for such
+ * readers, nor readers for writers.
+ * <p>
+ * With {@link #setRowLocking} on, HeapFile inserts and deletes lock the
+ * records they change rather than whole pages, so transactions changing
+ * different records of one page run side by side. A page may then hold
+ * changes of several running transactions: a commit writes it, under its
+ * own id in the log, with the others' changes in it, and an abort takes
+ * its own changes back out one record at a time, leaving the page dirty,
+ * instead of dropping or restoring the page.
  *
  * @Threadsafe, all fields are final
  */
@@ -36,8 +115,37 @@ public class BufferPool {
     private static final int DEFAULT_PAGE_SIZE = 4096;
     private static int pageSize = DEFAULT_PAGE_SIZE;
 
-    private int max_pages;
+    /** Number of latch stripes guarding misses, flushes and discards. */
+    private static final int NUM_LATCH_STRIPES = 64;
+
+    /** Most pages written together by a flush, all under their stripe latches. */
+    private static final int MAX_PAGES_PER_WRITE = 16;
+
+    /** Name of the pool that holds the pages of tables not assigned to another pool. */
+    public static final String DEFAULT_POOL = "default";
+
+    private final NamedPool default_pool;
+    private final ConcurrentHashMap<String, NamedPool> named_pools;
+    private final ConcurrentHashMap<PageId, NamedPool> page_pools; // resident pages outside the default pool
+    private final ConcurrentHashMap<Page, Long> frame_bytes; // bytes charged per resident page object
+    private final AtomicLong write_stamp = new AtomicLong(); // bumped after a page is written or discarded
+    private volatile int scan_ring_pages = DEFAULT_SCAN_RING_PAGES;
+    private volatile File warm_start_file;
     final ConcurrentHashMap<PageId, Page> store_cache;
+    private final Object[] page_latches;
+    private final ReadAhead read_ahead;
+    private final BufferPoolMetrics metrics;
+    private final PageCleaner page_cleaner;
+    private final ConcurrentHashMap<PageId, Long> dirty_since;
+    private final TransactionId cleaner_tid = new TransactionId();
+    private volatile FrameArena frame_arena;
+    private volatile CompressedPageCache second_tier;
+    private volatile boolean steal = false;
+    private volatile boolean force = true;
+    private volatile boolean snapshot_reads = false;
+    private volatile boolean row_locking = false;
+    private final ConcurrentHashMap<TransactionId, List<RowChange>> row_changes;
+    private final VersionStore versions = new VersionStore();
     LockManager lockmanager;
     /**
      * Default number of pages passed to the constructor. This is used by
@@ -46,55 +154,867 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Default number of pages in the ring of a large sequential scan. */
+    public static final int DEFAULT_SCAN_RING_PAGES = 16;
+
+    /** A record a transaction inserted or deleted under a record lock, to take back on abort. */
+    private static final class RowChange {
+        final boolean inserted;
+        final RecordId rid;
+        final Tuple tuple;
+
+        RowChange(boolean inserted, RecordId rid, Tuple tuple) {
+            this.inserted = inserted;
+            this.rid = rid;
+            this.tuple = tuple;
+        }
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, using CLOCK
+     * replacement.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     */
+    public BufferPool(int numPages) {
+        this(numPages, new ClockPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts
+     * pages in the order chosen by the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy   the replacement policy used to choose eviction victims
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        this(numPages, Long.MAX_VALUE, policy);
+    }
+
+    /**
+     * Creates a BufferPool whose pages together retain at most the given
+     * number of bytes of heap, using CLOCK replacement.
+     *
+     * @param maxBytes the memory budget of the pool
+     */
+    public static BufferPool withMemoryBudget(long maxBytes) {
+        return withMemoryBudget(maxBytes, new ClockPolicy());
+    }
+
+    /**
+     * Creates a BufferPool whose pages together retain at most the given
+     * number of bytes of heap, evicting in the order chosen by the policy.
+     *
+     * @param maxBytes the memory budget of the pool
+     * @param policy   the replacement policy used to choose eviction victims
+     */
+    public static BufferPool withMemoryBudget(long maxBytes, ReplacementPolicy policy) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("memory budget must be positive");
+        }
+        return new BufferPool(Integer.MAX_VALUE, maxBytes, policy);
+    }
+
+    private BufferPool(int numPages, long maxBytes, ReplacementPolicy policy) {
+        this.default_pool = new NamedPool(DEFAULT_POOL, numPages, maxBytes, policy);
+        this.named_pools = new ConcurrentHashMap<String, NamedPool>();
+        this.page_pools = new ConcurrentHashMap<PageId, NamedPool>();
+        this.frame_bytes = new ConcurrentHashMap<Page, Long>();
+        this.store_cache = new ConcurrentHashMap<PageId, Page>();
+        this.page_latches = new Object[NUM_LATCH_STRIPES];
+        for (int i = 0; i < page_latches.length; i++) {
+            page_latches[i] = new Object();
+        }
+        lockmanager = new LockManager();
+        read_ahead = new ReadAhead(this);
+        metrics = new BufferPoolMetrics(this);
+        page_cleaner = new PageCleaner(this);
+        dirty_since = new ConcurrentHashMap<PageId, Long>();
+        row_changes = new ConcurrentHashMap<TransactionId, List<RowChange>>();
+        // some code goes here
+
+    }
+
+    /**
+     * @return the replacement policy of the default pool, which also holds
+     *         its hit and miss counters
+     */
+    public ReplacementPolicy getReplacementPolicy() {
+        return default_pool.getReplacementPolicy();
+    }
+
+    /**
+     * Add a named pool of the given number of pages, on top of the pages of
+     * the pools already there. Tables are assigned to it through
+     * {@link simpledb.common.Catalog#setBufferPool}; assign a table before
+     * its pages are read, as pages already cached stay in their pool.
+     *
+     * @param name     the name of the new pool
+     * @param numPages maximum number of pages in the new pool
+     * @param policy   the replacement policy used to choose eviction
+     *                 victims within the pool
+     * @return the new pool
+     * @throws IllegalArgumentException if a pool of that name exists
+     */
+    public NamedPool addPool(String name, int numPages, ReplacementPolicy policy) {
+        NamedPool pool = new NamedPool(name, numPages, Long.MAX_VALUE, policy);
+        if (DEFAULT_POOL.equals(name) || named_pools.putIfAbsent(name, pool) != null) {
+            throw new IllegalArgumentException("pool " + name + " already exists");
+        }
+        return pool;
+    }
+
+    /**
+     * @return the pool of the given name, or null if there is none
+     */
+    public NamedPool getPool(String name) {
+        if (DEFAULT_POOL.equals(name)) {
+            return default_pool;
+        }
+        return named_pools.get(name);
+    }
+
+    /**
+     * @return the pool pages of the given table are read into
+     */
+    public NamedPool getPoolOf(int tableId) {
+        if (named_pools.isEmpty()) {
+            return default_pool;
+        }
+        String name;
+        try {
+            name = Database.getCatalog().getBufferPoolName(tableId);
+        } catch (NoSuchElementException e) {
+            return default_pool;
+        }
+        NamedPool pool = name == null ? null : named_pools.get(name);
+        return pool == null ? default_pool : pool;
+    }
+
+    /** @return the pool a resident page belongs to */
+    private NamedPool residentPool(PageId pid) {
+        if (page_pools.isEmpty()) {
+            return default_pool;
+        }
+        return page_pools.getOrDefault(pid, default_pool);
+    }
+
+    /**
+     * @return the lock manager granting this buffer pool's page locks
+     */
+    public LockManager getLockManager() {
+        return lockmanager;
+    }
+
+    /**
+     * @return the read-ahead engine that prefetches pages of sequential scans
+     *         into this buffer pool
+     */
+    public ReadAhead getReadAhead() {
+        return read_ahead;
+    }
+
+    /**
+     * @return the counters of this buffer pool
+     */
+    public BufferPoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the page cleaner that writes dirty pages of this buffer pool
+     *         ahead of eviction
+     */
+    public PageCleaner getPageCleaner() {
+        return page_cleaner;
+    }
+
+    /**
+     * Allow dirty pages of running transactions to be written to disk to make
+     * room in the pool. Set before running transactions.
+     */
+    public void setSteal(boolean steal) {
+        if (steal && row_locking) {
+            throw new IllegalStateException("STEAL cannot be combined with row locking");
+        }
+        this.steal = steal;
+    }
+
+    public boolean isSteal() {
+        return steal;
+    }
+
+    /**
+     * Choose whether a commit writes the transaction's dirty pages (FORCE) or
+     * only logs them (NO-FORCE). Set before running transactions.
+     */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    public boolean isForce() {
+        return force;
+    }
+
+    /**
+     * Let read-only transactions read HeapFile pages from snapshots instead
+     * of locking them. Set before running transactions.
+     */
+    public void setSnapshotReads(boolean snapshotReads) {
+        if (snapshotReads && row_locking) {
+            throw new IllegalStateException("snapshot reads cannot be combined with row locking");
+        }
+        this.snapshot_reads = snapshotReads;
+    }
+
+    public boolean isSnapshotReads() {
+        return snapshot_reads;
+    }
+
+    /**
+     * Have HeapFile inserts and deletes lock single records instead of
+     * pages. Not available with STEAL or snapshot reads, which rely on a
+     * page's before image being its last committed state. Set before
+     * running transactions.
+     */
+    public void setRowLocking(boolean rowLocking) {
+        if (rowLocking && (steal || snapshot_reads)) {
+            throw new IllegalStateException("row locking cannot be combined with STEAL or snapshot reads");
+        }
+        this.row_locking = rowLocking;
+    }
+
+    public boolean isRowLocking() {
+        return row_locking;
+    }
+
+    /**
+     * @return the store of older page versions read by snapshots
+     */
+    public VersionStore getVersionStore() {
+        return versions;
+    }
+
+    /**
+     * Give a read-only transaction a snapshot of the committed state, which
+     * it reads HeapFile pages from until it completes.
+     *
+     * @return false if snapshot reads are off, and tid reads through locks
+     */
+    public boolean beginSnapshot(TransactionId tid) {
+        if (!snapshot_reads) {
+            return false;
+        }
+        versions.beginSnapshot(tid);
+        return true;
+    }
+
+    /**
+     * Read HeapFile pages into off-heap frames from now on, using a new
+     * arena with a frame for every page of the pool plus one for each
+     * miss that may be in flight before its victim is evicted.
+     *
+     * @return the new arena
+     */
+    public FrameArena enableOffHeapFrames() {
+        FrameArena arena = new FrameArena(getTotalPages() + NUM_LATCH_STRIPES);
+        setFrameArena(arena);
+        return arena;
+    }
+
+    /**
+     * Read HeapFile pages into frames of the given arena from now on, or
+     * decode them on the heap again if arena is null. Pages already cached
+     * are not affected. Pages are read as ordinary HeapPages while the
+     * arena has no free frame.
+     */
+    public void setFrameArena(FrameArena arena) {
+        this.frame_arena = arena;
+    }
+
+    public FrameArena getFrameArena() {
+        return frame_arena;
+    }
+
+    /**
+     * Keep clean pages evicted from now on in the given compressed tier, and
+     * look for missed pages there before reading them from disk, or stop
+     * using a tier if tier is null.
+     */
+    public void setSecondTier(CompressedPageCache tier) {
+        this.second_tier = tier;
+    }
+
+    public CompressedPageCache getSecondTier() {
+        return second_tier;
+    }
+
+    /**
+     * Set the number of pages in the ring of a large sequential scan, or 0
+     * to have every scan read through the pool. Affects scans opened
+     * afterwards.
+     */
+    public void setScanRingPages(int pages) {
+        if (pages < 0) {
+            throw new IllegalArgumentException("ring size must not be negative");
+        }
+        this.scan_ring_pages = pages;
+    }
+
+    public int getScanRingPages() {
+        return scan_ring_pages;
+    }
+
+    /**
+     * Create the ring a sequential scan over the given file reads through.
+     * A file that fits in its pool is scanned through the pool, so that a
+     * second scan finds it cached. So is a file the scanning transaction
+     * has modified, so that it works on a single copy of every page.
+     *
+     * @param tid  the transaction about to scan the file
+     * @param file the file about to be scanned
+     * @return a new ring, or null if the scan should read through the pool
+     */
+    public BufferRing newScanRing(TransactionId tid, HeapFile file) {
+        int pages = scan_ring_pages;
+        if (pages == 0 || file.numPages() <= getPoolOf(file.getId()).getNumPages()) {
+            return null;
+        }
+        for (Page pg : dirtyPagesOf(tid)) {
+            if (pg.getId().getTableId() == file.getId()) {
+                return null;
+            }
+        }
+        return new BufferRing(this, pages);
+    }
+
+    /**
+     * Write the ids of the pages currently in the pool to a file, to be read
+     * back by {@link #loadResidentPages} after a restart.
+     *
+     * @return the number of page ids written
+     */
+    public int saveResidentPages(File f) throws IOException {
+        return WarmStart.save(this, f);
+    }
+
+    /**
+     * Read the pages listed in a file written by {@link #saveResidentPages}
+     * into the pool, sorted by table and page number, on the given number
+     * of I/O threads. Stops once the pool is full. No locks are taken, so
+     * call this before running transactions.
+     *
+     * @return the number of pages read
+     */
+    public int loadResidentPages(File f, int threads) throws IOException {
+        return WarmStart.load(this, f, threads);
+    }
+
+    /**
+     * Save the ids of the resident pages to the given file on every
+     * checkpoint, or stop doing so if f is null.
+     */
+    public void setWarmStartFile(File f) {
+        this.warm_start_file = f;
+    }
+
+    public File getWarmStartFile() {
+        return warm_start_file;
+    }
+
+    /** @return true if the page is currently in the pool */
+    boolean isResident(PageId pid) {
+        return store_cache.containsKey(pid);
+    }
+
+    /**
+     * @return a counter that changes whenever the pool writes a page to
+     *         disk or drops a page, after the fact; a page read from disk
+     *         while the counter did not change is current
+     */
+    long getWriteStamp() {
+        return write_stamp.get();
+    }
+
+    /**
+     * Read a page from the second tier if it holds it, otherwise from its
+     * file, into an arena frame if the pool has an arena.
+     */
+    private Page readPage(DbFile file, PageId pid) {
+        Page pg = fromSecondTier(pid);
+        if (pg != null) {
+            return pg;
+        }
+        FrameArena arena = frame_arena;
+        if (arena != null && file instanceof HeapFile) {
+            return ((HeapFile) file).readPage(pid, arena);
+        }
+        return file.readPage(pid);
+    }
+
+    /**
+     * Read several pages of one file with {@link DbFile#readPages}, into
+     * arena frames if the pool has an arena, as {@link #readPage} does.
+     */
+    private List<Page> readPages(DbFile file, List<PageId> pids) {
+        FrameArena arena = frame_arena;
+        if (arena != null && file instanceof HeapFile) {
+            return ((HeapFile) file).readPages(pids, arena);
+        }
+        return file.readPages(pids);
+    }
+
+    /** @return the page taken out of the second tier, or null if it does not hold it */
+    private Page fromSecondTier(PageId pid) {
+        CompressedPageCache tier = second_tier;
+        if (tier == null || !CompressedPageCache.accepts(pid)) {
+            return null;
+        }
+        return tier.take(pid);
+    }
+
+    /** @return the number of dirty pages currently in this buffer pool */
+    public int getDirtyPageCount() {
+        int count = 0;
+        for (Page pg : store_cache.values()) {
+            if (pg.isDirty() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of dirty pages in the pool, without walking the
+     *         page table: the number of pages with a dirty time recorded
+     */
+    int getDirtyPageEstimate() {
+        return dirty_since.size();
+    }
+
+    /** @return the number of dirty pages currently in the given pool */
+    int getDirtyPageCount(NamedPool pool) {
+        if (named_pools.isEmpty()) {
+            return getDirtyPageCount();
+        }
+        int count = 0;
+        for (Map.Entry<PageId, Page> e : store_cache.entrySet()) {
+            if (e.getValue().isDirty() != null && residentPool(e.getKey()) == pool) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the maximum number of pages in the default pool; for a pool
+     *         limited by a memory budget, the number of pages of the current
+     *         average size that fit in the budget
+     */
+    public int getNumPages() {
+        return default_pool.getNumPages();
+    }
+
+    /** @return the maximum number of pages in all pools together */
+    int getTotalPages() {
+        long total = default_pool.getNumPages();
+        for (NamedPool pool : named_pools.values()) {
+            total += pool.getNumPages();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, total);
+    }
+
+    /** @return the memory budget of the default pool in bytes, or Long.MAX_VALUE if it is limited by page count */
+    public long getMemoryBudget() {
+        return default_pool.getMemoryBudget();
+    }
+
+    /** @return the bytes of heap retained by the pages in the default pool */
+    public long getUsedBytes() {
+        return default_pool.getUsedBytes();
+    }
+
+    /** @return the bytes a page will be charged to the given pool */
+    private static long sizeIn(NamedPool pool, Page pg) {
+        return pool.hasMemoryBudget() ? pg.getRetainedSize() : 0;
+    }
+
+    /** Install a freshly read page into its pool, evicting from the pool as needed. */
+    private void installPage(NamedPool pool, PageId pid, Page pg) throws DbException {
+        long bytes = sizeIn(pool, pg);
+        synchronized (pool.evictionLatch) {
+            while (pool.mustEvict(bytes)) {
+                evictPage(pool);
+            }
+            enter(pool, pid, pg);
+        }
+    }
+
+    /** Make a page resident in the given pool. Callers hold the pool's eviction latch. */
+    private void enter(NamedPool pool, PageId pid, Page pg) {
+        if (pool != default_pool) {
+            page_pools.put(pid, pool);
+        }
+        CompressedPageCache tier = second_tier;
+        if (tier != null) {
+            tier.remove(pid);
+        }
+        store_cache.put(pid, pg);
+        pool.pageEntered();
+        charge(pool, pg);
+    }
+
+    /**
+     * Account for a page that was removed from store_cache leaving its pool,
+     * evicted or else discarded.
+     */
+    private void leave(NamedPool pool, PageId pid, Page pg, boolean evicted) {
+        release(pool, pg);
+        pool.pageLeft();
+        page_pools.remove(pid);
+        if (evicted) {
+            pool.getReplacementPolicy().pageRemoved(pid);
+        } else {
+            pool.getReplacementPolicy().pageDiscarded(pid);
+        }
+    }
+
+    /** Account for a page object becoming resident, or for its size having changed. */
+    private void charge(NamedPool pool, Page pg) {
+        long size = sizeIn(pool, pg);
+        Long old = frame_bytes.put(pg, size);
+        pool.addBytes(size - (old == null ? 0 : old));
+    }
+
+    /** Account for a page object leaving the pool, and give back its frame. */
+    private void release(NamedPool pool, Page pg) {
+        Long old = frame_bytes.remove(pg);
+        if (old != null) {
+            pool.addBytes(-old);
+        }
+        if (pg instanceof FrameHeapPage) {
+            ((FrameHeapPage) pg).releaseFrame();
+        }
+    }
+
+    /**
+     * @return the latch of the stripe the given page belongs to
+     */
+    private Object latchFor(PageId pid) {
+        return page_latches[stripeOf(pid)];
+    }
+
+    /** @return the index of the stripe the given page belongs to */
+    private int stripeOf(PageId pid) {
+        int h = pid.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), page_latches.length);
+    }
+
+    public static int getPageSize() {
+        return pageSize;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setPageSize(int pageSize) {
+        BufferPool.pageSize = pageSize;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetPageSize() {
+        BufferPool.pageSize = DEFAULT_PAGE_SIZE;
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions.
+     * Will acquire a lock and may block if that lock is held by another
+     * transaction.
+     * <p>
+     * The retrieved page should be looked up in the buffer pool. If it
+     * is present, it should be returned. If it is not present, it should
+     * be added to the buffer pool and returned. If there is insufficient
+     * space in the buffer pool, a page should be evicted and the new page
+     * should be added in its place.
+     * <p>
+     * A page the transaction already holds a sufficient lock on is found
+     * through the LockManager's per-transaction lock cache, so a repeated
+     * request that hits touches no global monitor.
+     * <p>
+     * A transaction reading a snapshot gets a copy of the HeapFile page as
+     * of its snapshot, without any lock.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        // some code goes here
+        Long snapshot = versions.snapshotOf(tid);
+        if (snapshot != null && pid instanceof HeapPageId) {
+            if (perm != Permissions.READ_ONLY) {
+                throw new DbException("a snapshot transaction cannot write");
+            }
+            return snapshotPage(snapshot, pid);
+        }
+        try {
+            this.lockmanager.acquireLock(tid, pid, perm);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        return fetchPage(tid, pid);
+    }
+
+    /**
+     * Retrieve a HeapFile page to change single records of it, holding an
+     * intention-exclusive lock on the page instead of an exclusive one.
+     * Every record changed must be locked exclusively through the
+     * LockManager, and the change made holding the page's monitor.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @see #setRowLocking
+     */
+    public Page getPageForUpdate(TransactionId tid, PageId pid)
+            throws TransactionAbortedException, DbException {
+        try {
+            this.lockmanager.acquirePageIntention(tid, pid, Permissions.READ_WRITE);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        return fetchPage(tid, pid);
+    }
+
+    /**
+     * Look at a page without locking it, reading it into the pool if needed.
+     * What it holds may change at any time; use it only as a hint, or under
+     * a latch of the page's own while checking the lock table for writers,
+     * as BTreeFile's optimistic descent does.
+     */
+    public Page peekPage(PageId pid) throws DbException {
+        return fetchPage(null, pid);
+    }
+
+    /** Return a page from the pool, reading it in on a miss, once tid holds the lock it needs. */
+    private Page fetchPage(TransactionId tid, PageId pid) throws DbException {
+        Page cached = store_cache.get(pid);
+        if (cached != null) {
+            residentPool(pid).getReplacementPolicy().pageHit(pid);
+            metrics.hit(pid.getTableId());
+            return cached;
+        }
+
+        NamedPool pool = getPoolOf(pid.getTableId());
+        if (steal && tid != null && pool.mustEvict(pool.averagePageBytes())) {
+            try {
+                stealPages(tid, pool);
+            } catch (IOException e) {
+                throw new DbException("could not write dirty pages: " + e.getMessage());
+            }
+        }
+
+        synchronized (latchFor(pid)) {
+            // another transaction may have loaded it while we waited
+            cached = store_cache.get(pid);
+            if (cached != null) {
+                residentPool(pid).getReplacementPolicy().pageHit(pid);
+                metrics.hit(pid.getTableId());
+                return cached;
+            }
+
+            DbFile DatabaseFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            Page P1 = readPage(DatabaseFile, pid);
+            installPage(pool, pid, P1);
+            pool.getReplacementPolicy().pageLoaded(pid);
+            metrics.miss(pid.getTableId());
+            return P1;
+        }
+    }
+
+    /**
+     * Read the version of a page a snapshot sees. If the page has not been
+     * committed since the snapshot, the before image of the resident page is
+     * copied, reading the page into the pool first as read-ahead does. The
+     * copy is thrown away and the page read again if an image was kept in
+     * the meantime, as its committed state may have changed while it was
+     * copied.
+     */
+    private Page snapshotPage(long snapshot, PageId pid) throws DbException {
+        while (true) {
+            long stamp = versions.getStamp();
+            Page version = versions.find(pid, snapshot);
+            if (version != null) {
+                versions.countRead(true);
+                return version;
+            }
+            Page current = store_cache.get(pid);
+            if (current == null) {
+                try {
+                    prefetchPage(pid);
+                } catch (DbException e) {
+                    // no room; read it from disk below
+                }
+                current = store_cache.get(pid);
+            }
+            Page image;
+            if (current != null) {
+                residentPool(pid).getReplacementPolicy().pageHit(pid);
+                metrics.hit(pid.getTableId());
+                image = current.getBeforeImage();
+            } else {
+                image = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            }
+            if (versions.getStamp() == stamp) {
+                versions.countRead(false);
+                return image;
+            }
+        }
+    }
+
+    /**
+     * The order in which {@link #getPages} acquires locks: by table, then
+     * page number, then the rest of the serialized id. Every batch locks in
+     * this one order, so two batches can never wait for each other's pages.
+     */
+    private static final Comparator<PageId> LOCK_ORDER = (a, b) -> {
+        int c = Integer.compare(a.getTableId(), b.getTableId());
+        if (c == 0) {
+            c = Integer.compare(a.getPageNumber(), b.getPageNumber());
+        }
+        if (c == 0) {
+            c = a.getClass().getName().compareTo(b.getClass().getName());
+        }
+        if (c == 0) {
+            int[] x = a.serialize();
+            int[] y = b.serialize();
+            for (int i = 0; c == 0 && i < Math.min(x.length, y.length); i++) {
+                c = Integer.compare(x[i], y[i]);
+            }
+        }
+        return c;
+    };
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Retrieve several pages at once with the same permissions. Locks are
+     * acquired in a fixed global order, and the pages that are not resident
+     * are read with one {@link DbFile#readPages} call per table, so runs of
+     * adjacent pages are read together.
+     * <p>
+     * The misses are read without holding their stripe latches, so a page
+     * that another transaction misses on at the same time may be read
+     * twice; only one copy is installed and returned.
      *
-     * @param numPages maximum number of pages in this buffer pool.
+     * @param tid  the ID of the transaction requesting the pages
+     * @param pids the IDs of the requested pages
+     * @param perm the requested permissions on the pages
+     * @return the pages, in the order of pids
      */
-    public BufferPool(int numPages) {
-        this.max_pages = numPages;
-        this.store_cache = new ConcurrentHashMap<PageId, Page>();
-        lockmanager = new LockManager();
-        // some code goes here
-
-    }
+    public List<Page> getPages(TransactionId tid, List<PageId> pids, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        if (versions.snapshotOf(tid) != null) {
+            List<Page> pages = new ArrayList<>(pids.size());
+            for (PageId pid : pids) {
+                pages.add(getPage(tid, pid, perm));
+            }
+            return pages;
+        }
+        List<PageId> ordered = new ArrayList<>(new HashSet<>(pids));
+        ordered.sort(LOCK_ORDER);
+        for (PageId pid : ordered) {
+            try {
+                this.lockmanager.acquireLock(tid, pid, perm);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
 
-    public static int getPageSize() {
-        return pageSize;
-    }
+        Map<PageId, Page> found = new HashMap<>();
+        Map<Integer, List<PageId>> misses = new LinkedHashMap<>();
+        for (PageId pid : ordered) {
+            Page cached = store_cache.get(pid);
+            if (cached != null) {
+                residentPool(pid).getReplacementPolicy().pageHit(pid);
+                metrics.hit(pid.getTableId());
+                found.put(pid, cached);
+            } else {
+                misses.computeIfAbsent(pid.getTableId(), k -> new ArrayList<>()).add(pid);
+            }
+        }
+        Map<PageId, Page> unpacked = new HashMap<>();
+        if (second_tier != null) {
+            for (List<PageId> ids : misses.values()) {
+                for (PageId pid : ids) {
+                    Page pg = fromSecondTier(pid);
+                    if (pg != null) {
+                        unpacked.put(pid, pg);
+                    }
+                }
+            }
+        }
 
-    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
-    public static void setPageSize(int pageSize) {
-        BufferPool.pageSize = pageSize;
-    }
+        for (Map.Entry<Integer, List<PageId>> e : misses.entrySet()) {
+            NamedPool pool = getPoolOf(e.getKey());
+            if (steal && pool.mustEvict(pool.averagePageBytes())) {
+                try {
+                    stealPages(tid, pool);
+                } catch (IOException ex) {
+                    throw new DbException("could not write dirty pages: " + ex.getMessage());
+                }
+            }
+            DbFile file = Database.getCatalog().getDatabaseFile(e.getKey());
+            List<PageId> ids = e.getValue();
+            List<PageId> toRead = new ArrayList<>(ids);
+            toRead.removeAll(unpacked.keySet());
+            List<Page> read = toRead.isEmpty() ? Collections.emptyList()
+                    : toRead.size() == 1 ? Collections.singletonList(readPage(file, toRead.get(0)))
+                    : readPages(file, toRead);
+            for (int i = 0; i < toRead.size(); i++) {
+                unpacked.put(toRead.get(i), read.get(i));
+            }
+            for (PageId pid : ids) {
+                Page pg = unpacked.get(pid);
+                synchronized (latchFor(pid)) {
+                    Page cached = store_cache.get(pid);
+                    if (cached != null) {
+                        // loaded by another transaction while we read
+                        if (pg instanceof FrameHeapPage) {
+                            ((FrameHeapPage) pg).releaseFrame();
+                        }
+                        residentPool(pid).getReplacementPolicy().pageHit(pid);
+                        metrics.hit(pid.getTableId());
+                        found.put(pid, cached);
+                        continue;
+                    }
+                    installPage(pool, pid, pg);
+                }
+                pool.getReplacementPolicy().pageLoaded(pid);
+                metrics.miss(pid.getTableId());
+                found.put(pid, pg);
+            }
+        }
 
-    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
-    public static void resetPageSize() {
-        BufferPool.pageSize = DEFAULT_PAGE_SIZE;
+        List<Page> pages = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            pages.add(found.get(pid));
+        }
+        return pages;
     }
 
     /**
-     * Retrieve the specified page with the associated permissions.
-     * Will acquire a lock and may block if that lock is held by another
-     * transaction.
-     * <p>
-     * The retrieved page should be looked up in the buffer pool. If it
-     * is present, it should be returned. If it is not present, it should
-     * be added to the buffer pool and returned. If there is insufficient
-     * space in the buffer pool, a page should be evicted and the new page
-     * should be added in its place.
+     * Retrieve the specified page on behalf of a scan reading through the
+     * given ring. A page that is resident is returned from the pool as by
+     * {@link #getPage(TransactionId, PageId, Permissions)}; otherwise the
+     * ring's copy of it is returned and the pool is left alone. Pages
+     * requested for writing always go through the pool.
      *
      * @param tid  the ID of the transaction requesting the page
      * @param pid  the ID of the requested page
      * @param perm the requested permissions on the page
+     * @param ring the scan's ring, or null to read through the pool
      */
-    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
             throws TransactionAbortedException, DbException {
-        // some code goes here
-        try {
-            this.lockmanager.acquireLock(tid, pid, perm);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        if (ring == null || perm != Permissions.READ_ONLY || versions.snapshotOf(tid) != null) {
+            return getPage(tid, pid, perm);
         }
         try {
             this.lockmanager.acquireLock(tid, pid, perm);
@@ -102,18 +1022,40 @@ public class BufferPool {
             e.printStackTrace();
         }
 
-        if (store_cache.containsKey(pid)) {
-            return store_cache.get(pid);
-        } else {
+        Page cached = store_cache.get(pid);
+        if (cached != null) {
+            residentPool(pid).getReplacementPolicy().pageHit(pid);
+            metrics.hit(pid.getTableId());
+            return cached;
+        }
+        return ring.getPage(Database.getCatalog().getDatabaseFile(pid.getTableId()), pid);
+    }
 
-            if (store_cache.size() >= max_pages) {
-                evictPage();
+    /**
+     * Bring a page into the buffer pool ahead of a request for it, without
+     * acquiring any lock on behalf of a transaction. Used by read-ahead.
+     * Does nothing if the page is already resident.
+     *
+     * @param pid the ID of the page to prefetch
+     * @return true if the page was read from disk
+     * @throws DbException if there is no room without evicting a dirty page
+     */
+    boolean prefetchPage(PageId pid) throws DbException {
+        if (store_cache.containsKey(pid)) {
+            return false;
+        }
+        synchronized (latchFor(pid)) {
+            if (store_cache.containsKey(pid)) {
+                return false;
             }
-
+            NamedPool pool = getPoolOf(pid.getTableId());
             DbFile DatabaseFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page P1 = DatabaseFile.readPage(pid);
-            store_cache.put(pid, P1);
-            return P1;
+            Page pg = readPage(DatabaseFile, pid);
+            installPage(pool, pid, pg);
+            // not a miss: the scan that asked for it will count a hit
+            pool.getReplacementPolicy().pageAdded(pid);
+            metrics.prefetched();
+            return true;
         }
     }
 
@@ -159,7 +1101,11 @@ public class BufferPool {
 
     /**
      * Commit or abort a given transaction; release all locks associated to
-     * the transaction.
+     * the transaction. Ends the transaction's snapshot if it reads one.
+     * <p>
+     * With snapshot reads on, a commit keeps the committed images of the
+     * pages it is about to replace in the VersionStore first, for the
+     * snapshots that still read them.
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
@@ -167,24 +1113,48 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
-        HashSet<PageId> restore = this.lockmanager.transacMap.get(tid);
+        versions.endSnapshot(tid);
+        Set<PageId> restore = this.lockmanager.transacMap.get(tid);
         if (restore == null) {
 
             return;
         }
         try {
             if (commit) {
-                flushPages(tid);
+                if (snapshot_reads) {
+                    versions.commitStarted(tid, dirtyPagesOf(tid));
+                }
+                if (force) {
+                    flushPages(tid);
+                } else {
+                    logPages(tid);
+                }
             } else {
-                for (PageId pid : restore) {
-
-                    discardPage(pid);
+                // pages shared with other row writers keep their changes
+                Set<PageId> shared = undoRowChanges(tid);
+                if (force) {
+                    for (PageId pid : restore) {
+                        if (!shared.contains(pid)) {
+                            discardPage(pid);
+                        }
+                    }
+                } else {
+                    restorePages(tid, shared);
                 }
             }
             this.lockmanager.releaseAllLocks(tid);
 
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            row_changes.remove(tid);
+            if (snapshot_reads) {
+                if (commit) {
+                    versions.commitDone(tid);
+                } else {
+                    versions.aborted(tid);
+                }
+            }
         }
 
     }
@@ -212,9 +1182,7 @@ public class BufferPool {
         ArrayList<Page> ls_page = (ArrayList<Page>) file.insertTuple(tid, t);
         for (Page pg : ls_page) {
             pg.markDirty(true, tid);
-            if (this.store_cache.size() > max_pages)
-                evictPage();
-            this.store_cache.put(pg.getId(), pg);
+            cachePage(pg);
         }
     }
 
@@ -239,11 +1207,148 @@ public class BufferPool {
             throw new DbException("tuple already deleted");
         }
 
-        List<Page> ls2_page = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId())
-                .deleteTuple(tid, t);
+        RecordId rid = t.getRecordId();
+        DbFile file = Database.getCatalog().getDatabaseFile(rid.getPageId().getTableId());
+        List<Page> ls2_page = file.deleteTuple(tid, t);
         for (Page pg : ls2_page) {
             pg.markDirty(true, tid);
-            this.store_cache.put(pg.getId(), pg);
+            cachePage(pg);
+        }
+    }
+
+    /**
+     * Remember a record change made under a record lock. Called by
+     * HeapFile while it holds the changed page's monitor.
+     */
+    void rowChanged(TransactionId tid, boolean inserted, RecordId rid, Tuple t) {
+        row_changes.computeIfAbsent(tid, k -> Collections.synchronizedList(new ArrayList<>()))
+                .add(new RowChange(inserted, rid, t));
+    }
+
+    /**
+     * Take back one record change on the given page. A copy of the changed
+     * tuple is used, as the page sets and clears the record ids of the
+     * tuples it is given.
+     */
+    private static void undo(HeapPage pg, RowChange c) throws DbException {
+        Tuple t = new Tuple(c.tuple.getTupleDesc());
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            t.setField(i, c.tuple.getField(i));
+        }
+        t.setRecordId(c.rid);
+        if (c.inserted) {
+            pg.deleteTuple(t);
+        } else {
+            pg.insertTuple(t, c.rid.getTupleNumber());
+        }
+    }
+
+    /**
+     * @return the page without the record changes of running transactions
+     *         other than tid, or pg itself if it holds none. Those changes
+     *         may still be taken back by an abort, so this is the image
+     *         that is written and logged in place of the page. tid may be
+     *         null to leave out the changes of every running transaction.
+     */
+    private Page committedImage(Page pg, TransactionId tid) throws IOException {
+        if (row_changes.isEmpty() || !(pg instanceof HeapPage)) {
+            return pg;
+        }
+        PageId pid = pg.getId();
+        List<RowChange> others = new ArrayList<>();
+        byte[] data;
+        synchronized (pg) {
+            for (Map.Entry<TransactionId, List<RowChange>> e : row_changes.entrySet()) {
+                if (e.getKey().equals(tid)) {
+                    continue;
+                }
+                synchronized (e.getValue()) {
+                    for (RowChange c : e.getValue()) {
+                        if (c.rid.getPageId().equals(pid)) {
+                            others.add(c);
+                        }
+                    }
+                }
+            }
+            if (others.isEmpty()) {
+                return pg;
+            }
+            data = pg.getPageData();
+        }
+        HeapPage image = new HeapPage((HeapPageId) pid, data);
+        try {
+            for (int i = others.size() - 1; i >= 0; i--) {
+                undo(image, others.get(i));
+            }
+        } catch (DbException e) {
+            throw new IOException("could not take back record changes of page " + pid, e);
+        }
+        return image;
+    }
+
+    /**
+     * Take back the record changes of an aborting transaction, newest
+     * first, on the pages as they are now, and leave those pages dirty:
+     * other transactions may have changed other records of them, and a
+     * commit may have written them with this transaction's changes in.
+     * The transaction still holds its record locks, so the slots it
+     * changed are as it left them.
+     *
+     * @return the pages changed back
+     */
+    private Set<PageId> undoRowChanges(TransactionId tid) throws DbException {
+        List<RowChange> changes = row_changes.get(tid);
+        Set<PageId> pages = new HashSet<>();
+        if (changes == null) {
+            return pages;
+        }
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            RowChange c = changes.get(i);
+            HeapPage pg = (HeapPage) fetchPage(tid, c.rid.getPageId());
+            synchronized (pg) {
+                undo(pg, c);
+                // under the page's monitor, so committedImage never takes
+                // back a change that is already gone
+                changes.remove(i);
+                pg.markDirty(true, tid);
+            }
+            cachePage(pg);
+            pages.add(pg.getId());
+        }
+        row_changes.remove(tid);
+        return pages;
+    }
+
+    /**
+     * Install a page returned by a DbFile modification, replacing any
+     * cached version of it. New pages may push out a clean page.
+     */
+    private void cachePage(Page pg) throws DbException {
+        PageId pid = pg.getId();
+        synchronized (latchFor(pid)) {
+            if (pg.isDirty() != null) {
+                dirty_since.putIfAbsent(pid, System.nanoTime());
+            }
+            Page old = store_cache.replace(pid, pg);
+            if (old == null) {
+                NamedPool pool = getPoolOf(pid.getTableId());
+                synchronized (pool.evictionLatch) {
+                    if (pool.isOverfull(sizeIn(pool, pg))) {
+                        evictPage(pool);
+                    }
+                    enter(pool, pid, pg);
+                }
+                pool.getReplacementPolicy().pageAdded(pid);
+            } else {
+                NamedPool pool = residentPool(pid);
+                if (old != pg) {
+                    release(pool, old);
+                }
+                charge(pool, pg);
+            }
+        }
+        if (page_cleaner.isRunning() && page_cleaner.aboveHighWatermark()) {
+            page_cleaner.wakeUp();
         }
     }
 
@@ -252,12 +1357,30 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      * break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for (PageId pid : this.store_cache.keySet()) {
-            flushPage(pid);
+        List<Page> dirty = new ArrayList<>();
+        for (Page pg : this.store_cache.values()) {
+            TransactionId dirtier = pg.isDirty();
+            if (dirtier != null) {
+                dirty.add(pg);
+                if (snapshot_reads) {
+                    keepStolen(dirtier, pg);
+                }
+            }
         }
+        logAndWritePages(dirty);
+    }
+
+    /**
+     * Keep the before image of a page about to be written for snapshot
+     * readers, if the transaction that dirtied it is still running. It is
+     * asked under the VersionStore's monitor: transactionComplete releases
+     * the locks before it resolves the transaction's kept images there.
+     */
+    private void keepStolen(TransactionId dirtier, Page pg) {
+        versions.keepStolen(dirtier, pg, () -> lockmanager.holdsAnyLock(dirtier));
     }
 
     /**
@@ -269,10 +1392,36 @@ public class BufferPool {
      * Also used by B+ tree files to ensure that deleted pages
      * are removed from the cache so they can be reused safely
      */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        store_cache.remove(pid);
+        synchronized (latchFor(pid)) {
+            dirty_since.remove(pid);
+            CompressedPageCache tier = second_tier;
+            if (tier != null) {
+                tier.remove(pid);
+            }
+            NamedPool pool = residentPool(pid);
+            Page pg = store_cache.remove(pid);
+            if (pg != null) {
+                leave(pool, pid, pg, false);
+            }
+            write_stamp.incrementAndGet();
+        }
+    }
+
+    /**
+     * Write a page image to its file and drop any cached copy of it, as
+     * one step with respect to the writes of this pool, so that a page
+     * stolen from a transaction being rolled back cannot overwrite the
+     * restored image.
+     */
+    void restorePage(Page image) throws IOException {
+        PageId pid = image.getId();
+        synchronized (latchFor(pid)) {
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(image);
+            discardPage(pid);
+        }
     }
 
     /**
@@ -280,86 +1429,456 @@ public class BufferPool {
      * 
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
 
         if (pid != null) {
-            if (!this.store_cache.containsKey(pid)) {
-                return;
-            }
             Page pg = this.store_cache.get(pid);
-            if (!(pg.isDirty() == null)) {
+            if (pg != null && pg.isDirty() != null) {
+                logAndWritePages(Collections.singletonList(pg));
+            }
+        }
+    }
+
+    /**
+     * Log an UPDATE record for each page, force the log, then write the
+     * pages that are still dirty and cached. The log is written without
+     * holding any stripe latch: LogFile checkpoints and rollbacks hold the
+     * log's monitor while they flush or discard pages.
+     * <p>
+     * The pages are written in groups: by table, in page number order, up
+     * to {@link #MAX_PAGES_PER_WRITE} at a time, each with one
+     * {@link DbFile#writePages} call, which lets the file coalesce adjacent
+     * pages into a single write.
+     */
+    private void logAndWritePages(List<Page> pages) throws IOException {
+        logAndWritePages(pages, null);
+    }
 
-                pg.markDirty(false, null);
-                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(pg);
+    /**
+     * As {@link #logAndWritePages(List)}, logging the pages under the given
+     * committing transaction rather than the one that dirtied each last.
+     */
+    private void logAndWritePages(List<Page> pages, TransactionId committer) throws IOException {
+        if (pages.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        LogFile log = Database.getLogFile();
+        for (Page pg : pages) {
+            TransactionId dirtier = pg.isDirty();
+            if (dirtier == null) {
+                continue;
+            }
+            Page image = committedImage(pg, committer);
+            // an image without the changes of running transactions holds
+            // only committed changes, which their commits have logged
+            if (committer != null || image == pg) {
+                log.logWrite(committer != null ? committer : dirtier, pg.getBeforeImage(), image);
+            }
+        }
+        log.force();
 
+        Map<Integer, List<Page>> byTable = new TreeMap<>();
+        for (Page pg : pages) {
+            byTable.computeIfAbsent(pg.getId().getTableId(), k -> new ArrayList<>()).add(pg);
+        }
+        for (Map.Entry<Integer, List<Page>> e : byTable.entrySet()) {
+            DbFile file = Database.getCatalog().getDatabaseFile(e.getKey());
+            List<Page> group = e.getValue();
+            group.sort(Comparator.comparingInt(pg -> pg.getId().getPageNumber()));
+            for (int from = 0; from < group.size(); from += MAX_PAGES_PER_WRITE) {
+                List<Page> part = group.subList(from, Math.min(group.size(), from + MAX_PAGES_PER_WRITE));
+                int[] stripes = part.stream().mapToInt(pg -> stripeOf(pg.getId())).sorted().distinct().toArray();
+                writeGroup(file, part, committer, stripes, 0);
             }
         }
+        metrics.flushed(System.nanoTime() - start);
     }
 
     /**
-     * Write all pages of the specified transaction to disk.
+     * Write the pages of a group that are still dirty and cached, holding
+     * the latches of all their stripes. The latches are taken in stripe
+     * order, one per level of recursion, so two groups cannot deadlock.
+     * A page holding record changes of running transactions other than
+     * committer is written as its {@link #committedImage} and stays dirty.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
-        HashSet<PageId> pgid = this.lockmanager.transacMap.get(tid);
-        for (PageId pageId : pgid) {
-            if (store_cache.containsKey(pageId)) {
+    private void writeGroup(DbFile file, List<Page> group, TransactionId committer, int[] stripes, int held)
+            throws IOException {
+        if (held < stripes.length) {
+            synchronized (page_latches[stripes[held]]) {
+                writeGroup(file, group, committer, stripes, held + 1);
+            }
+            return;
+        }
+        List<Page> images = new ArrayList<>();
+        List<Page> current = new ArrayList<>();
+        List<TransactionId> dirtiers = new ArrayList<>();
+        List<Long> since = new ArrayList<>();
+        for (Page pg : group) {
+            TransactionId dirtier = pg.isDirty();
+            if (store_cache.get(pg.getId()) == pg && dirtier != null) {
+                Page image = committedImage(pg, committer);
+                images.add(image);
+                if (image == pg) {
+                    pg.markDirty(false, null);
+                    current.add(pg);
+                    dirtiers.add(dirtier);
+                    since.add(dirty_since.remove(pg.getId()));
+                }
+            }
+        }
+        if (images.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            file.writePages(images);
+        } catch (IOException | RuntimeException e) {
+            for (int i = 0; i < current.size(); i++) {
+                restoreDirty(current.get(i), dirtiers.get(i), since.get(i));
+            }
+            throw e;
+        }
+        metrics.written(System.nanoTime() - start);
+        write_stamp.incrementAndGet();
+    }
 
-                Page pg = store_cache.get(pageId);
+    /**
+     * Write a dirty page to its file and mark it clean.
+     */
+    private void writeDirtyPage(Page pg) throws IOException {
+        TransactionId dirtier = pg.isDirty();
+        pg.markDirty(false, null);
+        Long since = dirty_since.remove(pg.getId());
+        long start = System.nanoTime();
+        try {
+            Database.getCatalog().getDatabaseFile(pg.getId().getTableId()).writePage(pg);
+        } catch (IOException | RuntimeException e) {
+            restoreDirty(pg, dirtier, since);
+            throw e;
+        }
+        metrics.written(System.nanoTime() - start);
+        write_stamp.incrementAndGet();
+    }
+
+    /**
+     * Mark a page dirty again after writing it failed, so that it is not
+     * evicted while its file holds an older version. A page dirtied again
+     * during the write keeps its new dirtier.
+     */
+    private void restoreDirty(Page pg, TransactionId dirtier, Long since) {
+        if (pg.isDirty() == null) {
+            pg.markDirty(true, dirtier);
+        }
+        dirty_since.putIfAbsent(pg.getId(), since != null ? since : System.nanoTime());
+    }
+
+    /**
+     * Write out up to maxPages dirty pages, oldest dirty first, so that they
+     * can be evicted. Pages whose dirtying transaction has completed (and so
+     * holds no more locks) are written first. While such a page is written
+     * the cleaner holds a shared lock on it, so no transaction can be
+     * changing it. In STEAL mode, if that is not enough, the oldest dirty
+     * pages of running transactions are stolen as well.
+     *
+     * @param pool     only write pages of this pool, or of all pools if null
+     * @param maxPages the maximum number of pages to write
+     * @return the number of pages written
+     * @see PageCleaner
+     */
+    int cleanDirtyPages(NamedPool pool, int maxPages) throws IOException {
+        List<PageId> candidates = new ArrayList<>();
+        List<Page> running = new ArrayList<>();
+        for (Map.Entry<PageId, Page> e : store_cache.entrySet()) {
+            if (pool != null && residentPool(e.getKey()) != pool) {
+                continue;
+            }
+            TransactionId dirtier = e.getValue().isDirty();
+            if (dirtier == null) {
+                continue;
+            }
+            if (!lockmanager.holdsAnyLock(dirtier)) {
+                candidates.add(e.getKey());
+            } else if (steal) {
+                running.add(e.getValue());
+            }
+        }
+        candidates.sort(Comparator.comparingLong(pid -> dirty_since.getOrDefault(pid, 0L)));
 
-                if (pg.isDirty() != null) {
-                    flushPage(pageId);
+        int written = 0;
+        for (PageId pid : candidates) {
+            if (written >= maxPages) {
+                break;
+            }
+            if (!lockmanager.tryAcquireLock(cleaner_tid, pid, Permissions.READ_ONLY)) {
+                continue;
+            }
+            try {
+                Page pg = store_cache.get(pid);
+                TransactionId dirtier = pg == null ? null : pg.isDirty();
+                if (dirtier != null && !lockmanager.holdsAnyLock(dirtier)) {
+                    writeDirtyPage(pg);
+                    // its contents are committed now
                     pg.setBeforeImage();
+                    written++;
+                }
+            } finally {
+                try {
+                    lockmanager.releaseLock(cleaner_tid, pid);
+                } catch (DbException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        if (written < maxPages && !running.isEmpty()) {
+            written += stealOldest(running, maxPages - written);
+        }
+        return written;
+    }
 
+    /**
+     * STEAL: log and write up to maxPages of the given dirty pages of
+     * running transactions, oldest dirty first. The cleaner takes no lock on
+     * them, as their writers hold exclusive ones; a page changed while it is
+     * written is dirtied again. Their before images are kept: the
+     * transactions may still abort.
+     *
+     * @return the number of pages written
+     */
+    private int stealOldest(List<Page> pages, int maxPages) throws IOException {
+        pages.sort(Comparator.comparingLong(pg -> dirty_since.getOrDefault(pg.getId(), 0L)));
+        List<Page> stolen = new ArrayList<>();
+        for (Page pg : pages) {
+            if (stolen.size() >= maxPages) {
+                break;
+            }
+            TransactionId dirtier = pg.isDirty();
+            if (dirtier != null && store_cache.get(pg.getId()) == pg) {
+                if (snapshot_reads) {
+                    keepStolen(dirtier, pg);
                 }
+                stolen.add(pg);
             }
         }
+        logAndWritePages(stolen);
+        return stolen.size();
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Write all pages of the specified transaction to disk.
      */
-    private synchronized void evictPage() throws DbException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1
-        if (store_cache.keySet().size() == 0) {
+        // not necessary for lab1|lab2
+        logAndWritePages(commitPagesOf(tid), tid);
+        // including pages flushed earlier, e.g. by flushAllPages
+        setBeforeImages(tid);
+    }
 
-            throw new DbException("no pages to evict");
+    /**
+     * Make the current contents of the pages tid locked their before
+     * images, leaving out the record changes of other running transactions.
+     */
+    private void setBeforeImages(TransactionId tid) throws IOException {
+        Set<PageId> locked = this.lockmanager.transacMap.get(tid);
+        if (locked == null) {
+            return;
         }
-        PageId pgid = null;
-        boolean cl = false;
-        Iterator<PageId> pg_iter = store_cache.keySet().stream().iterator();
-
-        while (pg_iter.hasNext()) {
+        for (PageId pid : locked) {
+            Page pg = store_cache.get(pid);
+            if (pg != null) {
+                Page image = committedImage(pg, tid);
+                if (image == pg) {
+                    pg.setBeforeImage();
+                } else {
+                    ((HeapPage) pg).setBeforeImage(image.getPageData());
+                }
+            }
+        }
+    }
 
-            PageId cur_pgid = pg_iter.next();
+    /**
+     * NO-FORCE commit: log an UPDATE record for every page the transaction
+     * dirtied and force the log, but leave the pages dirty in the pool.
+     * Once the transaction has released its locks the page cleaner may
+     * write them.
+     */
+    private void logPages(TransactionId tid) throws IOException {
+        List<Page> dirty = commitPagesOf(tid);
+        LogFile log = Database.getLogFile();
+        for (Page pg : dirty) {
+            log.logWrite(tid, pg.getBeforeImage(), committedImage(pg, tid));
+        }
+        if (!dirty.isEmpty()) {
+            log.force();
+        }
+        setBeforeImages(tid);
+    }
 
-            if (store_cache.get(cur_pgid).isDirty() == null) {
+    /**
+     * NO-FORCE abort: put the last committed version of each page the
+     * transaction dirtied back in the pool. That version may not be on disk
+     * yet, so it stays dirty. Pages the transaction stole were already
+     * restored and discarded by LogFile.rollback.
+     */
+    private void restorePages(TransactionId tid, Set<PageId> keep) throws DbException {
+        for (Page pg : dirtyPagesOf(tid)) {
+            if (keep.contains(pg.getId())) {
+                continue;
+            }
+            Page before = pg.getBeforeImage();
+            before.markDirty(true, tid);
+            synchronized (latchFor(pg.getId())) {
+                if (store_cache.replace(pg.getId(), pg, before)) {
+                    NamedPool pool = residentPool(pg.getId());
+                    release(pool, pg);
+                    charge(pool, before);
+                }
+            }
+        }
+    }
 
-                pgid = cur_pgid;
-                cl = true;
-                break;
+    /**
+     * STEAL: when the pool is full and every page in it is dirty, write out
+     * the oldest pages in it dirtied by the requesting transaction, down to
+     * the cleaner's low watermark, so that one of them can be evicted. Only
+     * the transaction's own pages are stolen, as nothing else can be
+     * modifying them while it waits for a page. Their before images are
+     * kept: they still describe the last committed state.
+     */
+    private void stealPages(TransactionId tid, NamedPool pool) throws IOException {
+        int dirty = named_pools.isEmpty() ? getDirtyPageEstimate() : getDirtyPageCount(pool);
+        if (dirty < pool.getResidentPages()) {
+            return;
+        }
+        List<Page> own = dirtyPagesOf(tid);
+        own.removeIf(pg -> residentPool(pg.getId()) != pool);
+        own.sort(Comparator.comparingLong(pg -> dirty_since.getOrDefault(pg.getId(), 0L)));
+        int target = (int) (page_cleaner.getLowWatermark() * pool.getNumPages());
+        int excess = Math.max(1, dirty - target);
+        if (own.size() > excess) {
+            own = own.subList(0, excess);
+        }
+        if (snapshot_reads) {
+            for (Page pg : own) {
+                versions.keepStolen(tid, pg);
             }
         }
-        if (cl) {
+        logAndWritePages(own);
+    }
 
-            try {
-                flushPage(pgid);
-            } catch (IOException e) {
-                e.printStackTrace();
+    /**
+     * @return the cached pages a commit of tid must log: those it dirtied
+     *         last, and the dirty pages it changed records of, which another
+     *         row writer may have dirtied since
+     */
+    private List<Page> commitPagesOf(TransactionId tid) {
+        List<Page> pages = dirtyPagesOf(tid);
+        List<RowChange> changes = row_changes.get(tid);
+        if (changes == null) {
+            return pages;
+        }
+        Set<PageId> seen = new HashSet<>();
+        for (Page pg : pages) {
+            seen.add(pg.getId());
+        }
+        synchronized (changes) {
+            for (RowChange c : changes) {
+                PageId pid = c.rid.getPageId();
+                Page pg = store_cache.get(pid);
+                if (seen.add(pid) && pg != null && pg.isDirty() != null) {
+                    pages.add(pg);
+                }
             }
+        }
+        return pages;
+    }
 
-            store_cache.remove(pgid);
+    /**
+     * @return the cached pages whose last modification was made by tid. A
+     *         transaction only modifies pages it holds a lock on.
+     */
+    private List<Page> dirtyPagesOf(TransactionId tid) {
+        List<Page> dirty = new ArrayList<>();
+        Set<PageId> locked = this.lockmanager.transacMap.get(tid);
+        if (locked == null) {
+            return dirty;
+        }
+        for (PageId pid : locked) {
+            Page pg = store_cache.get(pid);
+            if (pg != null && tid.equals(pg.isDirty())) {
+                dirty.add(pg);
+            }
+        }
+        return dirty;
+    }
 
-        } else {
+    /**
+     * Discards a page from the given pool.
+     * The victim is chosen by the pool's replacement policy among its clean
+     * pages, so nothing needs to be written out. Pages pinned by a lock of
+     * a running transaction are only chosen when every clean page is
+     * pinned, so a transaction's working set stays resident while it
+     * runs. If every page is dirty,
+     * the page cleaner first writes out what it may. Callers hold the pool's
+     * eviction latch.
+     */
+    private void evictPage(NamedPool pool) throws DbException {
+        // some code goes here
+        // not necessary for lab1
+        ReplacementPolicy replacement_policy = pool.getReplacementPolicy();
+        boolean cleaned = false;
+        while (true) {
+            if (pool.getResidentPages() == 0) {
 
-            throw new DbException("No clean page to evict");
+                throw new DbException("no pages to evict");
+            }
+            PageId pgid = replacement_policy.chooseVictim(pid -> {
+                Page pg = store_cache.get(pid);
+                return pg != null && pg.isDirty() == null && lockmanager.getPinCount(pid) == 0;
+            });
+            if (pgid == null) {
+                pgid = replacement_policy.chooseVictim(pid -> {
+                    Page pg = store_cache.get(pid);
+                    return pg != null && pg.isDirty() == null;
+                });
+            }
+            if (pgid == null && !cleaned) {
+                cleaned = true;
+                try {
+                    if (page_cleaner.cleanToLowWatermark(pool, 1) > 0) {
+                        continue;
+                    }
+                } catch (IOException e) {
+                    throw new DbException("could not write dirty pages: " + e.getMessage());
+                }
+            }
+            if (pgid == null) {
+                metrics.noCleanPage();
+                throw new DbException("No clean page to evict");
+            }
+            Page victim = store_cache.get(pgid);
+            if (victim == null) {
+                // discarded concurrently
+                replacement_policy.pageDiscarded(pgid);
+                continue;
+            }
+            // copied first: leaving the pool gives back an arena frame
+            CompressedPageCache tier = second_tier;
+            byte[] data = tier != null && CompressedPageCache.accepts(pgid) ? victim.getPageData() : null;
+            if (victim.isDirty() != null || !store_cache.remove(pgid, victim)) {
+                // dirtied or replaced after it was chosen; look again
+                continue;
+            }
+            leave(pool, pgid, victim, true);
+            if (data != null) {
+                tier.put(pgid, data);
+            }
+            metrics.evicted();
+            return;
         }
-
     }
 
-}
\ No newline at end of file
+}
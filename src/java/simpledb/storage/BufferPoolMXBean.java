@@ -0,0 +1,63 @@
+package simpledb.storage;
+
+import java.util.Map;
+
+/**
+ * Management interface of the database's BufferPool, registered with the
+ * platform MBean server as {@value BufferPoolMonitor#OBJECT_NAME}. Every
+ * attribute is read from a fresh {@link BufferPoolMetrics.Snapshot}.
+ * Latencies are in microseconds.
+ */
+public interface BufferPoolMXBean {
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    /** @return the hit ratio of every table that had page requests, by table name */
+    Map<String, Double> getTableHitRatios();
+
+    /** @return the number of misses of every table that had page requests, by table name */
+    Map<String, Long> getTableMisses();
+
+    long getPrefetches();
+
+    long getEvictions();
+
+    long getNoCleanPageFailures();
+
+    int getDirtyPages();
+
+    int getResidentPages();
+
+    int getCapacity();
+
+    long getFlushCount();
+
+    double getFlushLatencyMeanMicros();
+
+    double getFlushLatencyP99Micros();
+
+    long getWriteCount();
+
+    double getWriteLatencyMeanMicros();
+
+    double getWriteLatencyP99Micros();
+
+    long getLockWaitCount();
+
+    double getLockWaitTotalMillis();
+
+    double getLockWaitP99Micros();
+
+    /** @return the hit ratio of the compressed second tier, or 0 without one */
+    double getSecondTierHitRatio();
+
+    /** @return the bytes the compressed second tier saves over uncompressed pages, or 0 without one */
+    long getSecondTierSavedBytes();
+
+    /** Set every counter back to zero. */
+    void resetMetrics();
+}
@@ -0,0 +1,224 @@
+package simpledb.storage;
+
+import simpledb.common.LatencyHistogram;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BufferPoolMetrics collects the counters of one {@link BufferPool}: page
+ * requests per table, evictions, eviction failures and the latency of
+ * page flushes and writes. Counters are updated lock-free from the pool's
+ * hot paths; {@link #snapshot} copies them, together with the pool's
+ * current dirty and resident page counts and the lock manager's wait
+ * times, into an immutable {@link Snapshot}.
+ * <p>
+ * The same numbers are exported over JMX by {@link BufferPoolMonitor}.
+ *
+ * @Threadsafe
+ */
+public class BufferPoolMetrics {
+
+    private static final class TableCounters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+    }
+
+    private final BufferPool bufferPool;
+    private final ConcurrentHashMap<Integer, TableCounters> tables = new ConcurrentHashMap<>();
+    private final LongAdder prefetches = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder noCleanPageFailures = new LongAdder();
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    BufferPoolMetrics(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    private TableCounters table(int tableId) {
+        TableCounters c = tables.get(tableId);
+        return c != null ? c : tables.computeIfAbsent(tableId, k -> new TableCounters());
+    }
+
+    /** A requested page was resident. */
+    void hit(int tableId) {
+        table(tableId).hits.increment();
+    }
+
+    /** A requested page had to be read from disk. */
+    void miss(int tableId) {
+        table(tableId).misses.increment();
+    }
+
+    /** A page was read ahead of any request for it. */
+    void prefetched() {
+        prefetches.increment();
+    }
+
+    void evicted() {
+        evictions.increment();
+    }
+
+    /** No page could be evicted because every candidate was dirty. */
+    void noCleanPage() {
+        noCleanPageFailures.increment();
+    }
+
+    /** A batch of pages was logged and written, taking the given time. */
+    void flushed(long nanos) {
+        flushLatency.record(nanos);
+    }
+
+    /** One page, or a group of pages of one file, was written, taking the given time. */
+    void written(long nanos) {
+        writeLatency.record(nanos);
+    }
+
+    /** Set every counter back to zero, including the lock manager's wait times. */
+    public void reset() {
+        tables.clear();
+        prefetches.reset();
+        evictions.reset();
+        noCleanPageFailures.reset();
+        flushLatency.reset();
+        writeLatency.reset();
+        bufferPool.lockmanager.getLockWaits().reset();
+    }
+
+    /** @return a copy of the current counters */
+    public Snapshot snapshot() {
+        Map<Integer, Long> hits = new HashMap<>();
+        Map<Integer, Long> misses = new HashMap<>();
+        for (Map.Entry<Integer, TableCounters> e : tables.entrySet()) {
+            hits.put(e.getKey(), e.getValue().hits.sum());
+            misses.put(e.getKey(), e.getValue().misses.sum());
+        }
+        return new Snapshot(hits, misses, prefetches.sum(), evictions.sum(), noCleanPageFailures.sum(),
+                flushLatency.snapshot(), writeLatency.snapshot(), bufferPool.lockmanager.getLockWaits().snapshot(),
+                bufferPool.getDirtyPageCount(), bufferPool.store_cache.size(), bufferPool.getTotalPages());
+    }
+
+    /** An immutable copy of the counters of a BufferPool at one point in time. */
+    public static final class Snapshot {
+        private final Map<Integer, Long> tableHits;
+        private final Map<Integer, Long> tableMisses;
+        private final long hits;
+        private final long misses;
+        private final long prefetches;
+        private final long evictions;
+        private final long noCleanPageFailures;
+        private final LatencyHistogram.Snapshot flushLatency;
+        private final LatencyHistogram.Snapshot writeLatency;
+        private final LatencyHistogram.Snapshot lockWaits;
+        private final int dirtyPages;
+        private final int residentPages;
+        private final int capacity;
+
+        Snapshot(Map<Integer, Long> tableHits, Map<Integer, Long> tableMisses, long prefetches, long evictions,
+                 long noCleanPageFailures, LatencyHistogram.Snapshot flushLatency,
+                 LatencyHistogram.Snapshot writeLatency, LatencyHistogram.Snapshot lockWaits,
+                 int dirtyPages, int residentPages, int capacity) {
+            this.tableHits = Collections.unmodifiableMap(tableHits);
+            this.tableMisses = Collections.unmodifiableMap(tableMisses);
+            this.hits = tableHits.values().stream().mapToLong(Long::longValue).sum();
+            this.misses = tableMisses.values().stream().mapToLong(Long::longValue).sum();
+            this.prefetches = prefetches;
+            this.evictions = evictions;
+            this.noCleanPageFailures = noCleanPageFailures;
+            this.flushLatency = flushLatency;
+            this.writeLatency = writeLatency;
+            this.lockWaits = lockWaits;
+            this.dirtyPages = dirtyPages;
+            this.residentPages = residentPages;
+            this.capacity = capacity;
+        }
+
+        /** @return the number of page requests that found the page resident */
+        public long getHits() {
+            return hits;
+        }
+
+        /** @return the number of page requests that read the page from disk */
+        public long getMisses() {
+            return misses;
+        }
+
+        /** @return hits over all page requests, or 0 if there were none */
+        public double getHitRatio() {
+            return ratio(hits, misses);
+        }
+
+        /** @return hits per table id, for tables that had any page requests */
+        public Map<Integer, Long> getTableHits() {
+            return tableHits;
+        }
+
+        /** @return misses per table id, for tables that had any page requests */
+        public Map<Integer, Long> getTableMisses() {
+            return tableMisses;
+        }
+
+        /** @return the hit ratio of the given table, or 0 if it had no page requests */
+        public double getHitRatio(int tableId) {
+            return ratio(tableHits.getOrDefault(tableId, 0L), tableMisses.getOrDefault(tableId, 0L));
+        }
+
+        /** @return the number of pages read by read-ahead */
+        public long getPrefetches() {
+            return prefetches;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /** @return the number of times a page could not be brought in because every page was dirty */
+        public long getNoCleanPageFailures() {
+            return noCleanPageFailures;
+        }
+
+        /** @return the time taken by each flush: logging, forcing the log and writing its pages */
+        public LatencyHistogram.Snapshot getFlushLatency() {
+            return flushLatency;
+        }
+
+        /** @return the time taken by each write of a page or of a group of pages */
+        public LatencyHistogram.Snapshot getWriteLatency() {
+            return writeLatency;
+        }
+
+        /** @return the time page requests spent waiting for locks */
+        public LatencyHistogram.Snapshot getLockWaits() {
+            return lockWaits;
+        }
+
+        public int getDirtyPages() {
+            return dirtyPages;
+        }
+
+        public int getResidentPages() {
+            return residentPages;
+        }
+
+        /** @return the number of pages all pools of the BufferPool may hold */
+        public int getCapacity() {
+            return capacity;
+        }
+
+        private static double ratio(long hits, long misses) {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d hitRatio=%.3f evictions=%d noCleanPage=%d dirty=%d/%d/%d"
+                    + "%n  flush: %s%n  write: %s%n  lock wait: %s", hits, misses, getHitRatio(), evictions,
+                    noCleanPageFailures, dirtyPages, residentPages, capacity, flushLatency, writeLatency, lockWaits);
+        }
+    }
+}
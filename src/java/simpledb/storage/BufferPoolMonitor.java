@@ -0,0 +1,156 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * BufferPoolMonitor exports the metrics of the database's BufferPool over
+ * JMX. It always reports on the current {@link Database#getBufferPool()},
+ * so it keeps working when the pool is replaced.
+ *
+ * @see BufferPoolMetrics
+ */
+public class BufferPoolMonitor implements BufferPoolMXBean {
+
+    public static final String OBJECT_NAME = "simpledb:type=BufferPool";
+
+    /**
+     * Register a monitor with the platform MBean server, unless one is
+     * registered already.
+     */
+    public static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new BufferPoolMonitor(), name);
+            }
+        } catch (JMException | SecurityException e) {
+            // monitoring is optional
+            e.printStackTrace();
+        }
+    }
+
+    private static BufferPoolMetrics.Snapshot snapshot() {
+        return Database.getBufferPool().getMetrics().snapshot();
+    }
+
+    private static String tableName(int tableId) {
+        try {
+            return Database.getCatalog().getTableName(tableId);
+        } catch (NoSuchElementException e) {
+            return Integer.toString(tableId);
+        }
+    }
+
+    public long getHits() {
+        return snapshot().getHits();
+    }
+
+    public long getMisses() {
+        return snapshot().getMisses();
+    }
+
+    public double getHitRatio() {
+        return snapshot().getHitRatio();
+    }
+
+    public Map<String, Double> getTableHitRatios() {
+        BufferPoolMetrics.Snapshot s = snapshot();
+        Map<String, Double> ratios = new HashMap<>();
+        for (Integer tableId : s.getTableHits().keySet()) {
+            ratios.put(tableName(tableId), s.getHitRatio(tableId));
+        }
+        return ratios;
+    }
+
+    public Map<String, Long> getTableMisses() {
+        Map<String, Long> misses = new HashMap<>();
+        for (Map.Entry<Integer, Long> e : snapshot().getTableMisses().entrySet()) {
+            misses.put(tableName(e.getKey()), e.getValue());
+        }
+        return misses;
+    }
+
+    public long getPrefetches() {
+        return snapshot().getPrefetches();
+    }
+
+    public long getEvictions() {
+        return snapshot().getEvictions();
+    }
+
+    public long getNoCleanPageFailures() {
+        return snapshot().getNoCleanPageFailures();
+    }
+
+    public int getDirtyPages() {
+        return Database.getBufferPool().getDirtyPageCount();
+    }
+
+    public int getResidentPages() {
+        return snapshot().getResidentPages();
+    }
+
+    public int getCapacity() {
+        return snapshot().getCapacity();
+    }
+
+    public long getFlushCount() {
+        return snapshot().getFlushLatency().getCount();
+    }
+
+    public double getFlushLatencyMeanMicros() {
+        return snapshot().getFlushLatency().getMeanNanos() / 1000;
+    }
+
+    public double getFlushLatencyP99Micros() {
+        return snapshot().getFlushLatency().getPercentileNanos(0.99) / 1000.0;
+    }
+
+    public long getWriteCount() {
+        return snapshot().getWriteLatency().getCount();
+    }
+
+    public double getWriteLatencyMeanMicros() {
+        return snapshot().getWriteLatency().getMeanNanos() / 1000;
+    }
+
+    public double getWriteLatencyP99Micros() {
+        return snapshot().getWriteLatency().getPercentileNanos(0.99) / 1000.0;
+    }
+
+    public long getLockWaitCount() {
+        return snapshot().getLockWaits().getCount();
+    }
+
+    public double getLockWaitTotalMillis() {
+        return snapshot().getLockWaits().getTotalNanos() / 1e6;
+    }
+
+    public double getLockWaitP99Micros() {
+        return snapshot().getLockWaits().getPercentileNanos(0.99) / 1000.0;
+    }
+
+    public double getSecondTierHitRatio() {
+        CompressedPageCache tier = Database.getBufferPool().getSecondTier();
+        return tier == null ? 0 : tier.getHitRatio();
+    }
+
+    public long getSecondTierSavedBytes() {
+        CompressedPageCache tier = Database.getBufferPool().getSecondTier();
+        return tier == null ? 0 : tier.getSavedBytes();
+    }
+
+    public void resetMetrics() {
+        Database.getBufferPool().getMetrics().reset();
+    }
+}
@@ -0,0 +1,141 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * BufferRing is the access strategy of one large sequential scan: a small
+ * private ring of pages that the scan's pages are read into instead of the
+ * BufferPool. Once the ring is full, the oldest page in it is recycled for
+ * the next one, so a scan over a table much larger than the pool reads
+ * through a few pages of memory and leaves the pages cached for other
+ * transactions resident.
+ * <p>
+ * A scan only uses the ring for pages that are not resident already;
+ * resident pages, and any page it is about to modify, still come from the
+ * pool (see {@link BufferPool#getPage(simpledb.transaction.TransactionId,
+ * PageId, simpledb.common.Permissions, BufferRing)}). The scan holds a
+ * shared lock on each page before reading it, so a page read into the
+ * ring cannot change while the scan uses it.
+ * <p>
+ * Read-ahead may fill the ring before the scan locks a page. Such a copy
+ * is only used if the pool wrote no page to disk since it was read;
+ * otherwise the page is read again.
+ *
+ * @see BufferPool#newScanRing
+ * @Threadsafe
+ */
+public class BufferRing {
+
+    private static final class Slot {
+        final Page page;
+        final long writeStamp;
+        final boolean prefetched;
+
+        Slot(Page page, long writeStamp, boolean prefetched) {
+            this.page = page;
+            this.writeStamp = writeStamp;
+            this.prefetched = prefetched;
+        }
+    }
+
+    private final BufferPool bufferPool;
+    private final int capacity;
+    private final LinkedHashMap<PageId, Slot> slots = new LinkedHashMap<>(); // protected by this, oldest first
+    private long reads = 0; // protected by this
+    private long prefetchHits = 0; // protected by this
+    private long recycled = 0; // protected by this
+
+    BufferRing(BufferPool bufferPool, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("a ring needs at least one page");
+        }
+        this.bufferPool = bufferPool;
+        this.capacity = capacity;
+    }
+
+    /** @return the number of pages the ring holds at most */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** @return the number of pages read into the ring from disk */
+    public synchronized long getReadCount() {
+        return reads;
+    }
+
+    /** @return the number of pages the scan found already read ahead */
+    public synchronized long getPrefetchHitCount() {
+        return prefetchHits;
+    }
+
+    /** @return the number of pages pushed out of the ring to make room */
+    public synchronized long getRecycledCount() {
+        return recycled;
+    }
+
+    /** @return the number of pages currently in the ring */
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     * Return the ring's copy of a page for a scan that holds a lock on it,
+     * reading it from its file if the ring has no valid copy.
+     */
+    Page getPage(DbFile file, PageId pid) {
+        synchronized (this) {
+            Slot slot = slots.get(pid);
+            if (slot != null) {
+                if (slot.writeStamp == bufferPool.getWriteStamp()) {
+                    bufferPool.getMetrics().hit(pid.getTableId());
+                    if (slot.prefetched) {
+                        prefetchHits++;
+                        slots.put(pid, new Slot(slot.page, slot.writeStamp, false));
+                    }
+                    return slot.page;
+                }
+                slots.remove(pid);
+            }
+        }
+        long stamp = bufferPool.getWriteStamp();
+        Page pg = file.readPage(pid);
+        add(pid, new Slot(pg, stamp, false));
+        bufferPool.getMetrics().miss(pid.getTableId());
+        return pg;
+    }
+
+    /**
+     * Read a page into the ring ahead of the scan, without any lock. Used by
+     * read-ahead.
+     *
+     * @return true if the page was read from disk
+     */
+    boolean prefetch(DbFile file, PageId pid) {
+        synchronized (this) {
+            if (slots.containsKey(pid)) {
+                return false;
+            }
+        }
+        if (bufferPool.isResident(pid)) {
+            return false;
+        }
+        long stamp = bufferPool.getWriteStamp();
+        add(pid, new Slot(file.readPage(pid), stamp, true));
+        bufferPool.getMetrics().prefetched();
+        return true;
+    }
+
+    private synchronized void add(PageId pid, Slot slot) {
+        reads++;
+        slots.remove(pid);
+        while (slots.size() >= capacity) {
+            Iterator<Map.Entry<PageId, Slot>> oldest = slots.entrySet().iterator();
+            oldest.next();
+            oldest.remove();
+            recycled++;
+        }
+        slots.put(pid, slot);
+    }
+}
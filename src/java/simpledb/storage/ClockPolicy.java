@@ -0,0 +1,93 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit in a circular list
+ * with one reference bit each; a hit only sets the bit, so it never has to
+ * take the policy's monitor. To pick a victim the hand sweeps the circle,
+ * clearing set bits, and stops at the first evictable page whose bit was
+ * already clear.
+ */
+public class ClockPolicy extends AbstractReplacementPolicy {
+
+    private final ConcurrentHashMap<PageId, AtomicBoolean> referenced;
+    private final ArrayList<PageId> ring; // protected by this
+    private final HashMap<PageId, Integer> slots; // protected by this
+    private final ArrayDeque<Integer> freeSlots; // protected by this
+    private int hand = 0; // protected by this
+
+    public ClockPolicy() {
+        referenced = new ConcurrentHashMap<>();
+        ring = new ArrayList<>();
+        slots = new HashMap<>();
+        freeSlots = new ArrayDeque<>();
+    }
+
+    protected void onAccess(PageId pid) {
+        AtomicBoolean ref = referenced.get(pid);
+        if (ref != null) {
+            ref.set(true);
+        }
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (slots.containsKey(pid)) {
+            onAccess(pid);
+            return;
+        }
+        Integer slot = freeSlots.poll();
+        if (slot == null) {
+            slot = ring.size();
+            ring.add(pid);
+        } else {
+            ring.set(slot, pid);
+        }
+        slots.put(pid, slot);
+        // a page that is touched only once should be the first to go
+        referenced.put(pid, new AtomicBoolean(false));
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer slot = slots.remove(pid);
+        if (slot == null) {
+            return;
+        }
+        ring.set(slot, null);
+        freeSlots.push(slot);
+        referenced.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        int n = ring.size();
+        if (n == 0) {
+            return null;
+        }
+        // two full turns clear every bit, so an evictable page is found
+        // unless hits keep setting the bits behind the hand
+        for (int step = 0; step < 2 * n; step++) {
+            PageId pid = ring.get(hand);
+            hand = (hand + 1) % n;
+            if (pid == null) {
+                continue;
+            }
+            if (referenced.get(pid).getAndSet(false)) {
+                continue;
+            }
+            if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        for (PageId pid : ring) {
+            if (pid != null && evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,238 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedPageCache is an optional second tier behind a BufferPool: it
+ * keeps clean pages the pool evicts, deflated, so that a working set
+ * somewhat larger than the pool is served from memory instead of disk.
+ * The page data of most tables compresses well, since empty slots are
+ * zeroed and the header bitmap is mostly ones or zeroes.
+ * <p>
+ * The tier holds only pages that are not resident in the pool: a page
+ * leaves it when it is read back into the pool, and when the pool
+ * discards it. It is limited to a number of compressed bytes and drops
+ * its least recently stored pages beyond that. Compressed pages are kept
+ * in byte arrays on the heap or, if asked to, in direct buffers off it.
+ * <p>
+ * Only HeapFile pages are cached, since they can be rebuilt from their
+ * bytes alone.
+ *
+ * @see BufferPool#setSecondTier
+ * @Threadsafe
+ */
+public class CompressedPageCache {
+
+    private final long maxBytes;
+    private final boolean offHeap;
+    private final LinkedHashMap<PageId, Object> pages = new LinkedHashMap<>(); // protected by this, oldest first
+    private long compressedBytes = 0; // protected by this
+    private long hits = 0; // protected by this
+    private long misses = 0; // protected by this
+    private long stored = 0; // protected by this
+    private long dropped = 0; // protected by this
+
+    /**
+     * Create a tier that holds up to maxBytes of compressed pages.
+     *
+     * @param maxBytes the most compressed bytes to keep
+     * @param offHeap  keep the compressed pages in direct buffers instead of
+     *                 on the heap
+     */
+    public CompressedPageCache(long maxBytes, boolean offHeap) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("a compressed cache needs a positive size");
+        }
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+    }
+
+    /** @return true if this page can be kept in the tier */
+    static boolean accepts(PageId pid) {
+        return pid instanceof HeapPageId;
+    }
+
+    /**
+     * Keep the data of a clean page that is leaving the pool, replacing any
+     * older copy.
+     */
+    void put(PageId pid, byte[] data) {
+        byte[] compressed = deflate(data);
+        Object copy;
+        if (offHeap) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(compressed.length);
+            buf.put(compressed);
+            copy = buf;
+        } else {
+            copy = compressed;
+        }
+        synchronized (this) {
+            Object old = pages.remove(pid);
+            if (old != null) {
+                compressedBytes -= sizeOf(old);
+            }
+            pages.put(pid, copy);
+            compressedBytes += compressed.length;
+            stored++;
+            Iterator<Map.Entry<PageId, Object>> oldest = pages.entrySet().iterator();
+            while (compressedBytes > maxBytes && oldest.hasNext()) {
+                compressedBytes -= sizeOf(oldest.next().getValue());
+                oldest.remove();
+                dropped++;
+            }
+        }
+    }
+
+    /**
+     * Take a page out of the tier, for a pool miss.
+     *
+     * @return the page, or null if the tier does not hold it
+     */
+    Page take(PageId pid) {
+        Object copy;
+        synchronized (this) {
+            copy = pages.remove(pid);
+            if (copy == null) {
+                misses++;
+                return null;
+            }
+            compressedBytes -= sizeOf(copy);
+            hits++;
+        }
+        byte[] compressed;
+        if (copy instanceof ByteBuffer) {
+            ByteBuffer buf = ((ByteBuffer) copy).duplicate();
+            buf.clear();
+            compressed = new byte[buf.remaining()];
+            buf.get(compressed);
+        } else {
+            compressed = (byte[]) copy;
+        }
+        try {
+            return new HeapPage((HeapPageId) pid, inflate(compressed));
+        } catch (IOException e) {
+            throw new RuntimeException("could not rebuild page " + pid, e);
+        }
+    }
+
+    /** Forget a page, whose copy may no longer match the disk. */
+    synchronized void remove(PageId pid) {
+        Object old = pages.remove(pid);
+        if (old != null) {
+            compressedBytes -= sizeOf(old);
+        }
+    }
+
+    private static int sizeOf(Object copy) {
+        return copy instanceof ByteBuffer ? ((ByteBuffer) copy).capacity() : ((byte[]) copy).length;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] out = new byte[data.length + 64];
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == out.length) {
+                    byte[] bigger = new byte[out.length * 2];
+                    System.arraycopy(out, 0, bigger, 0, n);
+                    out = bigger;
+                }
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            byte[] exact = new byte[n];
+            System.arraycopy(out, 0, exact, 0, n);
+            return exact;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] data = new byte[BufferPool.getPageSize()];
+            int n = 0;
+            while (n < data.length && !inflater.finished()) {
+                n += inflater.inflate(data, n, data.length - n);
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("corrupt compressed page", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** @return the most compressed bytes the tier keeps */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** @return true if compressed pages are kept off the heap */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /** @return the number of pages in the tier */
+    public synchronized int size() {
+        return pages.size();
+    }
+
+    /** @return the compressed bytes the tier holds */
+    public synchronized long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    /** @return the bytes the pages in the tier would take uncompressed */
+    public synchronized long getUncompressedBytes() {
+        return (long) pages.size() * BufferPool.getPageSize();
+    }
+
+    /** @return the bytes saved by keeping the tier's pages compressed */
+    public synchronized long getSavedBytes() {
+        return getUncompressedBytes() - compressedBytes;
+    }
+
+    /** @return the number of pool misses served by the tier */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return the number of pool misses the tier could not serve */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** @return hits over all lookups, or 0 if there were none */
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /** @return the number of pages stored since the tier was created */
+    public synchronized long getStoredCount() {
+        return stored;
+    }
+
+    /** @return the number of pages dropped to stay within the size limit */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("pages=%d compressed=%d saved=%d hits=%d misses=%d hitRatio=%.3f",
+                pages.size(), compressedBytes, getSavedBytes(), hits, misses, getHitRatio());
+    }
+}
@@ -24,6 +24,23 @@ public interface DbFile {
      */
     Page readPage(PageId id);
 
+    /**
+     * Read the specified pages from disk. Implementations may coalesce
+     * pages that are adjacent on disk into a single read; the default reads
+     * them one at a time.
+     *
+     * @param ids the pages to read, all of this file
+     * @return the pages, in the order of ids
+     * @throws IllegalArgumentException if a page does not exist in this file.
+     */
+    default List<Page> readPages(List<PageId> ids) {
+        List<Page> pages = new ArrayList<>(ids.size());
+        for (PageId id : ids) {
+            pages.add(readPage(id));
+        }
+        return pages;
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -33,6 +50,20 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push the specified pages to disk. Implementations may coalesce pages
+     * that are adjacent on disk into a single write; the default writes them
+     * one at a time.
+     *
+     * @param pages The pages to write, all of this file.
+     * @throws IOException if the write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -0,0 +1,133 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FrameArena is a fixed set of page-sized frames allocated outside the Java
+ * heap in direct ByteBuffers. A BufferPool with an arena reads HeapFile
+ * pages straight into frames, and {@link FrameHeapPage} decodes tuples from
+ * the frame on access instead of keeping them as objects, so a large cache
+ * adds little to the heap or to garbage collection work.
+ * <p>
+ * Frames are carved out of a few large slabs, since one direct buffer is
+ * limited to 2GB. When all frames are in use {@link #allocate} returns null
+ * and the pool falls back to ordinary heap pages.
+ *
+ * @Threadsafe
+ */
+public class FrameArena {
+
+    /** One page-sized frame of the arena. */
+    public static final class Frame {
+        final int index;
+        final ByteBuffer buffer;
+
+        private Frame(int index, ByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+
+        /** @return the frame's memory, positioned at 0 with limit at the frame size */
+        public ByteBuffer buffer() {
+            return buffer.duplicate();
+        }
+    }
+
+    private final int frameSize;
+    private final Frame[] frames;
+    private final ArrayDeque<Frame> free; // protected by this
+    private final BitSet inUse; // protected by this
+    private final AtomicLong allocations = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    /**
+     * Allocate an arena of the given number of frames of
+     * {@link BufferPool#getPageSize()} bytes each.
+     *
+     * @param numFrames the number of frames
+     */
+    public FrameArena(int numFrames) {
+        if (numFrames <= 0) {
+            throw new IllegalArgumentException("an arena needs at least one frame");
+        }
+        this.frameSize = BufferPool.getPageSize();
+        this.frames = new Frame[numFrames];
+        this.free = new ArrayDeque<>(numFrames);
+        this.inUse = new BitSet(numFrames);
+
+        int framesPerSlab = Integer.MAX_VALUE / frameSize;
+        ByteBuffer slab = null;
+        for (int i = 0; i < numFrames; i++) {
+            int slot = i % framesPerSlab;
+            if (slot == 0) {
+                int slabFrames = Math.min(framesPerSlab, numFrames - i);
+                slab = ByteBuffer.allocateDirect(slabFrames * frameSize);
+            }
+            slab.limit((slot + 1) * frameSize).position(slot * frameSize);
+            frames[i] = new Frame(i, slab.slice());
+            free.add(frames[i]);
+        }
+    }
+
+    /** @return the size of each frame in bytes */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /** @return the number of frames in the arena */
+    public int getCapacity() {
+        return frames.length;
+    }
+
+    /** @return the number of frames not currently holding a page */
+    public synchronized int getAvailable() {
+        return free.size();
+    }
+
+    /** @return the number of frames handed out so far */
+    public long getAllocations() {
+        return allocations.get();
+    }
+
+    /** @return the number of times a frame was asked for while all were in use */
+    public long getExhaustedCount() {
+        return exhausted.get();
+    }
+
+    /**
+     * Take a free frame. Its contents are unspecified.
+     *
+     * @return a frame, or null if all frames are in use
+     */
+    public Frame allocate() {
+        Frame frame;
+        synchronized (this) {
+            frame = free.poll();
+            if (frame != null) {
+                inUse.set(frame.index);
+            }
+        }
+        if (frame == null) {
+            exhausted.incrementAndGet();
+        } else {
+            allocations.incrementAndGet();
+        }
+        return frame;
+    }
+
+    /**
+     * Return a frame to the arena. Nothing may read or write it afterwards.
+     *
+     * @param frame a frame allocated from this arena
+     */
+    public synchronized void free(Frame frame) {
+        if (frames[frame.index] != frame || !inUse.get(frame.index)) {
+            throw new IllegalArgumentException("frame " + frame.index + " is not allocated from this arena");
+        }
+        inUse.clear(frame.index);
+        free.push(frame);
+    }
+}
@@ -0,0 +1,294 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * FrameHeapPage is a HeapPage whose contents stay in their on-disk format in
+ * a {@link FrameArena} frame. Header bits and field values are read straight
+ * from the frame, and Tuples are only built when the page is iterated, so a
+ * cached page keeps no Tuple or Field objects alive.
+ * <p>
+ * When the BufferPool drops the page it calls {@link #releaseFrame}, which
+ * moves the contents into a heap buffer before handing the frame back, so
+ * that iterators and other stray references to an evicted page keep working.
+ * Reads are lock-free: they retry if the page was moved while they read.
+ * Writes and the move itself are serialized on the page.
+ *
+ * @see FrameArena
+ * @see HeapFile#readPage(PageId, FrameArena)
+ */
+public class FrameHeapPage extends HeapPage {
+
+    private final FrameArena arena;
+    private FrameArena.Frame frame; // protected by this; null once released
+    private volatile ByteBuffer buf;
+    private final int headerSize;
+    private final int tupleSize;
+
+    /**
+     * Create a heap-backed FrameHeapPage from a set of bytes of data, in the
+     * format described in {@link HeapPage#HeapPage}. Used by recovery.
+     */
+    public FrameHeapPage(HeapPageId id, byte[] data) {
+        this(id, null, null, ByteBuffer.wrap(data.clone()));
+    }
+
+    /**
+     * Create a page over a frame that already holds its data.
+     *
+     * @param arena the arena the frame belongs to
+     * @param frame the frame, owned by this page from now on
+     */
+    FrameHeapPage(HeapPageId id, FrameArena arena, FrameArena.Frame frame) {
+        this(id, arena, frame, frame.buffer());
+    }
+
+    private FrameHeapPage(HeapPageId id, FrameArena arena, FrameArena.Frame frame, ByteBuffer buf) {
+        super(id);
+        this.arena = arena;
+        this.frame = frame;
+        this.buf = buf;
+        this.headerSize = getHeaderSize();
+        this.tupleSize = td.getSize();
+    }
+
+    /** @return true while the page contents are in an arena frame */
+    public synchronized boolean isInFrame() {
+        return frame != null;
+    }
+
+    /**
+     * Move the contents to the heap and return the frame to its arena.
+     * Called by the BufferPool when it drops the page.
+     */
+    synchronized void releaseFrame() {
+        if (frame == null) {
+            return;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(buf.capacity());
+        ByteBuffer src = buf.duplicate();
+        src.clear();
+        copy.put(src);
+        copy.clear();
+        buf = copy;
+        arena.free(frame);
+        frame = null;
+    }
+
+    private interface Read<T> {
+        T apply(ByteBuffer b);
+    }
+
+    // thrown by a read that found bytes no page could hold: the frame was
+    // freed and reused while it was read
+    private static class Torn extends RuntimeException {
+        Torn(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    // run a read against the current buffer, again if the page moved meanwhile
+    private <T> T read(Read<T> r) {
+        while (true) {
+            ByteBuffer b = buf;
+            T result;
+            try {
+                result = r.apply(b);
+            } catch (Torn e) {
+                if (b == buf) {
+                    throw new IllegalStateException("corrupt page " + pid + ": " + e.getMessage());
+                }
+                continue;
+            }
+            if (b == buf) {
+                return result;
+            }
+        }
+    }
+
+    private static boolean slotUsed(ByteBuffer b, int i) {
+        return ((b.get(i / 8) >> (i % 8)) & 1) != 0;
+    }
+
+    private int slotOffset(int slot) {
+        return headerSize + slot * tupleSize;
+    }
+
+    private static Field readField(ByteBuffer b, int offset, Type type) {
+        switch (type) {
+        case INT_TYPE:
+            return new IntField(b.getInt(offset));
+        case STRING_TYPE:
+            int strLen = b.getInt(offset);
+            if (strLen < 0 || strLen > Type.STRING_LEN) {
+                throw new Torn("string length " + strLen);
+            }
+            byte[] bs = new byte[strLen];
+            for (int i = 0; i < strLen; i++) {
+                bs[i] = b.get(offset + 4 + i);
+            }
+            return new StringField(new String(bs), Type.STRING_LEN);
+        default:
+            throw new UnsupportedOperationException("unknown type " + type);
+        }
+    }
+
+    private Tuple readTuple(ByteBuffer b, int slot) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        int offset = slotOffset(slot);
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            t.setField(j, readField(b, offset, type));
+            offset += type.getLen();
+        }
+        return t;
+    }
+
+    public boolean isSlotUsed(int i) {
+        return read(b -> slotUsed(b, i));
+    }
+
+    public int getNumEmptySlots() {
+        return read(b -> {
+            int count = 0;
+            for (int i = 0; i < numSlots; i++) {
+                if (!slotUsed(b, i)) {
+                    count++;
+                }
+            }
+            return count;
+        });
+    }
+
+    public Iterator<Tuple> iterator() {
+        return read(b -> {
+            List<Tuple> tuples = new ArrayList<>();
+            for (int i = 0; i < numSlots; i++) {
+                if (slotUsed(b, i)) {
+                    tuples.add(readTuple(b, i));
+                }
+            }
+            return tuples;
+        }).iterator();
+    }
+
+    public byte[] getPageData() {
+        return read(b -> {
+            byte[] data = new byte[b.capacity()];
+            ByteBuffer src = b.duplicate();
+            src.clear();
+            src.get(data);
+            return data;
+        });
+    }
+
+    // keep the committed contents before the first change since the last commit
+    private void beforeModify() {
+        if (oldData == null) {
+            oldData = getPageData();
+        }
+    }
+
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        ByteBuffer b = buf;
+        for (int j = 0; j < numSlots; j++) {
+            if (!slotUsed(b, j)) {
+                insertTuple(t, j);
+                return;
+            }
+        }
+        throw new DbException("Insert Failure: page full (no empty slots)");
+    }
+
+    public synchronized void insertTuple(Tuple t, int slot) throws DbException {
+        if (!t.getTupleDesc().equals(td)) throw new DbException("Insert Failure: tupledesc mismatch");
+        ByteBuffer b = buf;
+        if (slot < 0 || slot >= numSlots || slotUsed(b, slot)) throw new DbException("Insert Failure: slot " + slot + " not empty");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.getField(j).serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("Insert Failure: " + e.getMessage());
+        }
+
+        beforeModify();
+        ByteBuffer dst = b.duplicate();
+        dst.position(slotOffset(slot));
+        dst.put(baos.toByteArray(), 0, tupleSize);
+        b.put(slot / 8, (byte) (b.get(slot / 8) | (1 << (slot % 8))));
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+
+        if(rid == null) throw new DbException("Delete Failure: tuple slot already deleted");
+        if(!rid.getPageId().equals(pid)) throw new DbException("Delete Failure: tuple not on page");
+
+        int slot = rid.getTupleNumber();
+        ByteBuffer b = buf;
+        if(!slotUsed(b, slot)) throw new DbException("Delete Failure: Empty tuple slot");
+
+        beforeModify();
+        b.put(slot / 8, (byte) (b.get(slot / 8) & ~(1 << (slot % 8))));
+        // empty slots are all zeroes, as in HeapPage.getPageData
+        int offset = slotOffset(slot);
+        for (int i = 0; i < tupleSize; i++) {
+            b.put(offset + i, (byte) 0);
+        }
+    }
+
+    public HeapPage getBeforeImage() {
+        byte[] before;
+        synchronized (this) {
+            // copied under the page monitor so a concurrent write cannot tear it
+            before = oldData != null ? oldData : getPageData();
+        }
+        try {
+            return new HeapPage(pid, before);
+        } catch (IOException e) {
+            e.printStackTrace();
+            // should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public synchronized void setBeforeImage() {
+        // the current contents are the before image until the next change
+        oldData = null;
+    }
+
+    synchronized void setBeforeImage(byte[] data) {
+        oldData = data.clone();
+    }
+
+    public long getRetainedSize() {
+        long size = SizeOf.object(10 * SizeOf.REFERENCE + 3 * 4)
+                + SizeOf.object(6 * 4 + SizeOf.REFERENCE + 8); // the ByteBuffer object
+        ByteBuffer b = buf;
+        if (!b.isDirect()) {
+            size += SizeOf.byteArray(b.capacity());
+        }
+        byte[] before = oldData;
+        if (before != null) {
+            size += SizeOf.byteArray(before.length);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,220 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GroupCommit is a background thread that writes the COMMIT records of
+ * several transactions to a LogFile at once, so that they share a single
+ * write and a single force of the log.
+ * <p>
+ * While the thread is running, {@link LogFile#logCommit} hands its
+ * transaction to {@link #commit} and blocks until the flusher has forced
+ * a batch holding its record. The flusher takes every commit that is
+ * pending when it wakes up; commits that arrive while a batch is being
+ * forced go into the next one. A max delay makes the flusher wait a
+ * little after the first pending commit, so that more may join the batch
+ * even when the log is idle; by default it does not wait.
+ * <p>
+ * The thread is not started by default; call {@link #start()}. When it is
+ * not running, logCommit writes and forces each record itself.
+ *
+ * @Threadsafe
+ */
+public class GroupCommit implements Runnable {
+
+    public static final long DEFAULT_MAX_DELAY_MICROS = 0;
+
+    private final LogFile log;
+    private volatile long maxDelayMicros = DEFAULT_MAX_DELAY_MICROS;
+
+    private Thread thread; // protected by this
+    private List<Pending> pending = new ArrayList<>(); // protected by this
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    /** A commit waiting for the flusher. */
+    private static class Pending {
+        final TransactionId tid;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(TransactionId tid) {
+            this.tid = tid;
+        }
+    }
+
+    GroupCommit(LogFile log) {
+        this.log = log;
+    }
+
+    /**
+     * Set how long the flusher waits after the first pending commit before
+     * it writes the batch.
+     */
+    public void setMaxDelay(long micros) {
+        if (micros < 0) {
+            throw new IllegalArgumentException("delay must not be negative");
+        }
+        this.maxDelayMicros = micros;
+    }
+
+    public long getMaxDelay() {
+        return maxDelayMicros;
+    }
+
+    /** @return the number of COMMIT records written by the flusher so far */
+    public long getCommitCount() {
+        return commits.get();
+    }
+
+    /** @return the number of batches, and so of log forces, so far */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /** Start the background thread, if it is not running already. */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this, "simpledb-group-commit");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the background thread and wait for it to exit. Commits that are
+     * already pending are written first.
+     */
+    public void shutdown() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            thread = null;
+            notifyAll();
+        }
+        if (t != null) {
+            t.join();
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    /**
+     * Queue a COMMIT record for tid and wait until the log holding it has
+     * been forced to disk.
+     *
+     * @return false if the thread is not running, in which case nothing was
+     *         written and the caller must log the commit itself
+     * @throws IOException if the batch holding the record could not be written
+     */
+    boolean commit(TransactionId tid) throws IOException {
+        Pending p = new Pending(tid);
+        synchronized (this) {
+            if (thread == null) {
+                return false;
+            }
+            pending.add(p);
+            notifyAll();
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    p.done.get();
+                    return true;
+                } catch (InterruptedException e) {
+                    // the record is queued already, so the commit has to be waited out
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw new IOException(cause.getMessage(), cause);
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Wait for pending commits and take them as a batch.
+     *
+     * @return the batch, or null once the thread has been shut down and
+     *         nothing is left to write
+     */
+    private synchronized List<Pending> nextBatch() throws InterruptedException {
+        while (pending.isEmpty()) {
+            if (thread != Thread.currentThread()) {
+                return null;
+            }
+            wait();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        long left;
+        while (thread == Thread.currentThread() && (left = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        List<Pending> batch = pending;
+        pending = new ArrayList<>();
+        return batch;
+    }
+
+    public void run() {
+        while (true) {
+            List<Pending> batch;
+            try {
+                batch = nextBatch();
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    if (thread == Thread.currentThread()) {
+                        thread = null;
+                    }
+                    batch = pending;
+                    pending = new ArrayList<>();
+                }
+                write(batch);
+                return;
+            }
+            if (batch == null) {
+                return;
+            }
+            write(batch);
+        }
+    }
+
+    private void write(List<Pending> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<TransactionId> tids = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            tids.add(p.tid);
+        }
+        try {
+            log.logCommits(tids);
+            commits.addAndGet(tids.size());
+            batches.incrementAndGet();
+            for (Pending p : batch) {
+                p.done.complete(null);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Pending p : batch) {
+                p.done.completeExceptionally(e);
+            }
+        }
+    }
+}
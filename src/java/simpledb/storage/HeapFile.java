@@ -5,7 +5,9 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -14,6 +16,12 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * When the BufferPool has row locking on, insertTuple and deleteTuple lock
+ * the record they change, under an intention lock on its page, instead
+ * of the whole page. They report the change to the BufferPool while still
+ * holding the page's monitor, so that the pool never sees a record change
+ * it does not know about.
  *
  * @see HeapPage#HeapPage
  * @author Sam Madden
@@ -87,24 +95,189 @@ public class HeapFile implements DbFile {
                 return page;
             }
 
-            int offset = pid.getPageNumber()*BufferPool.getPageSize();
-            byte[] data = Files.readAllBytes(f.toPath());
-            data = Arrays.copyOfRange(data,offset,offset+BufferPool.getPageSize());
+            // read just this page; a short last page is padded with zeroes
+            byte[] data = new byte[BufferPool.getPageSize()];
+            try (RandomAccessFile file = new RandomAccessFile(f, "r")) {
+                file.seek((long) pid.getPageNumber() * BufferPool.getPageSize());
+                int read = 0;
+                while (read < data.length) {
+                    int n = file.read(data, read, data.length - read);
+                    if (n < 0) {
+                        break;
+                    }
+                    read += n;
+                }
+            }
             return new HeapPage((HeapPageId) pid, data);
         } catch (IOException e) {
             throw new IllegalArgumentException("This page files doesnt exist");
         }
     }
 
+    /**
+     * Read the specified page into a frame of the given arena, without
+     * decoding it. Falls back to {@link #readPage(PageId)} when the arena
+     * has no free frame or the page does not exist yet.
+     *
+     * @param pid   the page to read
+     * @param arena the arena to take the frame from
+     * @return a {@link FrameHeapPage} over the frame, or an ordinary HeapPage
+     */
+    public Page readPage(PageId pid, FrameArena arena) {
+        if (pid.getPageNumber() >= numPages()) {
+            return readPage(pid);
+        }
+        FrameArena.Frame frame = arena.allocate();
+        if (frame == null) {
+            return readPage(pid);
+        }
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer data = frame.buffer();
+            long offset = (long) pid.getPageNumber() * BufferPool.getPageSize();
+            while (data.hasRemaining()) {
+                if (channel.read(data, offset + data.position()) < 0) {
+                    break;
+                }
+            }
+            // a short last page is padded with zeroes
+            while (data.hasRemaining()) {
+                data.put((byte) 0);
+            }
+            return new FrameHeapPage((HeapPageId) pid, arena, frame);
+        } catch (IOException e) {
+            arena.free(frame);
+            throw new IllegalArgumentException("This page files doesnt exist");
+        }
+    }
+
+    /** Most pages read or written by a single call in {@link #readPages} and {@link #writePages}. */
+    private static final int MAX_PAGES_PER_IO = 64;
+
+    /**
+     * Read the specified pages, reading each run of pages that are adjacent
+     * in the file with one call, through a single open of the file. A page
+     * just past the end of the file is created as by {@link #readPage}.
+     */
+    public List<Page> readPages(List<PageId> pids) {
+        return readPages(pids, null);
+    }
+
+    /**
+     * As {@link #readPages(List)}, putting each page read from the file
+     * into a frame of the given arena, as {@link #readPage(PageId, FrameArena)}
+     * does. Pages for which the arena has no free frame are ordinary
+     * HeapPages.
+     *
+     * @param arena the arena to take frames from, or null to read only
+     *              ordinary HeapPages
+     */
+    public List<Page> readPages(List<PageId> pids, FrameArena arena) {
+        int numPages = numPages();
+        TreeSet<Integer> pageNos = new TreeSet<>();
+        Map<Integer, Page> pages = new HashMap<>();
+        for (PageId pid : pids) {
+            if (pid.getPageNumber() > numPages) {
+                throw new IllegalArgumentException("This page files doesnt exist");
+            }
+            if (pid.getPageNumber() == numPages) {
+                pages.put(numPages, readPage(pid));
+            } else {
+                pageNos.add(pid.getPageNumber());
+            }
+        }
+
+        int pageSize = BufferPool.getPageSize();
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            Iterator<Integer> it = pageNos.iterator();
+            int next = it.hasNext() ? it.next() : -1;
+            while (next >= 0) {
+                int first = next;
+                int count = 1;
+                next = -1;
+                while (it.hasNext()) {
+                    int pgNo = it.next();
+                    if (pgNo == first + count && count < MAX_PAGES_PER_IO) {
+                        count++;
+                    } else {
+                        next = pgNo;
+                        break;
+                    }
+                }
+
+                // a short last page is padded with zeroes
+                ByteBuffer run = ByteBuffer.allocate(count * pageSize);
+                long offset = (long) first * pageSize;
+                while (run.hasRemaining() && channel.read(run, offset + run.position()) >= 0) {
+                    // keep reading
+                }
+                byte[] data = run.array();
+                for (int i = 0; i < count; i++) {
+                    HeapPageId pid = new HeapPageId(tableid, first + i);
+                    FrameArena.Frame frame = arena == null ? null : arena.allocate();
+                    if (frame != null) {
+                        frame.buffer().put(data, i * pageSize, pageSize);
+                        pages.put(first + i, new FrameHeapPage(pid, arena, frame));
+                    } else {
+                        byte[] pageData = Arrays.copyOfRange(data, i * pageSize, (i + 1) * pageSize);
+                        pages.put(first + i, new HeapPage(pid, pageData));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            for (Page pg : pages.values()) {
+                if (pg instanceof FrameHeapPage) {
+                    ((FrameHeapPage) pg).releaseFrame();
+                }
+            }
+            throw new IllegalArgumentException("This page files doesnt exist");
+        }
+
+        List<Page> result = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            result.add(pages.get(pid.getPageNumber()));
+        }
+        return result;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        HeapPage p = (HeapPage)page;
-        RandomAccessFile file = new RandomAccessFile(f,"rw");
-        file.seek(BufferPool.getPageSize()*page.getId().getPageNumber());
-        file.write(p.getPageData());
-        file.close();
+        writePages(Collections.singletonList(page));
+    }
+
+    /**
+     * Write the specified pages, writing each run of pages that are adjacent
+     * in the file with one gathering write, through a single open of the
+     * file.
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+        int pageSize = BufferPool.getPageSize();
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            int i = 0;
+            while (i < sorted.size()) {
+                int first = sorted.get(i).getId().getPageNumber();
+                int count = 1;
+                while (i + count < sorted.size() && count < MAX_PAGES_PER_IO
+                        && sorted.get(i + count).getId().getPageNumber() == first + count) {
+                    count++;
+                }
+                ByteBuffer[] run = new ByteBuffer[count];
+                for (int j = 0; j < count; j++) {
+                    run[j] = ByteBuffer.wrap(sorted.get(i + j).getPageData());
+                }
+                long remaining = (long) count * pageSize;
+                // gathering writes go to the channel's position
+                channel.position((long) first * pageSize);
+                while (remaining > 0) {
+                    remaining -= channel.write(run);
+                }
+                i += count;
+            }
+        }
     }
 
     /**
@@ -120,14 +293,20 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        if (Database.getBufferPool().isRowLocking()) {
+            return insertTupleByRecord(tid, t);
+        }
         List<Page> pages = new ArrayList<>();
         for(int i = 0; i<numPages(); i++){
-            HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid,new HeapPageId(tableid,i),Permissions.READ_WRITE);
+            HeapPageId pid = new HeapPageId(tableid,i);
+            // a page this transaction already locked may hold its own changes
+            boolean held = Database.getBufferPool().holdsLock(tid,pid);
+            HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);
             if(page.getNumEmptySlots()>0) {
                 page.insertTuple(t);
                 pages.add(page);
                 return pages;
-            } else {
+            } else if(!held) {
                 Database.getBufferPool().unsafeReleasePage(tid,page.pid);
             }
         }
@@ -137,6 +316,43 @@ public class HeapFile implements DbFile {
         return pages;
     }
 
+    /**
+     * Insert a tuple locking only the record it goes to. Pages that look
+     * full are skipped without a lock. On the others, an empty slot is
+     * taken only if its record lock is free, as a slot emptied by a
+     * running delete must stay free until that delete commits. A page
+     * where no slot could be taken is let go again, unless the transaction
+     * held a lock on it before.
+     */
+    private List<Page> insertTupleByRecord(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        LockManager lm = bp.getLockManager();
+        for (int i = 0; i <= numPages(); i++) {
+            HeapPageId pid = new HeapPageId(tableid, i);
+            if (i < numPages() && ((HeapPage) bp.peekPage(pid)).getNumEmptySlots() == 0) {
+                continue;
+            }
+            boolean held = bp.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) bp.getPageForUpdate(tid, pid);
+            synchronized (page) {
+                for (int j = 0; j < page.numSlots; j++) {
+                    if (!page.isSlotUsed(j) && lm.tryAcquireRecordLock(tid, new RecordId(pid, j), Permissions.READ_WRITE)) {
+                        page.insertTuple(t, j);
+                        bp.rowChanged(tid, true, t.getRecordId(), t);
+                        List<Page> pages = new ArrayList<>();
+                        pages.add(page);
+                        return pages;
+                    }
+                }
+            }
+            if (!held) {
+                bp.unsafeReleasePage(tid, pid);
+            }
+        }
+        throw new DbException("Insert Failure: no free slot found");
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -145,6 +361,20 @@ public class HeapFile implements DbFile {
         ArrayList<Page> pages = new ArrayList<>();
         RecordId rid = t.getRecordId();
         if(rid==null) throw new DbException("Delete tuple failed: tuple slot has already been deleted");
+        if (Database.getBufferPool().isRowLocking()) {
+            try {
+                Database.getBufferPool().getLockManager().acquireRecordLock(tid, rid, Permissions.READ_WRITE);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            HeapPage page = (HeapPage) Database.getBufferPool().getPageForUpdate(tid, rid.getPageId());
+            synchronized (page) {
+                page.deleteTuple(t);
+                Database.getBufferPool().rowChanged(tid, false, rid, t);
+            }
+            pages.add(page);
+            return pages;
+        }
         HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid,rid.getPageId(),Permissions.READ_WRITE);
         page.deleteTuple(t);
         pages.add(page);
@@ -158,16 +388,26 @@ public class HeapFile implements DbFile {
             private ArrayList<HeapPageId> pageId;
             private Iterator<Tuple> tupleIterator;
             private int pageNo = -1;
+            private ReadAhead.Stream readAhead;
+            private BufferRing ring;
+
+            private HeapPage fetchPage(int pgNo) throws DbException, TransactionAbortedException {
+                readAhead.pageAccessed(pgNo);
+                return (HeapPage) Database.getBufferPool().getPage(tid, pageId.get(pgNo), Permissions.READ_ONLY, ring);
+            }
 
             @Override
             public void open() throws DbException, TransactionAbortedException {
+                // a table larger than the pool is scanned through a ring of its own
+                ring = Database.getBufferPool().newScanRing(tid, HeapFile.this);
+                readAhead = Database.getBufferPool().getReadAhead().newStream(HeapFile.this, ring);
                 pageId =  new ArrayList<>();
                 for(int i=0;i<numPages();i++){
                     pageId.add(new HeapPageId(getId(),i));
                 }
                 while((tupleIterator==null)&&(pageNo<numPages()-1)){
                     pageNo += 1;
-                    HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid,pageId.get(pageNo),Permissions.READ_ONLY);
+                    HeapPage page = fetchPage(pageNo);
                     if(page!=null){
                         tupleIterator = page.iterator();
                     }
@@ -185,7 +425,7 @@ public class HeapFile implements DbFile {
                 int temp_pageNo = pageNo;
                 while((!tupleIterator.hasNext())&&(temp_pageNo<numPages()-1)){
                     temp_pageNo += 1;
-                    HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid,pageId.get(temp_pageNo),Permissions.READ_ONLY);
+                    HeapPage page = fetchPage(temp_pageNo);
                     if(page!=null){
                         Iterator<Tuple> iterator = page.iterator();
                         if(iterator.hasNext()){
@@ -207,7 +447,7 @@ public class HeapFile implements DbFile {
                 else if(pageNo<numPages()-1){
                     while((!tupleIterator.hasNext())&&(pageNo<numPages()-1)) {
                         pageNo += 1;
-                        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId.get(pageNo), Permissions.READ_ONLY);
+                        HeapPage page = fetchPage(pageNo);
                         if (page != null) {
                             tupleIterator = page.iterator();
                             if(tupleIterator.hasNext()){
@@ -230,6 +470,8 @@ public class HeapFile implements DbFile {
                 tupleIterator = null;
                 pageId = null;
                 pageNo = -1;
+                readAhead = null;
+                ring = null;
             }
         };
     }
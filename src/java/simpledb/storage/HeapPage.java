@@ -12,6 +12,10 @@ import java.io.*;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Changes to the page and its serialization are serialized on the page's
+ * monitor, which serves as the latch transactions changing different
+ * records of the page hold for the physical change.
  *
  * @see HeapFile
  * @see BufferPool
@@ -73,6 +77,18 @@ public class HeapPage implements Page {
         setBeforeImage();
     }
 
+    /**
+     * Create a HeapPage that keeps its header and tuples elsewhere. Used by
+     * {@link FrameHeapPage}, which reads them from an off-heap frame.
+     */
+    HeapPage(HeapPageId id) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = getNumTuples();
+        this.header = null;
+        this.tuples = null;
+    }
+
     /**
      * Retrieve the number of tuples on this page.
      *
@@ -92,7 +108,7 @@ public class HeapPage implements Page {
      * @return the number of bytes in the header of a page in a HeapFile with each
      *         tuple occupying tupleSize bytes
      */
-    private int getHeaderSize() {
+    int getHeaderSize() {
         // some code goes here
 
         return (int) Math.ceil(getNumTuples() / 8.0);
@@ -123,6 +139,34 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * Make the given contents the before image of this page, e.g. its
+     * committed contents when it also holds record changes of running
+     * transactions.
+     */
+    void setBeforeImage(byte[] data) {
+        synchronized (oldDataLock) {
+            oldData = data.clone();
+        }
+    }
+
+    public long getRetainedSize() {
+        long size = SizeOf.object(6 * SizeOf.REFERENCE + 4)
+                + SizeOf.byteArray(header.length)
+                + SizeOf.referenceArray(tuples.length);
+        byte[] before = oldData;
+        if (before != null) {
+            size += SizeOf.byteArray(before.length);
+        }
+        long tupleSize = SizeOf.tuple(td);
+        for (Tuple t : tuples) {
+            if (t != null) {
+                size += tupleSize;
+            }
+        }
+        return size;
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -176,7 +220,7 @@ public class HeapPage implements Page {
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
+    public synchronized byte[] getPageData() {
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -261,7 +305,7 @@ public class HeapPage implements Page {
      *                     already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
         RecordId rid = t.getRecordId();
@@ -284,22 +328,36 @@ public class HeapPage implements Page {
      *                     is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
         if(getNumEmptySlots() == 0) throw new DbException("Insert Failure: page full (no empty slots)");
         if(!t.getTupleDesc().equals(td)) throw new DbException("Insert Failure: tupledesc mismatch");
         for(int j = 0; j < numSlots; j++){
             if(!isSlotUsed(j)){
-                tuples[j] = t;
-                markSlotUsed(j,true);
-                t.setRecordId(new RecordId(pid,j));
+                insertTuple(t, j);
                 return;
             }
         }
         throw new DbException("Insert Failure: page full (no empty slots)");
     }
 
+    /**
+     * Adds the specified tuple to the given empty slot of the page, as
+     * chosen by a transaction that locked the record there.
+     *
+     * @throws DbException if the slot is in use or tupledesc is mismatch.
+     * @param t    The tuple to add.
+     * @param slot The slot to add it to.
+     */
+    public synchronized void insertTuple(Tuple t, int slot) throws DbException {
+        if(!t.getTupleDesc().equals(td)) throw new DbException("Insert Failure: tupledesc mismatch");
+        if(slot < 0 || slot >= numSlots || isSlotUsed(slot)) throw new DbException("Insert Failure: slot " + slot + " not empty");
+        tuples[slot] = t;
+        markSlotUsed(slot,true);
+        t.setRecordId(new RecordId(pid,slot));
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -0,0 +1,133 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). Each page remembers the
+ * times of its last K references and the victim is the page whose K-th most
+ * recent reference lies furthest in the past. Pages referenced fewer than K
+ * times are evicted first, oldest last reference first, so a single scan
+ * cannot push out pages that are used over and over, such as B+ tree
+ * internal pages and the root pointer page.
+ * <p>
+ * The history of evicted pages is kept for a while so that a page which
+ * comes back soon is recognised as hot.
+ */
+public class LRUKPolicy extends AbstractReplacementPolicy {
+
+    /** Default number of references tracked per page. */
+    public static final int DEFAULT_K = 2;
+
+    /** Default number of evicted pages whose history is remembered. */
+    public static final int DEFAULT_RETAINED_HISTORY = 1024;
+
+    private final int k;
+    private final int retainedHistory;
+    private final AtomicLong clock = new AtomicLong();
+    private final ConcurrentHashMap<PageId, History> resident = new ConcurrentHashMap<>();
+    private final LinkedHashMap<PageId, History> retained = new LinkedHashMap<>(); // protected by itself
+
+    /** Reference history of one page: the last k access times, newest first. */
+    private static class History {
+        private final long[] times;
+        private int count = 0;
+
+        History(int k) {
+            times = new long[k];
+        }
+
+        synchronized void record(long now) {
+            System.arraycopy(times, 0, times, 1, times.length - 1);
+            times[0] = now;
+            if (count < times.length) {
+                count++;
+            }
+        }
+
+        /** @return time of the k-th most recent reference, or Long.MIN_VALUE if there were fewer than k */
+        synchronized long kthTime() {
+            return count < times.length ? Long.MIN_VALUE : times[times.length - 1];
+        }
+
+        synchronized long lastTime() {
+            return times[0];
+        }
+    }
+
+    public LRUKPolicy() {
+        this(DEFAULT_K);
+    }
+
+    public LRUKPolicy(int k) {
+        this(k, DEFAULT_RETAINED_HISTORY);
+    }
+
+    /**
+     * @param k               number of references tracked per page (LRU-1 is plain LRU)
+     * @param retainedHistory number of evicted pages whose history is kept
+     */
+    public LRUKPolicy(int k, int retainedHistory) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        this.k = k;
+        this.retainedHistory = retainedHistory;
+    }
+
+    protected void onAccess(PageId pid) {
+        History h = resident.get(pid);
+        if (h != null) {
+            h.record(clock.incrementAndGet());
+        }
+    }
+
+    public void pageAdded(PageId pid) {
+        History h;
+        synchronized (retained) {
+            h = retained.remove(pid);
+        }
+        if (h == null) {
+            h = new History(k);
+        }
+        h.record(clock.incrementAndGet());
+        resident.put(pid, h);
+    }
+
+    public void pageRemoved(PageId pid) {
+        History h = resident.remove(pid);
+        if (h == null || retainedHistory <= 0) {
+            return;
+        }
+        synchronized (retained) {
+            retained.put(pid, h);
+            Iterator<PageId> it = retained.keySet().iterator();
+            while (retained.size() > retainedHistory) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, History> e : resident.entrySet()) {
+            long kth = e.getValue().kthTime();
+            long last = e.getValue().lastTime();
+            if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+                if (evictable.test(e.getKey())) {
+                    victim = e.getKey();
+                    victimKth = kth;
+                    victimLast = last;
+                }
+            }
+        }
+        return victim;
+    }
+}
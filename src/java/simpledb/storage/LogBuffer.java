@@ -0,0 +1,324 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LogBuffer is the append-only write path of a LogFile. Records are copied
+ * into a ring of direct buffers in memory and written to the end of the
+ * log file a whole buffer at a time through a FileChannel.
+ * <p>
+ * Each record is assigned a log sequence number (LSN) when it is appended:
+ * the offset in the log file at which the record starts. The LSN is also
+ * written after the record, as the log format expects every record to end
+ * with its own start offset.
+ * <p>
+ * A buffer is sealed when it is full or when the log is flushed, and is
+ * reused once it has been written. Sealed buffers are written by a
+ * dedicated writer thread while it is running; otherwise by whichever
+ * caller flushes the log or needs a free buffer. The thread is not started
+ * by default; call {@link #start()}.
+ * <p>
+ * Appends are serialized by this object's monitor. Writes to the file take
+ * a separate lock, so an append only waits for a write when every buffer
+ * of the ring is sealed.
+ *
+ * @Threadsafe
+ */
+public class LogBuffer implements Runnable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_BUFFERS = 4;
+
+    /** A sealed buffer, the log offset of its first byte and its length. */
+    private static class Sealed {
+        final ByteBuffer buffer;
+        final long start;
+        final int length;
+
+        Sealed(ByteBuffer buffer, long start, int length) {
+            this.buffer = buffer;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    private final ByteBuffer[] ring;
+    private int fill = 0; // the buffer being filled, protected by this
+    private long fillStart; // log offset of its first byte, protected by this
+
+    private final Object writeLock = new Object();
+    private FileChannel channel; // protected by writeLock
+
+    // locks are taken in the order this, writeLock, state
+    private final Object state = new Object();
+    private final ArrayDeque<Sealed> sealed = new ArrayDeque<>(); // protected by state
+    private long written; // end of what has been written, protected by state
+    private Thread thread; // protected by state
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong bufferWaits = new AtomicLong();
+
+    /**
+     * @param channel the log file to append to
+     * @param end     the offset at which the next record starts
+     */
+    LogBuffer(FileChannel channel, long end) {
+        this(channel, end, DEFAULT_BUFFERS, DEFAULT_BUFFER_SIZE);
+    }
+
+    LogBuffer(FileChannel channel, long end, int buffers, int bufferSize) {
+        if (buffers < 2 || bufferSize < 1) {
+            throw new IllegalArgumentException("need at least two non-empty buffers");
+        }
+        ring = new ByteBuffer[buffers];
+        for (int i = 0; i < buffers; i++) {
+            ring[i] = ByteBuffer.allocateDirect(bufferSize);
+        }
+        this.channel = channel;
+        this.fillStart = end;
+        this.written = end;
+    }
+
+    /** @return the number of bytes written to the log file so far */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /** @return the number of buffers written to the log file so far */
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    /** @return how often an append found every buffer of the ring sealed */
+    public long getBufferWaits() {
+        return bufferWaits.get();
+    }
+
+    /** @return the offset at which the next record will start */
+    public synchronized long getEnd() {
+        return fillStart + ring[fill].position();
+    }
+
+    /**
+     * Append a record followed by its LSN.
+     *
+     * @param record the record, without the trailing start offset
+     * @return the LSN of the record
+     */
+    public synchronized long append(byte[] record) throws IOException {
+        long lsn = getEnd();
+        put(record);
+        ByteBuffer lsnBytes = ByteBuffer.allocate(LogFile.LONG_SIZE);
+        lsnBytes.putLong(lsn);
+        put(lsnBytes.array());
+        return lsn;
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        int off = 0;
+        while (off < bytes.length) {
+            ByteBuffer b = ring[fill];
+            int n = Math.min(b.remaining(), bytes.length - off);
+            b.put(bytes, off, n);
+            off += n;
+            if (!b.hasRemaining()) {
+                seal();
+            }
+        }
+    }
+
+    /** Hand the buffer being filled to the writer and move on to the next one. */
+    private void seal() throws IOException {
+        ByteBuffer b = ring[fill];
+        if (b.position() == 0) {
+            return;
+        }
+        // once sealed, the buffer may be written and cleared at any time
+        Sealed s = new Sealed(b, fillStart, b.position());
+        fillStart += s.length;
+        fill = (fill + 1) % ring.length;
+        boolean full;
+        synchronized (state) {
+            sealed.add(s);
+            full = sealed.size() == ring.length;
+            state.notifyAll();
+        }
+        if (full) {
+            bufferWaits.incrementAndGet();
+            waitForFreeBuffer();
+        }
+    }
+
+    private void waitForFreeBuffer() throws IOException {
+        while (true) {
+            synchronized (state) {
+                if (sealed.size() < ring.length) {
+                    return;
+                }
+                if (thread != null) {
+                    try {
+                        state.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("interrupted while waiting for a log buffer", e);
+                    }
+                    continue;
+                }
+            }
+            writeOldest();
+        }
+    }
+
+    /**
+     * Write the oldest sealed buffer to the log file and make it free.
+     *
+     * @return false if no buffer was sealed
+     */
+    private boolean writeOldest() throws IOException {
+        synchronized (writeLock) {
+            Sealed s;
+            synchronized (state) {
+                s = sealed.peek();
+            }
+            if (s == null) {
+                return false;
+            }
+            ByteBuffer b = s.buffer.duplicate();
+            b.position(0).limit(s.length);
+            long position = s.start;
+            while (b.hasRemaining()) {
+                position += channel.write(b, position);
+            }
+            bytesWritten.addAndGet(s.length);
+            writes.incrementAndGet();
+            synchronized (state) {
+                sealed.poll();
+                s.buffer.clear();
+                written = s.start + s.length;
+                state.notifyAll();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Write everything appended so far to the log file. The file is not
+     * forced to disk.
+     */
+    public void flush() throws IOException {
+        long end;
+        synchronized (this) {
+            seal();
+            end = fillStart;
+        }
+        while (true) {
+            synchronized (state) {
+                if (written >= end) {
+                    return;
+                }
+            }
+            writeOldest();
+        }
+    }
+
+    /** Write everything appended so far and force the log file to disk. */
+    public void force() throws IOException {
+        flush();
+        synchronized (writeLock) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Continue appending at the given offset of the given channel, e.g.
+     * after the log file was truncated or replaced. Everything appended so
+     * far must have been flushed.
+     */
+    synchronized void reset(FileChannel channel, long end) {
+        synchronized (writeLock) {
+            synchronized (state) {
+                if (!sealed.isEmpty() || ring[fill].position() != 0) {
+                    throw new IllegalStateException("log buffer holds records that were not written");
+                }
+                this.channel = channel;
+                fillStart = end;
+                written = end;
+            }
+        }
+    }
+
+    /** Start the writer thread, if it is not running already. */
+    public void start() {
+        synchronized (state) {
+            if (thread != null) {
+                return;
+            }
+            thread = new Thread(this, "simpledb-log-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the writer thread and wait for it to exit. Buffers that are
+     * already sealed are written first.
+     */
+    public void shutdown() throws InterruptedException {
+        Thread t;
+        synchronized (state) {
+            t = thread;
+            thread = null;
+            state.notifyAll();
+        }
+        if (t != null) {
+            t.join();
+        }
+    }
+
+    public boolean isRunning() {
+        synchronized (state) {
+            return thread != null;
+        }
+    }
+
+    public void run() {
+        while (true) {
+            synchronized (state) {
+                while (sealed.isEmpty()) {
+                    if (thread != Thread.currentThread()) {
+                        return;
+                    }
+                    try {
+                        state.wait();
+                    } catch (InterruptedException e) {
+                        stopped();
+                        return;
+                    }
+                }
+            }
+            try {
+                writeOldest();
+            } catch (IOException | RuntimeException e) {
+                // appenders and flushes retry the write themselves
+                e.printStackTrace();
+                stopped();
+                return;
+            }
+        }
+    }
+
+    /** Let appenders waiting for the thread write buffers themselves. */
+    private void stopped() {
+        synchronized (state) {
+            if (thread == Thread.currentThread()) {
+                thread = null;
+            }
+            state.notifyAll();
+        }
+    }
+}
@@ -89,12 +89,14 @@ public class LogFile {
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
-    long currentOffset = -1;//protected by this
+    private final LogBuffer buffer; // appends records to raf
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    private final GroupCommit groupCommit = new GroupCommit(this);
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -109,6 +111,7 @@ public class LogFile {
     public LogFile(File f) throws IOException {
 	this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        buffer = new LogBuffer(raf.getChannel(), raf.length());
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -132,11 +135,36 @@ public class LogFile {
             raf.seek(0);
             raf.setLength(0);
             raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            buffer.reset(raf.getChannel(), raf.length());
         }
     }
 
+    /** Writes the body of a log record, after its type and tid. */
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /** @return a log record without its trailing start offset, which
+        the LogBuffer adds as the record is appended
+    */
+    private static byte[] record(int type, long tid, RecordBody body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(type);
+        out.writeLong(tid);
+        if (body != null) {
+            body.write(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the buffer through which records are appended to this log
+     */
+    public LogBuffer getLogBuffer() {
+        return buffer;
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
@@ -160,10 +188,7 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                buffer.append(record(ABORT_RECORD, tid.getId(), null));
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -175,17 +200,43 @@ public class LogFile {
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        // with group commit running, the flusher writes the record as
+        // part of a batch and this returns once the batch is forced
+        if (groupCommit.commit(tid)) {
+            return;
+        }
+        logCommits(Collections.singletonList(tid));
+    }
+
+    /** Write commit records for the specified tids and force the log
+        to disk once.
+
+        @param tids The committing transactions.
+        @see GroupCommit
+    */
+    synchronized void logCommits(List<TransactionId> tids) throws IOException {
+        for (int i = 0; i < tids.size(); i++) {
+            preAppend();
+        }
+        //should we verify that these are live transactions?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        for (TransactionId tid : tids) {
+            Debug.log("COMMIT " + tid.getId());
+            buffer.append(record(COMMIT_RECORD, tid.getId(), null));
+        }
         force();
-        tidToFirstLogRecord.remove(tid.getId());
+        for (TransactionId tid : tids) {
+            tidToFirstLogRecord.remove(tid.getId());
+        }
+    }
+
+    /**
+     * @return the group commit flusher of this log, which batches the
+     *         records written by {@link #logCommit}
+     */
+    public GroupCommit getGroupCommit() {
+        return groupCommit;
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -196,11 +247,9 @@ public class LogFile {
 
         @see Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
-                                       Page after)
+    public void logWrite(TransactionId tid, Page before,
+                         Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
-        preAppend();
         /* update record conists of
 
            record type
@@ -209,18 +258,20 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-
-        Debug.log("WRITE OFFSET = " + currentOffset);
+        // serialize the images before taking the monitor, so that
+        // appending the record is only a copy into the log buffer
+        byte[] update = record(UPDATE_RECORD, tid.getId(), out -> {
+            writePageData(out, before);
+            writePageData(out, after);
+        });
+        synchronized (this) {
+            preAppend();
+            long lsn = buffer.append(update);
+            Debug.log("WRITE, offset = " + lsn);
+        }
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
         int[] pageInfo = pid.serialize();
 
@@ -267,7 +318,7 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = pageConstructor(pageClass);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -277,7 +328,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
@@ -288,6 +339,19 @@ public class LogFile {
 
     }
 
+    /** @return the Page(PageId, byte[]) constructor of a page class; page
+        classes may declare other constructors as well
+    */
+    private static Constructor<?> pageConstructor(Class<?> pageClass) throws InstantiationException {
+        for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+            Class<?>[] params = c.getParameterTypes();
+            if (params.length == 2 && PageId.class.isAssignableFrom(params[0]) && params[1] == byte[].class) {
+                return c;
+            }
+        }
+        throw new InstantiationException(pageClass.getName() + " has no (PageId, byte[]) constructor");
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -300,13 +364,10 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        long lsn = buffer.append(record(BEGIN_RECORD, tid.getId(), null));
+        tidToFirstLogRecord.put(tid.getId(), lsn);
 
-        Debug.log("BEGIN OFFSET = " + currentOffset);
+        Debug.log("BEGIN OFFSET = " + lsn);
     }
 
     /** Checkpoint the log and write a checkpoint record. */
@@ -316,44 +377,49 @@ public class LogFile {
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
+                long startCpOffset;
                 Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+                //no tid , but leave space for convenience
+                startCpOffset = buffer.append(record(CHECKPOINT_RECORD, -1, out -> {
+                    //write list of outstanding transactions
+                    out.writeInt(keys.size());
+                    for (Long key : keys) {
+                        Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                        out.writeLong(key);
+                        //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+                        out.writeLong(tidToFirstLogRecord.get(key));
+                    }
+                }));
 
                 //once the CP is written, make sure the CP location at the
                 // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
+                buffer.flush();
                 raf.seek(0);
                 raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+                //Debug.log("CP OFFSET = " + buffer.getEnd());
             }
         }
 
         logTruncate();
+
+        File warmStart = Database.getBufferPool().getWarmStartFile();
+        if (warmStart != null) {
+            try {
+                Database.getBufferPool().saveResidentPages(warmStart);
+            } catch (IOException e) {
+                // the checkpoint itself is complete
+                e.printStackTrace();
+            }
+        }
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        buffer.flush();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
@@ -439,10 +505,9 @@ public class LogFile {
         logFile.delete();
         newFile.renameTo(logFile);
         raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
         newFile.delete();
 
-        currentOffset = raf.getFilePointer();
+        buffer.reset(raf.getChannel(), raf.length());
         //print();
     }
 
@@ -459,22 +524,96 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
+                buffer.flush();
                 // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null) {
+                    throw new NoSuchElementException("no log records for transaction " + tid.getId());
+                }
+
+                // the first before image logged for a page is its state
+                // before tid touched it; later ones may already contain
+                // changes of tid that were flushed or stolen
+                final Map<PageId, Page> beforeImages = new HashMap<>();
+                scanRecords(firstRecord, (type, recordTid, before, after) -> {
+                    if (type == UPDATE_RECORD && recordTid == tid.getId()) {
+                        beforeImages.putIfAbsent(before.getId(), before);
+                    }
+                });
+
+                for (Page before : beforeImages.values()) {
+                    restorePage(before);
+                }
             }
         }
     }
 
+    /** Callback for {@link #scanRecords}. before and after are only set for UPDATE records. */
+    private interface RecordVisitor {
+        void visit(int type, long tid, Page before, Page after) throws IOException;
+    }
+
+    /** Read every record from the given offset to the end of the log, in
+        order, and leave the file pointer at the end of the log. A record
+        torn by a crash ends the log and is cut off.
+    */
+    private void scanRecords(long offset, RecordVisitor visitor) throws IOException {
+        raf.seek(offset);
+        long end = offset;
+        while (true) {
+            try {
+                int type = raf.readInt();
+                long recordTid = raf.readLong();
+                Page before = null, after = null;
+                switch (type) {
+                case UPDATE_RECORD:
+                    before = readPageData(raf);
+                    after = readPageData(raf);
+                    break;
+                case CHECKPOINT_RECORD:
+                    int numXactions = raf.readInt();
+                    raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                    break;
+                }
+                raf.readLong();
+                end = raf.getFilePointer();
+                visitor.visit(type, recordTid, before, after);
+            } catch (EOFException e) {
+                break;
+            }
+        }
+        if (end < raf.length()) {
+            raf.setLength(end);
+        }
+        raf.seek(end);
+    }
+
+    /** Write a page image to its file and drop any cached copy of it. */
+    private void restorePage(Page image) throws IOException {
+        Database.getBufferPool().restorePage(image);
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
-            logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
-        } catch (IOException e) {
-            System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
-            e.printStackTrace();
+            // the flusher needs this log's monitor to write what is pending
+            groupCommit.shutdown();
+            buffer.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+                force();
+                raf.close();
+            } catch (IOException e) {
+                System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
+                e.printStackTrace();
+            }
         }
     }
 
@@ -486,13 +625,80 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
+                buffer.flush();
                 // some code goes here
+                if (raf.length() < LONG_SIZE) {
+                    // nothing was ever logged
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                    buffer.reset(raf.getChannel(), raf.length());
+                    return;
+                }
+
+                // start at the checkpoint, or earlier if a transaction
+                // that was running at the checkpoint began before it
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+                long start = LONG_SIZE;
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    start = cpLoc;
+                    raf.seek(cpLoc);
+                    if (raf.readInt() != CHECKPOINT_RECORD) {
+                        throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+                    }
+                    raf.readLong();
+                    int numOutstanding = raf.readInt();
+                    for (int i = 0; i < numOutstanding; i++) {
+                        raf.readLong();
+                        start = Math.min(start, raf.readLong());
+                    }
+                }
+
+                final Set<Long> committed = new HashSet<>();
+                final Set<Long> aborted = new HashSet<>();
+                final List<Long> updateTids = new ArrayList<>();
+                final List<Page[]> updates = new ArrayList<>();
+                scanRecords(start, (type, recordTid, before, after) -> {
+                    switch (type) {
+                    case COMMIT_RECORD:
+                        committed.add(recordTid);
+                        break;
+                    case ABORT_RECORD:
+                        aborted.add(recordTid);
+                        break;
+                    case UPDATE_RECORD:
+                        updateTids.add(recordTid);
+                        updates.add(new Page[] { before, after });
+                        break;
+                    }
+                });
+
+                // redo committed transactions in log order
+                for (int i = 0; i < updates.size(); i++) {
+                    if (committed.contains(updateTids.get(i))) {
+                        restorePage(updates.get(i)[1]);
+                    }
+                }
+
+                // undo transactions that neither committed nor were rolled
+                // back; going backwards leaves each page at its first
+                // before image
+                for (int i = updates.size() - 1; i >= 0; i--) {
+                    long recordTid = updateTids.get(i);
+                    if (!committed.contains(recordTid) && !aborted.contains(recordTid)) {
+                        restorePage(updates.get(i)[0]);
+                    }
+                }
+
+                tidToFirstLogRecord.clear();
+                buffer.reset(raf.getChannel(), raf.getFilePointer());
             }
          }
     }
 
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
+        buffer.flush();
         long curOffset = raf.getFilePointer();
 
         raf.seek(0);
@@ -567,8 +773,8 @@ public class LogFile {
         raf.seek(curOffset);
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    public void force() throws IOException {
+        buffer.force();
     }
 
 }
@@ -0,0 +1,133 @@
+package simpledb.storage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NamedPool is one partition of a {@link BufferPool}: a share of its pages
+ * with its own capacity and its own replacement policy. Pages of a table
+ * live in the pool the {@link simpledb.common.Catalog} assigns the table
+ * to, or in the default pool, and only ever push out pages of the same
+ * pool. A large scan over a table in a "scan" pool therefore cannot evict
+ * the working set of tables and indexes kept in other pools.
+ * <p>
+ * All pools share the BufferPool's page table, locks and dirty page
+ * handling; a pool only decides how many pages may be resident and which
+ * of them is evicted next.
+ *
+ * @see BufferPool#addPool
+ * @Threadsafe
+ */
+public class NamedPool {
+
+    /** Estimated footprint of a page, in page sizes, before any page is resident. */
+    private static final int ESTIMATED_PAGE_FOOTPRINT = 4;
+
+    private final String name;
+    private final int maxPages;
+    private final long maxBytes;
+    private final ReplacementPolicy policy;
+    private final AtomicInteger resident = new AtomicInteger();
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    /** Serializes making room in this pool and installing a page into it. */
+    final Object evictionLatch = new Object();
+
+    NamedPool(String name, int maxPages, long maxBytes, ReplacementPolicy policy) {
+        if (maxPages <= 0) {
+            throw new IllegalArgumentException("a pool needs room for at least one page");
+        }
+        this.name = name;
+        this.maxPages = maxPages;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the maximum number of pages in this pool; for a pool limited
+     *         by a memory budget, the number of pages of the current
+     *         average size that fit in the budget
+     */
+    public int getNumPages() {
+        if (!hasMemoryBudget()) {
+            return maxPages;
+        }
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / averagePageBytes()));
+    }
+
+    /** @return the memory budget of this pool in bytes, or Long.MAX_VALUE if it is limited by page count */
+    public long getMemoryBudget() {
+        return maxBytes;
+    }
+
+    /** @return the bytes of heap retained by the pages in this pool */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /** @return the number of pages currently in this pool */
+    public int getResidentPages() {
+        return resident.get();
+    }
+
+    /**
+     * @return the replacement policy of this pool, which also holds its hit
+     *         and miss counters
+     */
+    public ReplacementPolicy getReplacementPolicy() {
+        return policy;
+    }
+
+    boolean hasMemoryBudget() {
+        return maxBytes != Long.MAX_VALUE;
+    }
+
+    long averagePageBytes() {
+        int n = resident.get();
+        long used = usedBytes.get();
+        if (n == 0 || used == 0) {
+            return (long) ESTIMATED_PAGE_FOOTPRINT * BufferPool.getPageSize();
+        }
+        return Math.max(1, used / n);
+    }
+
+    /**
+     * @return true if a page retaining the given bytes does not fit in the
+     *         pool without evicting another. A page larger than the whole
+     *         budget still fits into an empty pool.
+     */
+    boolean mustEvict(long incoming) {
+        int n = resident.get();
+        if (n >= maxPages) {
+            return true;
+        }
+        return n > 0 && usedBytes.get() + incoming > maxBytes;
+    }
+
+    /** @return true if the pool is already over its capacity */
+    boolean isOverfull(long incoming) {
+        int n = resident.get();
+        return n > maxPages || (hasMemoryBudget() && n > 0 && usedBytes.get() + incoming > maxBytes);
+    }
+
+    void pageEntered() {
+        resident.incrementAndGet();
+    }
+
+    void pageLeft() {
+        resident.decrementAndGet();
+    }
+
+    void addBytes(long delta) {
+        usedBytes.addAndGet(delta);
+    }
+
+    @Override
+    public String toString() {
+        return "pool " + name + " (" + resident.get() + "/" + getNumPages() + " pages)";
+    }
+}
@@ -9,7 +9,7 @@ import simpledb.transaction.TransactionId;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
+ * For recovery purposes, pages MUST have a constructor of the form:
  *     Page(PageId id, byte[] data)
  */
 public interface Page {
@@ -58,4 +58,13 @@ public interface Page {
      * copy current content to the before image.
      */
     void setBeforeImage();
+
+    /**
+     * Estimate the bytes of Java heap this page retains: its decoded contents
+     * and its before image as well as the page data. Used by BufferPools
+     * that are sized by a memory budget.
+     *
+     * @see SizeOf
+     */
+    long getRetainedSize();
 }
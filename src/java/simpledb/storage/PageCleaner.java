@@ -0,0 +1,184 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageCleaner is a background thread that writes dirty pages out of a
+ * BufferPool ahead of eviction, so that evictPage finds clean victims
+ * instead of failing with "No clean page to evict".
+ * <p>
+ * The cleaner is driven by two watermarks, expressed as fractions of the
+ * pool capacity. When more than the high watermark of the pool is dirty
+ * the cleaner writes pages, oldest dirty first, until no more than the low
+ * watermark is dirty. Which dirty pages may be written at all is decided
+ * by {@link BufferPool#cleanDirtyPages}.
+ * <p>
+ * The thread is not started by default; call {@link #start()}. The same
+ * cleaning pass also runs synchronously from evictPage when the pool has
+ * no clean page left, whether or not the thread is running.
+ *
+ * @Threadsafe
+ */
+public class PageCleaner implements Runnable {
+
+    public static final double DEFAULT_LOW_WATERMARK = 0.25;
+    public static final double DEFAULT_HIGH_WATERMARK = 0.75;
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    private final BufferPool bufferPool;
+    private volatile double lowWatermark = DEFAULT_LOW_WATERMARK;
+    private volatile double highWatermark = DEFAULT_HIGH_WATERMARK;
+    private volatile long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+
+    private Thread thread; // protected by this
+    private boolean wakeRequested = false; // protected by this
+    private final AtomicLong pagesWritten = new AtomicLong();
+
+    PageCleaner(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Set the watermarks, as fractions of the pool capacity.
+     *
+     * @param low  the cleaner stops once at most this fraction is dirty
+     * @param high the cleaner starts once more than this fraction is dirty
+     */
+    public void setWatermarks(double low, double high) {
+        if (low < 0 || low > high || high > 1) {
+            throw new IllegalArgumentException("watermarks must satisfy 0 <= low <= high <= 1");
+        }
+        this.lowWatermark = low;
+        this.highWatermark = high;
+    }
+
+    public double getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public double getHighWatermark() {
+        return highWatermark;
+    }
+
+    /** Set how often the cleaner checks the pool when nobody wakes it up. */
+    public void setInterval(long millis) {
+        this.intervalMillis = millis;
+    }
+
+    /** @return the number of pages written by this cleaner so far */
+    public long getPagesWritten() {
+        return pagesWritten.get();
+    }
+
+    /** Start the background thread, if it is not running already. */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this, "simpledb-page-cleaner");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stop the background thread and wait for it to exit. */
+    public void shutdown() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            thread = null;
+            notifyAll();
+        }
+        if (t != null) {
+            t.join();
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    /** Ask the background thread to run a pass now, e.g. after a page was dirtied. */
+    void wakeUp() {
+        synchronized (this) {
+            if (thread != null && !wakeRequested) {
+                wakeRequested = true;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return true if more than the high watermark of the pool is dirty;
+     *         cheap enough to ask on every page modification
+     */
+    boolean aboveHighWatermark() {
+        return bufferPool.getDirtyPageEstimate() > highWatermark * bufferPool.getTotalPages();
+    }
+
+    /**
+     * Write dirty pages until no more than the low watermark of the pool is
+     * dirty, or until nothing else may be written.
+     *
+     * @param minimum the number of pages to write even if the pool is
+     *                already below the low watermark
+     * @return the number of pages written
+     */
+    int cleanToLowWatermark(int minimum) throws IOException {
+        int target = (int) (lowWatermark * bufferPool.getTotalPages());
+        return clean(null, minimum, bufferPool.getDirtyPageCount() - target);
+    }
+
+    /**
+     * Write dirty pages of one named pool of the BufferPool until no more
+     * than the low watermark of that pool is dirty, or until nothing else
+     * may be written.
+     *
+     * @param pool    the pool to clean
+     * @param minimum the number of pages to write even if the pool is
+     *                already below the low watermark
+     * @return the number of pages written
+     */
+    int cleanToLowWatermark(NamedPool pool, int minimum) throws IOException {
+        int target = (int) (lowWatermark * pool.getNumPages());
+        return clean(pool, minimum, bufferPool.getDirtyPageCount(pool) - target);
+    }
+
+    private int clean(NamedPool pool, int minimum, int above) throws IOException {
+        int excess = Math.max(minimum, above);
+        if (excess <= 0) {
+            return 0;
+        }
+        int written = bufferPool.cleanDirtyPages(pool, excess);
+        pagesWritten.addAndGet(written);
+        return written;
+    }
+
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                if (thread != Thread.currentThread()) {
+                    return;
+                }
+                if (!wakeRequested) {
+                    try {
+                        wait(intervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                wakeRequested = false;
+                if (thread != Thread.currentThread()) {
+                    return;
+                }
+            }
+            try {
+                if (aboveHighWatermark()) {
+                    cleanToLowWatermark(0);
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ReadAhead prefetches pages of sequential HeapFile scans into a
+ * BufferPool on a small pool of background I/O threads, so a scan finds
+ * the next pages already cached instead of stalling on each disk read.
+ * <p>
+ * Each scan owns a {@link Stream} that watches the page numbers it asks
+ * for. Once a stream has read a few consecutive pages it starts
+ * scheduling the following ones. How far ahead it reads adapts to the
+ * measured rates: the deeper the ratio between the time it takes to read
+ * a page and the time the consumer spends on a page, the more pages are
+ * kept in flight.
+ * <p>
+ * Prefetching takes no transaction locks; the consumer still locks each
+ * page through {@link BufferPool#getPage} and simply finds it resident.
+ *
+ * @Threadsafe
+ */
+public class ReadAhead {
+
+    /** Number of background threads shared by all read-ahead engines. */
+    private static final int IO_THREADS = 4;
+
+    /** Consecutive page accesses needed before a stream is treated as sequential. */
+    static final int SEQUENTIAL_THRESHOLD = 2;
+
+    /** Read-ahead depth used before any read latency has been measured. */
+    static final int INITIAL_DEPTH = 4;
+
+    /** Upper bound on the read-ahead depth. */
+    static final int MAX_DEPTH = 32;
+
+    /** Weight of the newest sample in the moving averages. */
+    private static final double ALPHA = 0.25;
+
+    private static final ExecutorService ioPool = Executors.newFixedThreadPool(IO_THREADS, r -> {
+        Thread t = new Thread(r, "simpledb-readahead");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final BufferPool bufferPool;
+    private volatile boolean enabled = true;
+
+    ReadAhead(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /** Turn read-ahead on or off for new and running streams. */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Create a stream that tracks one scan over the given file.
+     *
+     * @param file the file being scanned
+     */
+    public Stream newStream(HeapFile file) {
+        return newStream(file, null);
+    }
+
+    /**
+     * Create a stream that tracks one scan over the given file, prefetching
+     * into the scan's ring rather than into the pool.
+     *
+     * @param file the file being scanned
+     * @param ring the ring the scan reads through, or null for the pool
+     */
+    public Stream newStream(HeapFile file, BufferRing ring) {
+        return new Stream(file, ring);
+    }
+
+    /**
+     * @return the largest depth a stream over the given table may use; a
+     *         quarter of the pool that caches the table, so prefetched
+     *         pages are not evicted before they are consumed
+     */
+    int maxDepth(int tableId) {
+        return Math.max(1, Math.min(MAX_DEPTH, bufferPool.getPoolOf(tableId).getNumPages() / 4));
+    }
+
+    /**
+     * The access history of one scan. Not shared between threads, except
+     * for the fields updated by the background reader.
+     */
+    public class Stream {
+        private final HeapFile file;
+        private final BufferRing ring;
+        private int lastPageNo = -1;
+        private int runLength = 0;
+        private int scheduledUpTo = -1;
+        private long lastAccessNanos = 0;
+        private double consumeNanos = 0; // moving average of time spent per page
+        private volatile double readNanos = 0; // moving average of one page read
+        private final AtomicBoolean inFlight = new AtomicBoolean(false);
+
+        Stream(HeapFile file, BufferRing ring) {
+            this.file = file;
+            this.ring = ring;
+        }
+
+        // a ring keeps half its pages for read-ahead, so none is recycled before it is used
+        private int limit() {
+            int limit = maxDepth(file.getId());
+            return ring == null ? limit : Math.max(1, Math.min(limit, ring.getCapacity() / 2));
+        }
+
+        /**
+         * Tell the stream that the scan is about to fetch the given page.
+         * May schedule a background read of the following pages.
+         *
+         * @param pageNo the page number being fetched
+         */
+        public void pageAccessed(int pageNo) {
+            if (pageNo == lastPageNo) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (pageNo == lastPageNo + 1) {
+                runLength++;
+                if (lastAccessNanos != 0) {
+                    consumeNanos = average(consumeNanos, now - lastAccessNanos);
+                }
+            } else {
+                runLength = 1;
+                scheduledUpTo = pageNo;
+                consumeNanos = 0;
+            }
+            lastPageNo = pageNo;
+            lastAccessNanos = now;
+
+            if (enabled && runLength >= SEQUENTIAL_THRESHOLD) {
+                schedule(pageNo);
+            }
+        }
+
+        /** @return the number of pages this stream currently keeps ahead of the scan */
+        public int depth() {
+            double read = readNanos;
+            if (read == 0 || consumeNanos == 0) {
+                return Math.min(INITIAL_DEPTH, limit());
+            }
+            int depth = (int) Math.ceil(read / consumeNanos) + 1;
+            return Math.max(1, Math.min(depth, limit()));
+        }
+
+        private void schedule(int pageNo) {
+            int last = Math.min(pageNo + depth(), file.numPages() - 1);
+            int first = Math.max(scheduledUpTo + 1, pageNo + 1);
+            if (first > last || !inFlight.compareAndSet(false, true)) {
+                return;
+            }
+            scheduledUpTo = last;
+            try {
+                ioPool.execute(() -> prefetch(first, last));
+            } catch (RejectedExecutionException e) {
+                inFlight.set(false);
+            }
+        }
+
+        private void prefetch(int first, int last) {
+            try {
+                for (int pgNo = first; pgNo <= last && enabled; pgNo++) {
+                    long start = System.nanoTime();
+                    HeapPageId pid = new HeapPageId(file.getId(), pgNo);
+                    if (ring == null ? bufferPool.prefetchPage(pid) : ring.prefetch(file, pid)) {
+                        readNanos = average(readNanos, System.nanoTime() - start);
+                    }
+                }
+            } catch (DbException | RuntimeException e) {
+                // prefetching is only a hint; the scan reads the page itself
+            } finally {
+                inFlight.set(false);
+            }
+        }
+    }
+
+    private static double average(double avg, long sample) {
+        return avg == 0 ? sample : (1 - ALPHA) * avg + ALPHA * sample;
+    }
+}
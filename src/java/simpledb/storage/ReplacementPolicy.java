@@ -0,0 +1,77 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up
+ * when it needs room for a new one. The BufferPool reports every hit,
+ * every page it brings in and every page it drops; the policy keeps
+ * whatever recency information it needs and picks a victim on request.
+ * <p>
+ * Policies also count hits and misses so that different policies can be
+ * compared on the same workload.
+ *
+ * @see ClockPolicy
+ * @see LRUKPolicy
+ * @see TwoQueuePolicy
+ * @Threadsafe
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Record that the requested page was already resident.
+     *
+     * @param pid the page that was hit
+     */
+    void pageHit(PageId pid);
+
+    /**
+     * Record that the requested page was not resident and has now been read
+     * into the buffer pool. Counts as a miss.
+     *
+     * @param pid the page that was loaded
+     */
+    void pageLoaded(PageId pid);
+
+    /**
+     * Record that a page entered the buffer pool without being requested
+     * through getPage (e.g. a freshly allocated page from insertTuple).
+     * Does not count as a hit or a miss.
+     *
+     * @param pid the page that was added
+     */
+    void pageAdded(PageId pid);
+
+    /**
+     * Record that a page was evicted from the buffer pool.
+     *
+     * @param pid the page that was removed
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Record that a page has left the buffer pool without being evicted,
+     * e.g. dropped by a rollback or recovery. Its departure says nothing
+     * about how it was used, so the policy only forgets it.
+     *
+     * @param pid the page that was discarded
+     */
+    void pageDiscarded(PageId pid);
+
+    /**
+     * Choose the page that should be evicted next. The chosen page is not
+     * removed from the policy; the BufferPool calls {@link #pageRemoved}
+     * once it has actually dropped it.
+     *
+     * @param evictable tells the policy whether a resident page may be
+     *                  evicted right now (e.g. it is not dirty)
+     * @return the page to evict, or null if no resident page is evictable
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+
+    /** @return the number of hits recorded by this policy */
+    long getHitCount();
+
+    /** @return the number of misses recorded by this policy */
+    long getMissCount();
+}
@@ -0,0 +1,73 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+/**
+ * SizeOf estimates how many bytes of Java heap the objects making up a
+ * page retain, so that a BufferPool can be sized by a memory budget. The
+ * numbers follow the layout of a 64-bit HotSpot JVM with compressed
+ * references: 12-byte object headers, 16-byte array headers, 4-byte
+ * references and 8-byte alignment.
+ * <p>
+ * Objects shared between pages, such as TupleDescs and PageIds, are not
+ * counted.
+ */
+public final class SizeOf {
+
+    public static final int OBJECT_HEADER = 12;
+    public static final int ARRAY_HEADER = 16;
+    public static final int REFERENCE = 4;
+
+    private SizeOf() {
+    }
+
+    /** @return the size of an object with the given bytes of fields */
+    public static long object(int fieldBytes) {
+        return align(OBJECT_HEADER + fieldBytes);
+    }
+
+    public static long byteArray(int length) {
+        return align(ARRAY_HEADER + (long) length);
+    }
+
+    public static long intArray(int length) {
+        return align(ARRAY_HEADER + 4L * length);
+    }
+
+    public static long referenceArray(int length) {
+        return align(ARRAY_HEADER + (long) REFERENCE * length);
+    }
+
+    /**
+     * @return the size of a Field of the given type; strings are assumed to
+     *         be as long as they may be
+     */
+    public static long field(Type type) {
+        switch (type) {
+        case INT_TYPE:
+            return object(4);
+        case STRING_TYPE:
+            // StringField + String + its Latin-1 byte[]
+            return object(REFERENCE + 4) + object(REFERENCE + 4 + 2) + byteArray(Type.STRING_LEN);
+        default:
+            return object(type.getLen());
+        }
+    }
+
+    /**
+     * @return the size of a Tuple read from a page, with its fields and its
+     *         RecordId
+     */
+    public static long tuple(TupleDesc td) {
+        long size = object(3 * REFERENCE) + referenceArray(td.numFields());
+        for (int i = 0; i < td.numFields(); i++) {
+            size += field(td.getFieldType(i));
+        }
+        // RecordId and its boxed tuple number
+        return size + object(2 * REFERENCE) + object(4);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * 2Q replacement (Johnson and Shasha). A page seen for the first time goes
+ * into a small FIFO queue, A1in. If it is evicted from there its id is
+ * remembered in a ghost queue, A1out, and only a page that is requested
+ * again while its id is still in A1out is promoted to the main LRU queue,
+ * Am. Pages that are read once by a scan therefore never displace the hot
+ * set kept in Am.
+ */
+public class TwoQueuePolicy extends AbstractReplacementPolicy {
+
+    private final int kin;
+    private final int kout;
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<>(); // oldest first, protected by this
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>(); // oldest first, protected by this
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<>(); // least recently used first, protected by this
+
+    /**
+     * Creates a 2Q policy with the thresholds recommended in the paper:
+     * A1in holds a quarter of the pool and A1out remembers half a pool's
+     * worth of page ids.
+     *
+     * @param capacity the number of pages in the buffer pool
+     */
+    public TwoQueuePolicy(int capacity) {
+        this(Math.max(1, capacity / 4), Math.max(1, capacity / 2));
+    }
+
+    /**
+     * @param kin  target size of the A1in queue
+     * @param kout maximum number of ids remembered in A1out
+     */
+    public TwoQueuePolicy(int kin, int kout) {
+        this.kin = kin;
+        this.kout = kout;
+    }
+
+    protected synchronized void onAccess(PageId pid) {
+        // hits in A1in are deliberately ignored; they are usually correlated
+        if (am.remove(pid)) {
+            am.add(pid);
+        }
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (a1in.contains(pid) || am.contains(pid)) {
+            onAccess(pid);
+        } else if (a1out.remove(pid)) {
+            am.add(pid);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            Iterator<PageId> it = a1out.iterator();
+            while (a1out.size() > kout) {
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    // a discarded page was not pushed out of A1in, so it leaves no ghost
+    public synchronized void pageDiscarded(PageId pid) {
+        a1in.remove(pid);
+        am.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        PageId victim;
+        if (a1in.size() > kin) {
+            victim = firstEvictable(a1in, evictable);
+            if (victim == null) {
+                victim = firstEvictable(am, evictable);
+            }
+        } else {
+            victim = firstEvictable(am, evictable);
+            if (victim == null) {
+                victim = firstEvictable(a1in, evictable);
+            }
+        }
+        return victim;
+    }
+
+    private static PageId firstEvictable(LinkedHashSet<PageId> queue, Predicate<PageId> evictable) {
+        for (PageId pid : queue) {
+            if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
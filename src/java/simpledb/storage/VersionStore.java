@@ -0,0 +1,272 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * VersionStore is the undo area behind snapshot reads: it keeps the older
+ * committed versions of HeapFile pages that read-only transactions still
+ * need, rebuilt from the pages' before images.
+ * <p>
+ * Every commit gets a timestamp. A snapshot is the timestamp of the
+ * latest commit that finished along with all commits before it, so a
+ * commit still writing its pages is never part of a snapshot. Before a
+ * commit makes its changes the committed state, it keeps the previous
+ * committed image of every page it changed, tagged with its timestamp:
+ * the image was current until that commit. A snapshot reads the image
+ * with the smallest such timestamp after its own; if there is none, the
+ * page has not been committed since and its current committed state,
+ * the before image of the resident page or the page on disk, is read.
+ * <p>
+ * Under STEAL the committed image of a page is also kept when an
+ * uncommitted version of it is written to disk, until its transaction
+ * ends, as the disk no longer holds it.
+ * <p>
+ * Images are dropped once no running snapshot can read them.
+ *
+ * @see BufferPool#setSnapshotReads
+ * @Threadsafe
+ */
+public class VersionStore {
+
+    /** Timestamp of an image whose overwriting transaction has not committed yet. */
+    private static final long UNCOMMITTED = Long.MAX_VALUE;
+
+    /** A committed image of a page, current until the commit at end. */
+    private static final class Version {
+        long end;
+        final Page image;
+        TransactionId writer; // set while end is UNCOMMITTED
+
+        Version(long end, Page image, TransactionId writer) {
+            this.end = end;
+            this.image = image;
+            this.writer = writer;
+        }
+    }
+
+    private long clock = 0; // protected by this; timestamp of the latest commit
+    private final TreeSet<Long> committing = new TreeSet<>(); // protected by this
+    private final HashMap<TransactionId, Long> commitTimes = new HashMap<>(); // protected by this
+    private final TreeMap<Long, Integer> running = new TreeMap<>(); // protected by this; snapshot -> count
+    private final ConcurrentHashMap<TransactionId, Long> snapshots = new ConcurrentHashMap<>();
+    private final HashMap<PageId, List<Version>> versions = new HashMap<>(); // protected by this
+    private final HashMap<TransactionId, Set<PageId>> stolen = new HashMap<>(); // protected by this
+    private final AtomicLong stamp = new AtomicLong(); // bumped before an image is kept
+    private final AtomicLong versionReads = new AtomicLong();
+    private final AtomicLong currentReads = new AtomicLong();
+
+    /**
+     * Give a read-only transaction a snapshot of the committed state.
+     *
+     * @return the snapshot timestamp
+     */
+    synchronized long beginSnapshot(TransactionId tid) {
+        long snapshot = committing.isEmpty() ? clock : committing.first() - 1;
+        snapshots.put(tid, snapshot);
+        running.merge(snapshot, 1, Integer::sum);
+        return snapshot;
+    }
+
+    /**
+     * End the snapshot of a transaction, dropping the images only it needed.
+     *
+     * @return false if the transaction had no snapshot
+     */
+    synchronized boolean endSnapshot(TransactionId tid) {
+        Long snapshot = snapshots.remove(tid);
+        if (snapshot == null) {
+            return false;
+        }
+        if (running.merge(snapshot, -1, Integer::sum) == 0) {
+            running.remove(snapshot);
+        }
+        prune(versions.keySet());
+        return true;
+    }
+
+    /** @return the snapshot timestamp of tid, or null if it reads without one */
+    Long snapshotOf(TransactionId tid) {
+        if (snapshots.isEmpty()) {
+            return null;
+        }
+        return snapshots.get(tid);
+    }
+
+    /** @return the number of transactions reading a snapshot */
+    public int getSnapshotCount() {
+        return snapshots.size();
+    }
+
+    /**
+     * @return a counter bumped before an image is kept, and so before the
+     *         committed state of its page changes
+     */
+    long getStamp() {
+        return stamp.get();
+    }
+
+    /**
+     * Keep the committed image of a page before an uncommitted version of
+     * it, dirtied by tid, is written to disk.
+     */
+    synchronized void keepStolen(TransactionId tid, Page pg) {
+        keepStolen(tid, pg, () -> true);
+    }
+
+    /**
+     * As {@link #keepStolen(TransactionId, Page)}, unless running reports
+     * that tid has ended. A transaction ends, committed or not, before
+     * {@link #commitDone} or {@link #aborted} is called for it, and those
+     * wait for this one; so an image is never kept for a transaction that
+     * nothing will resolve it for.
+     */
+    synchronized void keepStolen(TransactionId tid, Page pg, BooleanSupplier running) {
+        if (commitTimes.containsKey(tid)) {
+            // its images were kept when it started committing
+            return;
+        }
+        if (!running.getAsBoolean()) {
+            // its page is committed or restored already
+            return;
+        }
+        PageId pid = pg.getId();
+        Set<PageId> pages = stolen.computeIfAbsent(tid, k -> new HashSet<>());
+        if (!pages.add(pid)) {
+            return;
+        }
+        stamp.incrementAndGet();
+        versions.computeIfAbsent(pid, k -> new ArrayList<>())
+                .add(new Version(UNCOMMITTED, pg.getBeforeImage(), tid));
+    }
+
+    /**
+     * Start committing tid: give it a timestamp and keep the committed
+     * images of the pages it dirtied, before they are replaced. Must be
+     * followed by {@link #commitDone} once the pages' new contents are
+     * their before images, or are on disk.
+     *
+     * @param dirty the resident pages dirtied by tid
+     */
+    synchronized void commitStarted(TransactionId tid, List<Page> dirty) {
+        long ts = ++clock;
+        committing.add(ts);
+        commitTimes.put(tid, ts);
+        stamp.incrementAndGet();
+        Set<PageId> pages = stolen.getOrDefault(tid, new HashSet<>());
+        for (PageId pid : pages) {
+            for (Version v : versions.get(pid)) {
+                if (tid.equals(v.writer)) {
+                    v.end = ts;
+                    v.writer = null;
+                }
+            }
+        }
+        for (Page pg : dirty) {
+            if (!pages.contains(pg.getId())) {
+                versions.computeIfAbsent(pg.getId(), k -> new ArrayList<>())
+                        .add(new Version(ts, pg.getBeforeImage(), null));
+            }
+        }
+    }
+
+    /** Finish the commit of tid, so that new snapshots include it. */
+    synchronized void commitDone(TransactionId tid) {
+        Long ts = commitTimes.remove(tid);
+        if (ts != null) {
+            committing.remove(ts);
+        }
+        stolen.remove(tid);
+        prune(versions.keySet());
+    }
+
+    /**
+     * Forget the images kept for pages tid stole, once it has aborted and
+     * the disk holds them again.
+     */
+    synchronized void aborted(TransactionId tid) {
+        Long ts = commitTimes.remove(tid);
+        if (ts != null) {
+            committing.remove(ts);
+        }
+        Set<PageId> pages = stolen.remove(tid);
+        if (pages == null) {
+            return;
+        }
+        for (PageId pid : pages) {
+            versions.get(pid).removeIf(v -> tid.equals(v.writer));
+        }
+        prune(pages);
+    }
+
+    /**
+     * @return the image of the page a snapshot reads, or null if it reads
+     *         the current committed state of the page
+     */
+    synchronized Page find(PageId pid, long snapshot) {
+        List<Version> chain = versions.get(pid);
+        if (chain == null) {
+            return null;
+        }
+        Version found = null;
+        for (Version v : chain) {
+            if (v.end > snapshot && (found == null || v.end < found.end)) {
+                found = v;
+            }
+        }
+        return found == null ? null : found.image;
+    }
+
+    /** Count a snapshot read, from a kept image or from the current state. */
+    void countRead(boolean fromVersion) {
+        (fromVersion ? versionReads : currentReads).incrementAndGet();
+    }
+
+    /** @return the number of snapshot page reads served from kept images */
+    public long getVersionReads() {
+        return versionReads.get();
+    }
+
+    /** @return the number of snapshot page reads of the current committed state */
+    public long getCurrentReads() {
+        return currentReads.get();
+    }
+
+    /** @return the number of page images kept */
+    public synchronized int getVersionCount() {
+        int count = 0;
+        for (List<Version> chain : versions.values()) {
+            count += chain.size();
+        }
+        return count;
+    }
+
+    /**
+     * Drop the images of the given pages that no snapshot can read: those
+     * current until a finished commit no older than every running snapshot.
+     */
+    private void prune(Collection<PageId> pids) {
+        long oldest = running.isEmpty() ? Long.MAX_VALUE : running.firstKey();
+        for (PageId pid : new ArrayList<>(pids)) {
+            List<Version> chain = versions.get(pid);
+            if (chain == null) {
+                continue;
+            }
+            chain.removeIf(v -> v.end != UNCOMMITTED && v.end <= oldest && !committing.contains(v.end));
+            if (chain.isEmpty()) {
+                versions.remove(pid);
+            }
+        }
+    }
+}
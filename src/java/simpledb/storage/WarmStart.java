@@ -0,0 +1,210 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WarmStart saves the set of pages resident in a BufferPool to a file and
+ * loads it back after a restart, so that the pool starts out with the
+ * pages it held instead of refilling one synchronous miss at a time.
+ * <p>
+ * The file holds PageIds only, in their {@link PageId#serialize} form,
+ * not page contents: pages are read from their DbFiles when loaded, so a
+ * stale file can cost extra reads but never return stale data. Pages of
+ * tables no longer in the Catalog, or past the end of their file, are
+ * skipped.
+ * <p>
+ * Loading sorts the pages by table and page number and splits them into
+ * contiguous runs, one per I/O thread, so each thread reads a mostly
+ * sequential stretch of one file. Pages are brought in like read-ahead,
+ * without transaction locks.
+ *
+ * @see BufferPool#saveResidentPages
+ * @see BufferPool#loadResidentPages
+ */
+class WarmStart {
+
+    private static final int MAGIC = 0x53444257; // "SDBW"
+
+    private WarmStart() {
+    }
+
+    /**
+     * Write the ids of the pages resident in the pool to a file. The file is
+     * replaced atomically, so a crash while saving leaves the previous one.
+     *
+     * @return the number of page ids written
+     */
+    static int save(BufferPool bufferPool, File f) throws IOException {
+        List<PageId> pids = new ArrayList<>(bufferPool.store_cache.keySet());
+        Map<Class<?>, Integer> classes = new HashMap<>();
+        List<String> classNames = new ArrayList<>();
+        for (PageId pid : pids) {
+            if (classes.putIfAbsent(pid.getClass(), classNames.size()) == null) {
+                classNames.add(pid.getClass().getName());
+            }
+        }
+
+        File tmp = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(classNames.size());
+            for (String name : classNames) {
+                out.writeUTF(name);
+            }
+            out.writeInt(pids.size());
+            for (PageId pid : pids) {
+                int[] data = pid.serialize();
+                out.writeShort(classes.get(pid.getClass()));
+                out.writeShort(data.length);
+                for (int d : data) {
+                    out.writeInt(d);
+                }
+            }
+        }
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f)) {
+                throw new IOException("could not replace " + f);
+            }
+        }
+        return pids.size();
+    }
+
+    /** Read the page ids saved in a file. */
+    static List<PageId> read(File f) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(f + " is not a buffer pool page list");
+            }
+            int numClasses = in.readInt();
+            List<Constructor<?>> constructors = new ArrayList<>();
+            for (int i = 0; i < numClasses; i++) {
+                constructors.add(idConstructor(in.readUTF()));
+            }
+            int n = in.readInt();
+            List<PageId> pids = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                Constructor<?> c = constructors.get(in.readShort());
+                Object[] args = new Object[in.readShort()];
+                for (int j = 0; j < args.length; j++) {
+                    args[j] = in.readInt();
+                }
+                try {
+                    pids.add((PageId) c.newInstance(args));
+                } catch (InstantiationException | IllegalAccessException | InvocationTargetException
+                         | IllegalArgumentException e) {
+                    throw new IOException("bad page id in " + f + ": " + e);
+                }
+            }
+            return pids;
+        }
+    }
+
+    /** @return the constructor of a PageId class that takes only ints */
+    private static Constructor<?> idConstructor(String className) throws IOException {
+        try {
+            for (Constructor<?> c : Class.forName(className).getDeclaredConstructors()) {
+                boolean ints = true;
+                for (Class<?> p : c.getParameterTypes()) {
+                    ints &= p == int.class;
+                }
+                if (ints && c.getParameterCount() > 0) {
+                    return c;
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("unknown page id class " + className);
+        }
+        throw new IOException(className + " has no constructor taking its serialized ints");
+    }
+
+    /** @return true if the page still exists in a table of the Catalog */
+    private static boolean exists(PageId pid) {
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+        if (file instanceof HeapFile) {
+            // reading the page just past the end would append it
+            return pid.getPageNumber() < ((HeapFile) file).numPages();
+        }
+        if (file instanceof BTreeFile) {
+            // page 0 is the root pointer page, kept apart from the numbered pages
+            return pid.getPageNumber() <= ((BTreeFile) file).numPages();
+        }
+        return true;
+    }
+
+    /**
+     * Read the pages listed in a file into the pool on the given number of
+     * threads, up to the capacity of the pool.
+     *
+     * @return the number of pages read
+     */
+    static int load(BufferPool bufferPool, File f, int threads) throws IOException {
+        List<PageId> pids = read(f);
+        pids.removeIf(pid -> !exists(pid));
+        pids.sort(Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::getPageNumber));
+        if (pids.size() > bufferPool.getTotalPages()) {
+            pids = pids.subList(0, bufferPool.getTotalPages());
+        }
+        if (pids.isEmpty()) {
+            return 0;
+        }
+
+        int n = Math.max(1, Math.min(threads, pids.size()));
+        int run = (pids.size() + n - 1) / n;
+        AtomicInteger loaded = new AtomicInteger();
+        ExecutorService io = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "simpledb-warmstart");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (int from = 0; from < pids.size(); from += run) {
+                List<PageId> part = pids.subList(from, Math.min(pids.size(), from + run));
+                runs.add(io.submit(() -> {
+                    for (PageId pid : part) {
+                        try {
+                            if (bufferPool.prefetchPage(pid)) {
+                                loaded.incrementAndGet();
+                            }
+                        } catch (DbException | RuntimeException e) {
+                            // warming up is only an optimization; skip the page
+                        }
+                    }
+                }));
+            }
+            for (Future<?> r : runs) {
+                r.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            io.shutdown();
+        }
+        return loaded.get();
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.DeadlockPolicy;
 import simpledb.common.Permissions;
 import simpledb.execution.IndexPredicate;
 import simpledb.execution.Predicate.Op;
@@ -17,10 +18,20 @@ import simpledb.systemtest.SimpleDbTestBase;
 import java.util.*;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.transaction.TransactionId;
 
+@RunWith(Parameterized.class)
 public class BTreeDeadlockTest extends SimpleDbTestBase {
+	@Parameterized.Parameter public DeadlockPolicy policy;
+
+	@Parameterized.Parameters(name = "{0}")
+	public static Object[] policies() {
+		return DeadlockPolicy.values();
+	}
+
 	private Random rand;
 
 	private static final int POLL_INTERVAL = 100;
@@ -79,6 +90,7 @@ public class BTreeDeadlockTest extends SimpleDbTestBase {
 		// clear all state from the buffer pool, increase the number of pages
 		bp.flushAllPages();
 		bp = Database.resetBufferPool(500);
+		bp.getLockManager().setDeadlockPolicy(policy);
 
 	}
 
@@ -0,0 +1,142 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.index.*;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class BTreeOptimisticInsertTest extends SimpleDbTestBase {
+	private static final int FREE_SLOTS = 10;
+
+	private BufferPool bp;
+	private BTreeFile bf;
+	private int lowKey;
+	private int highKey;
+	private int numTuples;
+
+	/**
+	 * Create a B+ tree with a few free slots in its left-most and right-most leaves.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		bf = BTreeUtility.createRandomBTreeFile(2, 10000, null, null, 0);
+		bp = Database.resetBufferPool(500);
+
+		TransactionId tid = new TransactionId();
+		List<Tuple> tuples = readAll(tid);
+		for(Tuple t : tuples.subList(0, FREE_SLOTS)) {
+			bp.deleteTuple(tid, t);
+		}
+		for(Tuple t : tuples.subList(tuples.size() - FREE_SLOTS, tuples.size())) {
+			bp.deleteTuple(tid, t);
+		}
+		lowKey = ((IntField) tuples.get(FREE_SLOTS).getField(0)).getValue();
+		highKey = ((IntField) tuples.get(tuples.size() - FREE_SLOTS - 1).getField(0)).getValue();
+		numTuples = tuples.size() - 2 * FREE_SLOTS;
+		bp.transactionComplete(tid);
+	}
+
+	private List<Tuple> readAll(TransactionId tid) throws Exception {
+		List<Tuple> tuples = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while(it.hasNext()) {
+			tuples.add(it.next());
+		}
+		it.close();
+		return tuples;
+	}
+
+	private int countTuples() throws Exception {
+		TransactionId tid = new TransactionId();
+		int count = readAll(tid).size();
+		bp.transactionComplete(tid);
+		return count;
+	}
+
+	private PageId rootId() throws Exception {
+		TransactionId tid = new TransactionId();
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bp.getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		PageId rootId = rootPtr.getRootId();
+		bp.transactionComplete(tid);
+		return rootId;
+	}
+
+	/**
+	 * An insert into a leaf with room locks only that leaf.
+	 */
+	@Test(timeout = 10000)
+	public void insertLocksOnlyLeaf() throws Exception {
+		PageId rootId = rootId();
+		TransactionId tid = new TransactionId();
+		Tuple t = BTreeUtility.getBTreeTuple(lowKey, 2);
+		bp.insertTuple(tid, bf.getId(), t);
+
+		assertEquals(1, bf.getOptimisticInsertCount());
+		assertEquals(0, bf.getPessimisticInsertCount());
+		assertTrue(bp.holdsLock(tid, t.getRecordId().getPageId()));
+		assertFalse(bp.holdsLock(tid, rootId));
+		assertFalse(bp.holdsLock(tid, BTreeRootPtrPage.getId(bf.getId())));
+
+		bp.transactionComplete(tid);
+		assertEquals(numTuples + 1, countTuples());
+	}
+
+	/**
+	 * A split is not held up by a transaction that inserted into another leaf, as
+	 * that transaction holds no lock on the pages above its leaf.
+	 */
+	@Test(timeout = 10000)
+	public void splitDoesNotWaitForOtherInserters() throws Exception {
+		TransactionId other = new TransactionId();
+		bp.insertTuple(other, bf.getId(), BTreeUtility.getBTreeTuple(highKey, 2));
+
+		TransactionId splitter = new TransactionId();
+		for(int i = 0; i <= FREE_SLOTS; i++) {
+			bp.insertTuple(splitter, bf.getId(), BTreeUtility.getBTreeTuple(lowKey, 2));
+		}
+		assertEquals(FREE_SLOTS + 1, bf.getOptimisticInsertCount());
+		assertEquals(1, bf.getPessimisticInsertCount());
+
+		bp.transactionComplete(splitter);
+		bp.transactionComplete(other);
+		assertEquals(numTuples + FREE_SLOTS + 2, countTuples());
+
+		TransactionId tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		bp.transactionComplete(tid);
+	}
+
+	/**
+	 * An aborted optimistic insert leaves the tree as it was.
+	 */
+	@Test(timeout = 10000)
+	public void abortedInsertIsUndone() throws Exception {
+		TransactionId tid = new TransactionId();
+		bp.insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(highKey, 2));
+		bp.transactionComplete(tid, false);
+		assertEquals(numTuples, countTuples());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeOptimisticInsertTest.class);
+	}
+}
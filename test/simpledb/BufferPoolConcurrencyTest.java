@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+
+    // HeapFile that counts and slows down its page reads
+    static class SlowHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+
+        public SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private SlowHeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        hf = new SlowHeapFile(f.getFile(), f.getTupleDesc());
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private List<Page> fetchConcurrently(PageId pid) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Page> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    TransactionId tid = new TransactionId();
+                    start.await();
+                    Page p = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                    synchronized (results) {
+                        results.add(p);
+                    }
+                    Database.getBufferPool().transactionComplete(tid);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        return results;
+    }
+
+    /**
+     * Concurrent misses on the same page read it from disk only once.
+     */
+    @Test public void concurrentMissLoadsOnce() throws Exception {
+        PageId pid = new HeapPageId(hf.getId(), 1);
+        List<Page> pages = fetchConcurrently(pid);
+
+        assertEquals(THREADS, pages.size());
+        assertEquals(1, hf.reads.get());
+        for (Page p : pages) {
+            assertSame(pages.get(0), p);
+        }
+    }
+
+    /**
+     * Hits do not go back to disk.
+     */
+    @Test public void hitsDoNotRead() throws Exception {
+        PageId pid = new HeapPageId(hf.getId(), 2);
+        fetchConcurrently(pid);
+        fetchConcurrently(pid);
+        assertEquals(1, hf.reads.get());
+        assertEquals(1, Database.getBufferPool().getReplacementPolicy().getMissCount());
+        assertEquals(2 * THREADS - 1, Database.getBufferPool().getReplacementPolicy().getHitCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
@@ -0,0 +1,165 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.LatencyHistogram;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolMetricsTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 4;
+
+    private HeapFile hf;
+    private HeapFile other;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        other = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        bp = Database.resetBufferPool(PAGES);
+        bp.getReadAhead().setEnabled(false);
+    }
+
+    /**
+     * Unit test for LatencyHistogram: counts, totals and bucketed percentiles.
+     */
+    @Test public void histogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            h.record(100);
+        }
+        h.record(1000000);
+        LatencyHistogram.Snapshot s = h.snapshot();
+        assertEquals(100, s.getCount());
+        assertEquals(99 * 100 + 1000000, s.getTotalNanos());
+        assertEquals(1000000, s.getMaxNanos());
+        assertTrue(s.getPercentileNanos(0.5) >= 100);
+        assertTrue(s.getPercentileNanos(0.5) < 200);
+        assertEquals(1000000, s.getPercentileNanos(1.0));
+        h.reset();
+        assertEquals(0, h.snapshot().getCount());
+        assertEquals(0, h.snapshot().getPercentileNanos(0.99));
+    }
+
+    /**
+     * Hits and misses are counted per table, and evictions are counted.
+     */
+    @Test public void hitsMissesEvictions() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(other.getId(), 0), Permissions.READ_ONLY);
+
+        BufferPoolMetrics.Snapshot s = bp.getMetrics().snapshot();
+        assertEquals(1, s.getHits());
+        assertEquals(PAGES + 1, s.getMisses());
+        assertEquals(PAGES, (long) s.getTableMisses().get(hf.getId()));
+        assertEquals(1.0 / (PAGES + 1), s.getHitRatio(hf.getId()), 1e-9);
+        assertEquals(0.0, s.getHitRatio(other.getId()), 1e-9);
+        assertEquals(1, s.getEvictions());
+        assertEquals(PAGES, s.getResidentPages());
+        bp.transactionComplete(tid);
+
+        bp.getMetrics().reset();
+        assertEquals(0, bp.getMetrics().snapshot().getMisses());
+    }
+
+    /**
+     * Flushes and writes are timed, and eviction failures are counted.
+     */
+    @Test public void flushesAndFailures() throws Exception {
+        BufferPool small = Database.resetBufferPool(1);
+        TransactionId tid = new TransactionId();
+        HeapPage pg = (HeapPage) small.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        pg.markDirty(true, tid);
+        assertEquals(1, small.getMetrics().snapshot().getDirtyPages());
+        try {
+            small.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+            fail("the only page is dirty");
+        } catch (DbException e) {
+            // expected
+        }
+        small.transactionComplete(tid);
+
+        BufferPoolMetrics.Snapshot s = small.getMetrics().snapshot();
+        assertEquals(1, s.getNoCleanPageFailures());
+        assertEquals(1, s.getFlushLatency().getCount());
+        assertEquals(1, s.getWriteLatency().getCount());
+        assertTrue(s.getWriteLatency().getTotalNanos() > 0);
+        assertEquals(0, s.getDirtyPages());
+    }
+
+    /**
+     * Time spent waiting for a lock is recorded.
+     */
+    @Test public void lockWaits() throws Exception {
+        TransactionId writer = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        bp.getPage(writer, pid, Permissions.READ_WRITE);
+
+        Thread reader = new Thread(() -> {
+            TransactionId tid = new TransactionId();
+            try {
+                bp.getPage(tid, pid, Permissions.READ_ONLY);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            bp.transactionComplete(tid);
+        });
+        reader.start();
+        Thread.sleep(100);
+        bp.transactionComplete(writer);
+        reader.join();
+
+        LatencyHistogram.Snapshot waits = bp.getMetrics().snapshot().getLockWaits();
+        assertEquals(1, waits.getCount());
+        assertTrue(waits.getTotalNanos() >= 50000000L);
+    }
+
+    /**
+     * The MBean reports on the database's current pool.
+     */
+    @Test public void mbean() throws Exception {
+        BufferPoolMonitor.register();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(BufferPoolMonitor.OBJECT_NAME);
+
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        assertEquals(1L, server.getAttribute(name, "Hits"));
+        assertEquals(1L, server.getAttribute(name, "Misses"));
+        assertEquals(0.5, (Double) server.getAttribute(name, "HitRatio"), 1e-9);
+        assertEquals(PAGES, server.getAttribute(name, "Capacity"));
+        server.invoke(name, "resetMetrics", null, null);
+        assertEquals(0L, server.getAttribute(name, "Hits"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolMetricsTest.class);
+    }
+}
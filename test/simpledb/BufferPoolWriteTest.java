@@ -140,6 +140,31 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * A page whose write failed stays dirty, so it cannot be evicted while
+     * its file holds an older version.
+     */
+    @Test public void failedWriteKeepsPageDirty() throws Exception {
+        HeapFile failing = new HeapFile(empty.getFile(), empty.getTupleDesc()) {
+            @Override
+            public void writePages(List<Page> pages) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        Database.getCatalog().addTable(failing, SystemTestUtil.getUUID());
+        Tuple t = Utility.getHeapTuple(1, 2);
+        Database.getBufferPool().insertTuple(tid, failing.getId(), t);
+        Page p = Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_ONLY);
+        try {
+            Database.getBufferPool().flushAllPages();
+            fail("the write should have failed");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(tid, p.isDirty());
+        assertEquals(1, Database.getBufferPool().getDirtyPageCount());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,142 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 8;
+    private static final int HOT_PAGES = 4;
+    private static final int SCAN_PAGES = 30;
+
+    private HeapFile hot;
+    private HeapFile big;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hot = SystemTestUtil.createRandomHeapFile(2, 504 * HOT_PAGES, null, null);
+        big = SystemTestUtil.createRandomHeapFile(2, 504 * SCAN_PAGES, null, null);
+        bp = Database.resetBufferPool(POOL_PAGES);
+    }
+
+    private void readHot(TransactionId tid) throws Exception {
+        for (int i = 0; i < HOT_PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+    }
+
+    private int scan(TransactionId tid) throws Exception {
+        SeqScan scan = new SeqScan(tid, big.getId(), "big");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        return count;
+    }
+
+    /**
+     * A scan over a table larger than the pool, read-ahead included, leaves
+     * the pool's pages resident.
+     */
+    @Test public void scanKeepsWorkingSet() throws Exception {
+        TransactionId tid = new TransactionId();
+        readHot(tid);
+        assertEquals(504 * SCAN_PAGES, scan(tid));
+        readHot(tid);
+        assertEquals(HOT_PAGES, bp.getReplacementPolicy().getMissCount());
+        assertEquals(HOT_PAGES, bp.getReplacementPolicy().getHitCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * With rings turned off the same scan flushes the pool.
+     */
+    @Test public void ringsDisabled() throws Exception {
+        bp.getReadAhead().setEnabled(false);
+        bp.setScanRingPages(0);
+        assertNull(bp.newScanRing(new TransactionId(), big));
+        TransactionId tid = new TransactionId();
+        readHot(tid);
+        assertEquals(504 * SCAN_PAGES, scan(tid));
+        readHot(tid);
+        assertEquals(2 * HOT_PAGES + SCAN_PAGES, bp.getReplacementPolicy().getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Tables that fit in the pool are scanned through the pool; the ring
+     * recycles its oldest page once full.
+     */
+    @Test public void ringRecycles() throws Exception {
+        assertNull(bp.newScanRing(new TransactionId(), hot));
+        BufferRing ring = bp.newScanRing(new TransactionId(), big);
+        assertNotNull(ring);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < SCAN_PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, ring);
+        }
+        assertEquals(BufferPool.DEFAULT_SCAN_RING_PAGES, ring.size());
+        assertEquals(SCAN_PAGES, ring.getReadCount());
+        assertEquals(SCAN_PAGES - BufferPool.DEFAULT_SCAN_RING_PAGES, ring.getRecycledCount());
+        assertEquals(0, bp.getReplacementPolicy().getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A page modified in the pool is read from the pool, not from the ring.
+     */
+    @Test public void residentPagesWin() throws Exception {
+        TransactionId writer = new TransactionId();
+        HeapPageId pid = new HeapPageId(big.getId(), 0);
+        HeapPage pg = (HeapPage) bp.getPage(writer, pid, Permissions.READ_WRITE);
+        pg.deleteTuple(pg.iterator().next());
+        pg.insertTuple(Utility.getHeapTuple(new int[] { -1, -1 }));
+        pg.markDirty(true, writer);
+        bp.transactionComplete(writer);
+
+        TransactionId tid = new TransactionId();
+        BufferRing ring = bp.newScanRing(tid, big);
+        assertSame(pg, bp.getPage(tid, pid, Permissions.READ_ONLY, ring));
+        assertEquals(0, ring.getReadCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A transaction scans a table it has modified through the pool.
+     */
+    @Test public void writersReadThroughPool() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(big.getId(), 0);
+        HeapPage pg = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        assertNotNull(bp.newScanRing(tid, big));
+        pg.markDirty(true, tid);
+        assertNull(bp.newScanRing(tid, big));
+        assertNotNull(bp.newScanRing(new TransactionId(), big));
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class CompressedPageCacheTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 6;
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // small values, which compress well
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * (PAGES - 1) + 1, 10, null, null);
+        bp = Database.resetBufferPool(2);
+        bp.getReadAhead().setEnabled(false);
+    }
+
+    private void readAll(TransactionId tid) throws Exception {
+        for (int i = 0; i < PAGES; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            Page pg = bp.getPage(tid, pid, Permissions.READ_ONLY);
+            assertArrayEquals(hf.readPage(pid).getPageData(), pg.getPageData());
+        }
+    }
+
+    private void checkTier(CompressedPageCache tier) throws Exception {
+        bp.setSecondTier(tier);
+        TransactionId tid = new TransactionId();
+        readAll(tid);
+        assertEquals(PAGES - 2, tier.size());
+        assertEquals(0, tier.getHits());
+        assertTrue(tier.getSavedBytes() > 0);
+        assertTrue(tier.getCompressedBytes() < tier.getUncompressedBytes());
+
+        // the second pass is served from the tier, with the same contents
+        readAll(tid);
+        bp.transactionComplete(tid);
+        assertEquals(PAGES, tier.getHits());
+        assertEquals(PAGES, tier.getMisses());
+        assertEquals(0.5, tier.getHitRatio(), 1e-9);
+    }
+
+    /**
+     * Evicted pages are kept compressed on the heap and read back from there.
+     */
+    @Test public void onHeap() throws Exception {
+        checkTier(new CompressedPageCache(1 << 20, false));
+    }
+
+    /**
+     * The same, with the compressed pages kept off the heap.
+     */
+    @Test public void offHeap() throws Exception {
+        checkTier(new CompressedPageCache(1 << 20, true));
+    }
+
+    /**
+     * The tier stays within its size, and forgets pages the pool discards.
+     */
+    @Test public void limitAndDiscard() throws Exception {
+        CompressedPageCache tier = new CompressedPageCache(1, false);
+        bp.setSecondTier(tier);
+        TransactionId tid = new TransactionId();
+        readAll(tid);
+        assertEquals(0, tier.size());
+        assertEquals(PAGES - 2, tier.getDroppedCount());
+
+        tier = new CompressedPageCache(1 << 20, false);
+        bp.setSecondTier(tier);
+        readAll(tid);
+        HeapPageId evicted = new HeapPageId(hf.getId(), 0);
+        assertEquals(PAGES - 2, tier.size());
+        bp.discardPage(evicted);
+        assertEquals(PAGES - 3, tier.size());
+        long hits = tier.getHits();
+        bp.getPage(tid, evicted, Permissions.READ_ONLY);
+        assertEquals(hits, tier.getHits());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageCacheTest.class);
+    }
+}
@@ -5,10 +5,13 @@ import simpledb.TestUtil.LockGrabber;
 import java.util.*;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
+import simpledb.common.DeadlockPolicy;
 import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.BufferPool;
@@ -16,7 +19,15 @@ import simpledb.storage.HeapPageId;
 import simpledb.storage.PageId;
 import simpledb.transaction.TransactionId;
 
+@RunWith(Parameterized.class)
 public class DeadlockTest extends TestUtil.CreateHeapFile {
+  @Parameterized.Parameter public DeadlockPolicy policy;
+
+  @Parameterized.Parameters(name = "{0}")
+  public static Object[] policies() {
+    return DeadlockPolicy.values();
+  }
+
   private PageId p0;
     private PageId p1;
     private TransactionId tid1, tid2;
@@ -61,6 +72,7 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid, p2, Permissions.READ_WRITE).markDirty(true, tid);
     bp.flushAllPages();
     bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    bp.getLockManager().setDeadlockPolicy(policy);
   }
 
   /**
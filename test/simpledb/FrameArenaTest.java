@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class FrameArenaTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 6;
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES - 10, null, null);
+    }
+
+    private static List<String> contents(Iterator<Tuple> it) {
+        List<String> rows = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(t.getRecordId().getTupleNumber() + ":" + t);
+        }
+        return rows;
+    }
+
+    /**
+     * Unit test for FrameArena: frames are handed out once until freed.
+     */
+    @Test public void allocateAndFree() {
+        FrameArena arena = new FrameArena(2);
+        FrameArena.Frame a = arena.allocate();
+        FrameArena.Frame b = arena.allocate();
+        assertNotNull(a);
+        assertNotNull(b);
+        assertTrue(a.buffer().isDirect());
+        assertEquals(BufferPool.getPageSize(), a.buffer().remaining());
+        assertNull(arena.allocate());
+        assertEquals(1, arena.getExhaustedCount());
+
+        arena.free(a);
+        assertEquals(1, arena.getAvailable());
+        assertSame(a, arena.allocate());
+        try {
+            arena.free(a);
+            arena.free(a);
+            fail("double free should fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A page read into a frame has the same tuples and data as a HeapPage.
+     */
+    @Test public void sameContents() throws Exception {
+        FrameArena arena = new FrameArena(1);
+        HeapPageId pid = new HeapPageId(hf.getId(), PAGES - 1);
+        HeapPage heap = (HeapPage) hf.readPage(pid);
+        Page page = hf.readPage(pid, arena);
+        assertTrue(page instanceof FrameHeapPage);
+        FrameHeapPage frame = (FrameHeapPage) page;
+
+        assertEquals(contents(heap.iterator()), contents(frame.iterator()));
+        assertEquals(heap.getNumEmptySlots(), frame.getNumEmptySlots());
+        assertArrayEquals(heap.getPageData(), frame.getPageData());
+    }
+
+    /**
+     * Inserts and deletes on a frame produce the same page as on a HeapPage,
+     * and the before image is the contents before the first change.
+     */
+    @Test public void sameModifications() throws Exception {
+        FrameArena arena = new FrameArena(1);
+        HeapPageId pid = new HeapPageId(hf.getId(), PAGES - 1);
+        HeapPage heap = (HeapPage) hf.readPage(pid);
+        FrameHeapPage frame = (FrameHeapPage) hf.readPage(pid, arena);
+        byte[] original = frame.getPageData();
+
+        Tuple first = heap.iterator().next();
+        heap.deleteTuple(first);
+        frame.deleteTuple(first);
+        for (int i = 0; i < 3; i++) {
+            heap.insertTuple(Utility.getHeapTuple(i, 2));
+            frame.insertTuple(Utility.getHeapTuple(i, 2));
+        }
+        assertArrayEquals(heap.getPageData(), frame.getPageData());
+        assertArrayEquals(original, frame.getBeforeImage().getPageData());
+
+        frame.setBeforeImage();
+        assertArrayEquals(frame.getPageData(), frame.getBeforeImage().getPageData());
+    }
+
+    /**
+     * A pool with an arena reads pages into frames and gives the frames back
+     * on eviction; evicted pages stay readable.
+     */
+    @Test public void poolUsesFrames() throws Exception {
+        BufferPool bp = Database.resetBufferPool(3);
+        bp.getReadAhead().setEnabled(false);
+        FrameArena arena = bp.enableOffHeapFrames();
+        assertTrue(arena.getCapacity() > 3);
+
+        TransactionId tid = new TransactionId();
+        HeapPageId pid0 = new HeapPageId(hf.getId(), 0);
+        FrameHeapPage first = (FrameHeapPage) bp.getPage(tid, pid0, Permissions.READ_ONLY);
+        List<String> expected = contents(((HeapPage) hf.readPage(pid0)).iterator());
+        assertTrue(first.isInFrame());
+
+        for (int i = 1; i < PAGES; i++) {
+            Page p = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            assertTrue(p instanceof FrameHeapPage);
+        }
+        assertEquals(PAGES, arena.getAllocations());
+        assertEquals(0, arena.getExhaustedCount());
+        assertFalse(first.isInFrame());
+        assertEquals(expected, contents(first.iterator()));
+
+        int available = arena.getAvailable();
+        bp.discardPage(new HeapPageId(hf.getId(), PAGES - 1));
+        assertEquals(available + 1, arena.getAvailable());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Recovery rebuilds frame pages from their page data.
+     */
+    @Test public void heapBacked() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        byte[] data = hf.readPage(pid).getPageData();
+        FrameHeapPage page = new FrameHeapPage(pid, data);
+        assertFalse(page.isInFrame());
+        assertTrue(Arrays.equals(data, page.getPageData()));
+        assertEquals(504, contents(page.iterator()).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FrameArenaTest.class);
+    }
+}
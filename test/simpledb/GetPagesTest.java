@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class GetPagesTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 8;
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        bp = Database.resetBufferPool(2 * PAGES);
+        bp.getReadAhead().setEnabled(false);
+    }
+
+    private List<PageId> ids(int... pgNos) {
+        List<PageId> pids = new ArrayList<>();
+        for (int pgNo : pgNos) {
+            pids.add(new HeapPageId(hf.getId(), pgNo));
+        }
+        return pids;
+    }
+
+    /**
+     * HeapFile.readPages returns the same pages as readPage, in request order.
+     */
+    @Test public void readPages() {
+        List<PageId> pids = ids(5, 0, 1, 2, 7, 6, 3);
+        List<Page> pages = hf.readPages(pids);
+        assertEquals(pids.size(), pages.size());
+        for (int i = 0; i < pids.size(); i++) {
+            assertEquals(pids.get(i), pages.get(i).getId());
+            assertArrayEquals(hf.readPage(pids.get(i)).getPageData(), pages.get(i).getPageData());
+        }
+    }
+
+    /**
+     * getPages returns the pages in the order asked for, counts hits and
+     * misses, and returns the same page for a duplicated id.
+     */
+    @Test public void getPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        Page resident = bp.getPage(tid, new HeapPageId(hf.getId(), 4), Permissions.READ_ONLY);
+
+        List<PageId> pids = ids(6, 4, 2, 3, 6);
+        List<Page> pages = bp.getPages(tid, pids, Permissions.READ_ONLY);
+        for (int i = 0; i < pids.size(); i++) {
+            assertEquals(pids.get(i), pages.get(i).getId());
+        }
+        assertSame(resident, pages.get(1));
+        assertSame(pages.get(0), pages.get(4));
+        for (PageId pid : pids) {
+            assertTrue(bp.holdsLock(tid, pid));
+            assertSame(pages.get(pids.indexOf(pid)), bp.getPage(tid, pid, Permissions.READ_ONLY));
+        }
+
+        BufferPoolMetrics.Snapshot s = bp.getMetrics().snapshot();
+        assertEquals(4, s.getMisses());
+        assertEquals(1 + pids.size(), s.getHits());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * With an arena, batched misses are read into frames, as getPage misses are.
+     */
+    @Test public void getPagesUsesFrames() throws Exception {
+        FrameArena arena = bp.enableOffHeapFrames();
+        TransactionId tid = new TransactionId();
+        List<Page> pages = bp.getPages(tid, ids(0, 1, 2, 5), Permissions.READ_ONLY);
+        for (Page pg : pages) {
+            assertTrue(pg instanceof FrameHeapPage);
+        }
+        assertEquals(4, arena.getAllocations());
+        assertArrayEquals(hf.readPage(ids(5).get(0)).getPageData(), pages.get(3).getPageData());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Two transactions asking for the same exclusive pages in opposite
+     * orders lock them in the same order, so neither deadlocks.
+     */
+    @Test public void noDeadlock() throws Exception {
+        List<PageId> forward = ids(0, 1, 2, 3, 4, 5, 6, 7);
+        List<PageId> backward = new ArrayList<>(forward);
+        Collections.reverse(backward);
+
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (List<PageId> order : Arrays.asList(forward, backward, forward, backward)) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 20; i++) {
+                        TransactionId tid = new TransactionId();
+                        bp.getPages(tid, order, Permissions.READ_WRITE);
+                        bp.transactionComplete(tid);
+                    }
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(20000);
+            assertFalse("getPages deadlocked", t.isAlive());
+        }
+        assertEquals(Collections.emptyList(), errors);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GetPagesTest.class);
+    }
+}
@@ -0,0 +1,76 @@
+package simpledb;
+
+import simpledb.storage.GroupCommit;
+import simpledb.storage.LogFile;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures commit throughput of a LogFile with and without group commit.
+ * Each thread repeatedly writes a BEGIN record and commits, so the run is
+ * bound by how often the log is forced.
+ * <p>
+ * Usage: GroupCommitBenchmark [threads] [commits per thread] [max delay in micros]
+ */
+public class GroupCommitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int commits = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        long delay = args.length > 2 ? Long.parseLong(args[2]) : GroupCommit.DEFAULT_MAX_DELAY_MICROS;
+
+        System.out.println(threads + " threads, " + commits + " commits each");
+        run("force per commit", threads, commits, -1);
+        run("group commit, max delay " + delay + "us", threads, commits, delay);
+    }
+
+    /**
+     * @param delay the max delay of the flusher, or -1 to commit without it
+     */
+    private static void run(String name, int threads, int commits, long delay) throws Exception {
+        File f = File.createTempFile("commitbench", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        GroupCommit gc = log.getGroupCommit();
+        if (delay >= 0) {
+            gc.setMaxDelay(delay);
+            gc.start();
+        }
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < commits; j++) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        log.logCommit(tid);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread t : workers) {
+            t.start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        long nanos = System.nanoTime() - start;
+        gc.shutdown();
+
+        long total = (long) threads * commits;
+        System.out.printf("%-32s %8.0f commits/s", name, total * 1e9 / nanos);
+        if (delay >= 0) {
+            System.out.printf(", %.1f commits per force", (double) gc.getCommitCount() / gc.getBatchCount());
+        }
+        System.out.println();
+        f.delete();
+    }
+}
@@ -12,7 +12,9 @@ import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -90,6 +92,27 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.writePages(): runs of adjacent pages and single
+     * pages, in any order, land where readPage finds them.
+     */
+    @Test public void writePages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        int[] pgNos = { 4, 1, 0, 5, 2 };
+        List<Page> pages = new ArrayList<>();
+        for (int pgNo : pgNos) {
+            byte[] data = HeapPage.createEmptyPageData();
+            data[0] = (byte) (pgNo + 1);
+            pages.add(new HeapPage(new HeapPageId(hf.getId(), pgNo), data));
+        }
+        hf.writePages(pages);
+
+        assertEquals(6, hf.numPages());
+        for (Page pg : pages) {
+            assertArrayEquals(pg.getPageData(), hf.readPage(pg.getId()).getPageData());
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,136 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.LockManager;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class LockCacheTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private PageId p0, p1, p2;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        p0 = new HeapPageId(hf.getId(), 0);
+        p1 = new HeapPageId(hf.getId(), 1);
+        p2 = new HeapPageId(hf.getId(), 2);
+    }
+
+    /**
+     * The cache answers for the locks a transaction holds, covering a read
+     * with a write lock, and forgets them when they are released.
+     */
+    @Test public void cache() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId tid = new TransactionId();
+        assertFalse(lm.isGranted(tid, p0, Permissions.READ_ONLY));
+
+        lm.acquireLock(tid, p0, Permissions.READ_ONLY);
+        assertTrue(lm.isGranted(tid, p0, Permissions.READ_ONLY));
+        assertFalse(lm.isGranted(tid, p0, Permissions.READ_WRITE));
+
+        lm.acquireLock(tid, p0, Permissions.READ_WRITE);
+        lm.acquireLock(tid, p0, Permissions.READ_ONLY);
+        assertTrue(lm.isGranted(tid, p0, Permissions.READ_WRITE));
+
+        lm.acquireLock(tid, p1, Permissions.READ_WRITE);
+        lm.releaseLock(tid, p0);
+        assertFalse(lm.isGranted(tid, p0, Permissions.READ_ONLY));
+        assertTrue(lm.isGranted(tid, p1, Permissions.READ_ONLY));
+
+        lm.releaseAllLocks(tid);
+        assertFalse(lm.isGranted(tid, p1, Permissions.READ_ONLY));
+        assertFalse(lm.holdsAnyLock(tid));
+    }
+
+    /**
+     * A page is pinned once by each transaction holding a lock on it.
+     */
+    @Test public void pinCounts() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t1, p0, Permissions.READ_ONLY);
+        lm.acquireLock(t1, p0, Permissions.READ_ONLY);
+        assertTrue(lm.tryAcquireLock(t2, p0, Permissions.READ_ONLY));
+        assertEquals(2, lm.getPinCount(p0));
+        assertEquals(0, lm.getPinCount(p1));
+
+        lm.releaseAllLocks(t1);
+        assertEquals(1, lm.getPinCount(p0));
+        lm.releaseLock(t2, p0);
+        assertEquals(0, lm.getPinCount(p0));
+    }
+
+    /**
+     * Page locks dropped by an escalation leave the cache and unpin their
+     * pages; the table lock grants them again on the next request.
+     */
+    @Test public void escalationUngrants() throws Exception {
+        LockManager lm = new LockManager();
+        lm.setEscalationThreshold(2);
+        TransactionId tid = new TransactionId();
+        lm.acquireLock(tid, p0, Permissions.READ_ONLY);
+        lm.acquireLock(tid, p1, Permissions.READ_ONLY);
+        lm.acquireLock(tid, p2, Permissions.READ_ONLY);
+        assertEquals(1, lm.getEscalationCount());
+        for (PageId pid : new PageId[] {p0, p1}) {
+            assertFalse(lm.isGranted(tid, pid, Permissions.READ_ONLY));
+            assertEquals(0, lm.getPinCount(pid));
+        }
+        // the page whose lock escalated is covered by the table lock
+        assertTrue(lm.isGranted(tid, p2, Permissions.READ_ONLY));
+        assertEquals(1, lm.getPinCount(p2));
+
+        lm.acquireLock(tid, p0, Permissions.READ_ONLY);
+        assertTrue(lm.isGranted(tid, p0, Permissions.READ_ONLY));
+        assertEquals(1, lm.getPinCount(p0));
+        lm.releaseAllLocks(tid);
+        assertFalse(lm.isGranted(tid, p0, Permissions.READ_ONLY));
+        assertEquals(0, lm.getPinCount(p0));
+    }
+
+    /**
+     * Eviction passes over pages locked by running transactions while an
+     * unlocked clean page is left.
+     */
+    @Test public void evictionSkipsPinnedPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        bp.getReadAhead().setEnabled(false);
+        TransactionId done = new TransactionId();
+        bp.getPage(done, p1, Permissions.READ_ONLY);
+        bp.transactionComplete(done);
+
+        // p1 is the least recently used page, but p0 is the unpinned one
+        TransactionId tid = new TransactionId();
+        Page page1 = bp.getPage(tid, p1, Permissions.READ_ONLY);
+        TransactionId other = new TransactionId();
+        bp.getPage(other, p0, Permissions.READ_ONLY);
+        bp.transactionComplete(other);
+        bp.getPage(tid, p2, Permissions.READ_ONLY);
+
+        long misses = bp.getMetrics().snapshot().getMisses();
+        assertSame(page1, bp.getPage(tid, p1, Permissions.READ_ONLY));
+        assertEquals(misses, bp.getMetrics().snapshot().getMisses());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockCacheTest.class);
+    }
+}
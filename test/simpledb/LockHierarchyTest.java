@@ -0,0 +1,153 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.LockManager;
+import simpledb.common.LockMode;
+import simpledb.common.Permissions;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class LockHierarchyTest {
+
+    private static final int TABLE = 7;
+
+    private LockManager lm;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        lm.setEscalationThreshold(3);
+    }
+
+    private static PageId page(int pgNo) {
+        return new HeapPageId(TABLE, pgNo);
+    }
+
+    /**
+     * Unit test for the compatibility and combination of LockModes.
+     */
+    @Test public void modes() {
+        assertTrue(LockMode.IS.isCompatibleWith(LockMode.SIX));
+        assertTrue(LockMode.IX.isCompatibleWith(LockMode.IX));
+        assertFalse(LockMode.IX.isCompatibleWith(LockMode.S));
+        assertFalse(LockMode.X.isCompatibleWith(LockMode.IS));
+        assertTrue(LockMode.SIX.covers(LockMode.S));
+        assertFalse(LockMode.S.covers(LockMode.IX));
+        assertEquals(LockMode.SIX, LockMode.S.combine(LockMode.IX));
+        assertEquals(LockMode.IX, LockMode.IS.combine(LockMode.IX));
+        assertEquals(LockMode.X, LockMode.SIX.combine(LockMode.X));
+    }
+
+    /**
+     * Page locks take intention locks on their table, released with them.
+     */
+    @Test public void intentionLocks() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t1, page(0), Permissions.READ_ONLY);
+        assertEquals(LockMode.IS, lm.getTableLock(t1, TABLE));
+        lm.acquireLock(t1, page(1), Permissions.READ_WRITE);
+        assertEquals(LockMode.IX, lm.getTableLock(t1, TABLE));
+
+        // intention locks do not conflict; the page locks below them do
+        lm.acquireLock(t2, page(2), Permissions.READ_WRITE);
+        assertFalse(lm.tryAcquireLock(t2, page(1), Permissions.READ_ONLY));
+
+        lm.releaseLock(t2, page(2));
+        assertNull(lm.getTableLock(t2, TABLE));
+        lm.releaseAllLocks(t1);
+        assertNull(lm.getTableLock(t1, TABLE));
+        assertEquals(0, lm.getLockTableSize());
+    }
+
+    /**
+     * Past the threshold, page locks become one table lock that covers every
+     * page of the table.
+     */
+    @Test public void escalation() throws Exception {
+        TransactionId reader = new TransactionId();
+        for (int i = 0; i < 4; i++) {
+            lm.acquireLock(reader, page(i), Permissions.READ_ONLY);
+        }
+        assertEquals(LockMode.S, lm.getTableLock(reader, TABLE));
+        assertEquals(1, lm.getEscalationCount());
+        assertEquals(1, lm.getLockTableSize());
+        assertTrue(lm.holdsLock(reader, page(100)));
+
+        TransactionId writer = new TransactionId();
+        assertTrue(lm.tryAcquireLock(writer, new HeapPageId(TABLE + 1, 0), Permissions.READ_WRITE));
+        assertFalse(lm.tryAcquireLock(writer, page(100), Permissions.READ_WRITE));
+        assertTrue(lm.tryAcquireLock(writer, page(100), Permissions.READ_ONLY));
+
+        // writing as well needs SIX and a page lock
+        lm.releaseAllLocks(writer);
+        lm.acquireLock(reader, page(5), Permissions.READ_WRITE);
+        assertEquals(LockMode.SIX, lm.getTableLock(reader, TABLE));
+        lm.releaseAllLocks(reader);
+        assertEquals(0, lm.getLockTableSize());
+    }
+
+    /**
+     * Writes escalate to X, and no escalation happens while it would have to
+     * wait for another transaction.
+     */
+    @Test public void escalationNeedsNoConflicts() throws Exception {
+        TransactionId other = new TransactionId();
+        lm.acquireLock(other, page(10), Permissions.READ_WRITE);
+
+        TransactionId writer = new TransactionId();
+        for (int i = 0; i < 4; i++) {
+            lm.acquireLock(writer, page(i), Permissions.READ_WRITE);
+        }
+        assertEquals(LockMode.IX, lm.getTableLock(writer, TABLE));
+        assertEquals(0, lm.getEscalationCount());
+
+        lm.releaseAllLocks(other);
+        lm.acquireLock(writer, page(4), Permissions.READ_WRITE);
+        assertEquals(LockMode.X, lm.getTableLock(writer, TABLE));
+        assertTrue(lm.isGranted(writer, page(4), Permissions.READ_WRITE));
+        assertFalse(lm.tryAcquireLock(other, page(50), Permissions.READ_ONLY));
+        lm.releaseAllLocks(writer);
+    }
+
+    /**
+     * A transaction waiting for a table lock is woken when it is released.
+     */
+    @Test public void waitForTableLock() throws Exception {
+        TransactionId writer = new TransactionId();
+        for (int i = 0; i < 4; i++) {
+            lm.acquireLock(writer, page(i), Permissions.READ_WRITE);
+        }
+        assertEquals(LockMode.X, lm.getTableLock(writer, TABLE));
+
+        TransactionId reader = new TransactionId();
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquireLock(reader, page(20), Permissions.READ_ONLY);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+        Thread.sleep(100);
+        assertTrue(t.isAlive());
+        lm.releaseAllLocks(writer);
+        t.join(5000);
+        assertFalse(t.isAlive());
+        assertTrue(lm.holdsLock(reader, page(20)));
+        lm.releaseAllLocks(reader);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockHierarchyTest.class);
+    }
+}
@@ -0,0 +1,269 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.DeadlockPolicy;
+import simpledb.common.LockManager;
+import simpledb.common.Permissions;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class LockQueueTest {
+
+    private static final PageId PAGE = new HeapPageId(3, 0);
+
+    private LockManager lm;
+    private List<TransactionId> order;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        order = new CopyOnWriteArrayList<>();
+    }
+
+    /** Start a thread that locks PAGE for tid and records when it got it. */
+    private Thread waiter(TransactionId tid, Permissions perm) throws InterruptedException {
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquireLock(tid, PAGE, perm);
+                order.add(tid);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+        // let it queue up before the next one
+        Thread.sleep(100);
+        return t;
+    }
+
+    /**
+     * A reader arriving after a queued writer waits behind it, even though it
+     * is compatible with the current holder.
+     */
+    @Test public void firstComeFirstServed() throws Exception {
+        TransactionId holder = new TransactionId();
+        TransactionId writer = new TransactionId();
+        TransactionId reader = new TransactionId();
+        lm.acquireLock(holder, PAGE, Permissions.READ_ONLY);
+        Thread w = waiter(writer, Permissions.READ_WRITE);
+        Thread r = waiter(reader, Permissions.READ_ONLY);
+        assertTrue(order.isEmpty());
+
+        lm.releaseAllLocks(holder);
+        w.join(5000);
+        assertEquals(1, order.size());
+        assertEquals(writer, order.get(0));
+        assertTrue(r.isAlive());
+
+        lm.releaseAllLocks(writer);
+        r.join(5000);
+        assertEquals(reader, order.get(1));
+        lm.releaseAllLocks(reader);
+        assertEquals(0, lm.getLockTableSize());
+    }
+
+    /**
+     * A holder upgrading to an exclusive lock goes ahead of the waiters
+     * queued before it.
+     */
+    @Test public void upgradeFirst() throws Exception {
+        TransactionId upgrader = new TransactionId();
+        TransactionId other = new TransactionId();
+        TransactionId writer = new TransactionId();
+        lm.acquireLock(upgrader, PAGE, Permissions.READ_ONLY);
+        lm.acquireLock(other, PAGE, Permissions.READ_ONLY);
+        Thread w = waiter(writer, Permissions.READ_WRITE);
+        Thread u = waiter(upgrader, Permissions.READ_WRITE);
+
+        lm.releaseAllLocks(other);
+        u.join(5000);
+        assertEquals(upgrader, order.get(0));
+        assertTrue(lm.isGranted(upgrader, PAGE, Permissions.READ_WRITE));
+        assertTrue(w.isAlive());
+
+        lm.releaseAllLocks(upgrader);
+        w.join(5000);
+        assertEquals(writer, order.get(1));
+        lm.releaseAllLocks(writer);
+    }
+
+    /**
+     * A release grants every compatible waiter at the head of the queue
+     * together, and nobody behind the first incompatible one.
+     */
+    @Test public void wakeOnlyCompatible() throws Exception {
+        TransactionId holder = new TransactionId();
+        TransactionId r1 = new TransactionId();
+        TransactionId r2 = new TransactionId();
+        TransactionId writer = new TransactionId();
+        lm.acquireLock(holder, PAGE, Permissions.READ_WRITE);
+        Thread t1 = waiter(r1, Permissions.READ_ONLY);
+        Thread t2 = waiter(r2, Permissions.READ_ONLY);
+        Thread w = waiter(writer, Permissions.READ_WRITE);
+
+        lm.releaseAllLocks(holder);
+        t1.join(5000);
+        t2.join(5000);
+        assertTrue(lm.holdsLock(r1, PAGE));
+        assertTrue(lm.holdsLock(r2, PAGE));
+        Thread.sleep(100);
+        assertTrue(w.isAlive());
+        assertFalse(lm.holdsLock(writer, PAGE));
+
+        lm.releaseAllLocks(r1);
+        assertTrue(w.isAlive());
+        lm.releaseAllLocks(r2);
+        w.join(5000);
+        assertTrue(lm.isGranted(writer, PAGE, Permissions.READ_WRITE));
+        lm.releaseAllLocks(writer);
+    }
+
+    /**
+     * The transaction closing a cycle of three waiting transactions is
+     * aborted, and the others proceed once it releases its locks.
+     */
+    @Test public void longCycle() throws Exception {
+        TransactionId[] tids = new TransactionId[3];
+        PageId[] pages = new PageId[3];
+        for (int i = 0; i < 3; i++) {
+            tids[i] = new TransactionId();
+            pages[i] = new HeapPageId(3, i + 1);
+            lm.acquireLock(tids[i], pages[i], Permissions.READ_WRITE);
+        }
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < 2; i++) {
+            TransactionId tid = tids[i];
+            PageId next = pages[i + 1];
+            threads[i] = new Thread(() -> {
+                try {
+                    lm.acquireLock(tid, next, Permissions.READ_WRITE);
+                    order.add(tid);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads[i].start();
+        }
+        Thread.sleep(100);
+        assertFalse(lm.isDeadLock());
+
+        try {
+            lm.acquireLock(tids[2], pages[0], Permissions.READ_WRITE);
+            fail("expected the last transaction to be aborted");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        lm.releaseAllLocks(tids[2]);
+        threads[1].join(5000);
+        assertEquals(tids[1], order.get(0));
+        lm.releaseAllLocks(tids[1]);
+        threads[0].join(5000);
+        assertEquals(tids[0], order.get(1));
+        lm.releaseAllLocks(tids[0]);
+        assertEquals(0, lm.getLockTableSize());
+    }
+
+    /**
+     * Under wait-die a younger transaction asking for an older one's lock
+     * aborts at once, while an older one waits.
+     */
+    @Test public void waitDie() throws Exception {
+        lm.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquireLock(older, PAGE, Permissions.READ_WRITE);
+        try {
+            lm.acquireLock(younger, PAGE, Permissions.READ_ONLY);
+            fail("expected the younger transaction to die");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        lm.releaseAllLocks(younger);
+        lm.releaseAllLocks(older);
+
+        lm.acquireLock(younger, PAGE, Permissions.READ_WRITE);
+        Thread t = waiter(older, Permissions.READ_ONLY);
+        assertTrue(t.isAlive());
+        lm.releaseAllLocks(younger);
+        t.join(5000);
+        assertEquals(older, order.get(0));
+        lm.releaseAllLocks(older);
+        assertEquals(1, lm.getAbortCount(DeadlockPolicy.WAIT_DIE));
+        assertEquals(0.5, lm.getAbortRate(DeadlockPolicy.WAIT_DIE), 1e-9);
+        assertEquals(1, lm.getLockWaits(DeadlockPolicy.WAIT_DIE).getCount());
+    }
+
+    /**
+     * Under wound-wait an older transaction asking for a younger one's lock
+     * aborts the younger one, waking it if it waits for another lock.
+     */
+    @Test public void woundWait() throws Exception {
+        lm.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        PageId other = new HeapPageId(3, 1);
+        lm.acquireLock(older, other, Permissions.READ_WRITE);
+        lm.acquireLock(younger, PAGE, Permissions.READ_WRITE);
+        List<Exception> errors = new CopyOnWriteArrayList<>();
+        Thread victim = new Thread(() -> {
+            try {
+                lm.acquireLock(younger, other, Permissions.READ_WRITE);
+            } catch (Exception e) {
+                errors.add(e);
+            }
+        });
+        victim.start();
+        Thread.sleep(100);
+        assertTrue(victim.isAlive());
+
+        Thread t = waiter(older, Permissions.READ_WRITE);
+        victim.join(5000);
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof TransactionAbortedException);
+        lm.releaseAllLocks(younger);
+        t.join(5000);
+        assertEquals(older, order.get(0));
+        lm.releaseAllLocks(older);
+        assertEquals(1, lm.getAbortCount(DeadlockPolicy.WOUND_WAIT));
+    }
+
+    /**
+     * Under the timeout policy a waiter gives up after the lock timeout.
+     */
+    @Test public void timeout() throws Exception {
+        lm.setDeadlockPolicy(DeadlockPolicy.TIMEOUT);
+        lm.setLockTimeout(50);
+        TransactionId holder = new TransactionId();
+        TransactionId waiter = new TransactionId();
+        lm.acquireLock(holder, PAGE, Permissions.READ_WRITE);
+        long start = System.currentTimeMillis();
+        try {
+            lm.acquireLock(waiter, PAGE, Permissions.READ_WRITE);
+            fail("expected the wait to time out");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start >= 50);
+        lm.releaseAllLocks(waiter);
+        lm.releaseAllLocks(holder);
+        assertEquals(1, lm.getAbortCount(DeadlockPolicy.TIMEOUT));
+        assertEquals(0, lm.getAbortCount(DeadlockPolicy.DETECT));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockQueueTest.class);
+    }
+}
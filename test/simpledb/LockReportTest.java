@@ -0,0 +1,104 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.DeadlockPolicy;
+import simpledb.common.LockManager;
+import simpledb.common.LockMode;
+import simpledb.common.Permissions;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LockReportTest {
+
+    private static final PageId PAGE = new HeapPageId(3, 0);
+    private static final PageId OTHER = new HeapPageId(3, 1);
+
+    private LockManager lm;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+    }
+
+    /** Start a thread that waits for an exclusive lock on PAGE for tid. */
+    private Thread waiter(TransactionId tid) throws InterruptedException {
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquireLock(tid, PAGE, Permissions.READ_WRITE);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+        Thread.sleep(100);
+        return t;
+    }
+
+    /**
+     * A waiting writer shows up among the page's waiters and in the wait-for
+     * graph, and its wait is counted against the page and its table.
+     */
+    @Test public void waitingWriter() throws Exception {
+        TransactionId holder = new TransactionId();
+        TransactionId writer = new TransactionId();
+        lm.acquireLock(holder, PAGE, Permissions.READ_ONLY);
+        lm.acquireLock(holder, OTHER, Permissions.READ_ONLY);
+        Thread w = waiter(writer);
+
+        LockManager.PageLockState state = lm.getPageLocks().get(PAGE);
+        assertEquals(Collections.singletonMap(holder, LockMode.S), state.getHolders());
+        assertEquals(Collections.singletonList(writer), state.getWaiters());
+        assertTrue(lm.getPageLocks().get(OTHER).getWaiters().isEmpty());
+        assertEquals(Collections.singletonMap(writer, Collections.singleton(holder)), lm.getWaitForGraph());
+        assertTrue(lm.getWaitForGraphDot().contains(
+                "\"T" + writer.getId() + "\" -> \"T" + holder.getId() + "\" [label=\"page 3:0\"];"));
+
+        lm.releaseAllLocks(holder);
+        w.join(5000);
+        assertTrue(lm.getWaitForGraph().isEmpty());
+        List<LockManager.PageContention> hot = lm.getHotPages(5);
+        assertEquals(1, hot.size());
+        assertEquals(PAGE, hot.get(0).getPageId());
+        assertEquals(1, hot.get(0).getWaits());
+        assertTrue(hot.get(0).getWaitNanos() > 0);
+        assertEquals(1, lm.getTableLockWaits().get(3).getCount());
+        lm.releaseAllLocks(writer);
+    }
+
+    /**
+     * Aborts are counted by the mode the victim asked for.
+     */
+    @Test public void abortsByMode() throws Exception {
+        lm.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquireLock(older, PAGE, Permissions.READ_ONLY);
+        try {
+            lm.acquireLock(younger, PAGE, Permissions.READ_WRITE);
+            fail("the younger transaction should have died");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertEquals(1, lm.getAbortCount(LockMode.X));
+        assertEquals(0, lm.getAbortCount(LockMode.S));
+        lm.releaseAllLocks(younger);
+        lm.releaseAllLocks(older);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockReportTest.class);
+    }
+}
@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.LogBuffer;
+import simpledb.storage.LogFile;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class LogBufferTest {
+
+    // BEGIN records are a type, a tid and a start offset
+    private static final int BEGIN_SIZE = 4 + 8 + 8;
+
+    private File file;
+    private LogFile log;
+    private LogBuffer buffer;
+
+    @Before public void setUp() throws Exception {
+        file = File.createTempFile("logbuffer", ".log");
+        file.deleteOnExit();
+        log = new LogFile(file);
+        buffer = log.getLogBuffer();
+    }
+
+    @After public void tearDown() throws Exception {
+        buffer.shutdown();
+        file.delete();
+    }
+
+    /**
+     * Records stay in memory until the log is forced, and are then written
+     * with one write.
+     */
+    @Test public void writesOnForce() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        log.logXactionBegin(t1);
+        log.logXactionBegin(t2);
+        long header = file.length();
+        assertEquals(header + 2 * BEGIN_SIZE, buffer.getEnd());
+        assertEquals(0, buffer.getWriteCount());
+
+        log.logCommit(t1);
+        assertEquals(1, buffer.getWriteCount());
+        assertEquals(header + 3 * BEGIN_SIZE, file.length());
+        assertEquals(file.length(), buffer.getEnd());
+        log.logCommit(t2);
+    }
+
+    /**
+     * Filling the whole ring makes appends wait for, or do, a write, and
+     * the writer thread writes full buffers as they are sealed.
+     */
+    @Test public void fillsRing() throws Exception {
+        int records = 2 * LogBuffer.DEFAULT_BUFFERS * LogBuffer.DEFAULT_BUFFER_SIZE / BEGIN_SIZE;
+        for (int i = 0; i < records; i++) {
+            log.logXactionBegin(new TransactionId());
+        }
+        assertTrue(buffer.getBufferWaits() > 0);
+
+        buffer.start();
+        for (int i = 0; i < records; i++) {
+            log.logXactionBegin(new TransactionId());
+        }
+        // full buffers are written without anyone forcing the log
+        long appended = buffer.getEnd() - 8;
+        long full = appended - appended % LogBuffer.DEFAULT_BUFFER_SIZE;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (buffer.getBytesWritten() < full && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(full, buffer.getBytesWritten());
+        log.force();
+        assertEquals(buffer.getEnd(), file.length());
+        assertEquals(file.length() - 8, buffer.getBytesWritten());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
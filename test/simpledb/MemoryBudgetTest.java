@@ -0,0 +1,89 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class MemoryBudgetTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 10;
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+    }
+
+    /**
+     * A decoded page retains much more than its page data.
+     */
+    @Test public void retainedSize() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage full = (HeapPage) hf.readPage(pid);
+        HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+
+        assertTrue(empty.getRetainedSize() > BufferPool.getPageSize());
+        assertTrue(full.getRetainedSize() > empty.getRetainedSize() + 504 * 50);
+    }
+
+    /**
+     * The pages of a budgeted pool never retain more than the budget.
+     */
+    @Test public void budgetEnforced() throws Exception {
+        long pageBytes = hf.readPage(new HeapPageId(hf.getId(), 0)).getRetainedSize();
+        long budget = 3 * pageBytes + pageBytes / 2;
+        BufferPool bp = Database.resetBufferPoolWithBudget(budget);
+        bp.getReadAhead().setEnabled(false);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            assertTrue(bp.getUsedBytes() <= budget);
+            assertTrue(bp.getUsedBytes() > 0);
+        }
+        assertEquals(3, bp.getNumPages());
+        assertEquals(PAGES, bp.getReplacementPolicy().getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Discarding a page gives its bytes back.
+     */
+    @Test public void discardReleases() throws Exception {
+        BufferPool bp = Database.resetBufferPoolWithBudget(Long.MAX_VALUE / 2);
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertTrue(bp.getUsedBytes() > 0);
+        bp.discardPage(pid);
+        assertEquals(0, bp.getUsedBytes());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Page-count pools keep their page limit.
+     */
+    @Test public void pageCountPool() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        assertEquals(Long.MAX_VALUE, bp.getMemoryBudget());
+        assertEquals(4, bp.getNumPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MemoryBudgetTest.class);
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class NamedPoolTest extends SimpleDbTestBase {
+
+    private static final int HOT_PAGES = 3;
+    private static final int SCAN_PAGES = 10;
+
+    private HeapFile hot;
+    private HeapFile big;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hot = SystemTestUtil.createRandomHeapFile(2, 504 * HOT_PAGES, null, null);
+        big = SystemTestUtil.createRandomHeapFile(2, 504 * SCAN_PAGES, null, null);
+        bp = Database.resetBufferPool(HOT_PAGES);
+        bp.getReadAhead().setEnabled(false);
+    }
+
+    private void readAll(TransactionId tid, HeapFile f, int pages) throws Exception {
+        for (int i = 0; i < pages; i++) {
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * A scan over a table in its own pool does not evict the pages of the
+     * default pool.
+     */
+    @Test public void scanDoesNotEvictOtherPools() throws Exception {
+        NamedPool scan = bp.addPool("scan", 2, new ClockPolicy());
+        Database.getCatalog().setBufferPool(big.getId(), "scan");
+        assertSame(scan, bp.getPoolOf(big.getId()));
+
+        TransactionId tid = new TransactionId();
+        readAll(tid, hot, HOT_PAGES);
+        readAll(tid, big, SCAN_PAGES);
+
+        NamedPool def = bp.getPool(BufferPool.DEFAULT_POOL);
+        assertEquals(HOT_PAGES, def.getResidentPages());
+        assertEquals(2, scan.getResidentPages());
+        assertEquals(SCAN_PAGES, scan.getReplacementPolicy().getMissCount());
+
+        readAll(tid, hot, HOT_PAGES);
+        assertEquals(HOT_PAGES, def.getReplacementPolicy().getMissCount());
+        assertEquals(HOT_PAGES, def.getReplacementPolicy().getHitCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Without a pool assignment, the same scan flushes the hot pages.
+     */
+    @Test public void sharedPoolIsFlushed() throws Exception {
+        TransactionId tid = new TransactionId();
+        readAll(tid, hot, HOT_PAGES);
+        readAll(tid, big, SCAN_PAGES);
+        readAll(tid, hot, HOT_PAGES);
+        assertEquals(2 * HOT_PAGES + SCAN_PAGES, bp.getReplacementPolicy().getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Tables assigned to a pool the BufferPool does not have use the default
+     * pool, and discarding a page gives its slot back.
+     */
+    @Test public void routing() throws Exception {
+        NamedPool scan = bp.addPool("scan", 2, new ClockPolicy());
+        Database.getCatalog().setBufferPool(hot.getId(), "missing");
+        assertSame(bp.getPool(BufferPool.DEFAULT_POOL), bp.getPoolOf(hot.getId()));
+        assertNull(bp.getPool("missing"));
+
+        Database.getCatalog().setBufferPool(big.getId(), "scan");
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(big.getId(), 0);
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(1, scan.getResidentPages());
+        bp.transactionComplete(tid);
+        bp.discardPage(pid);
+        assertEquals(0, scan.getResidentPages());
+
+        try {
+            bp.addPool("scan", 4, new ClockPolicy());
+            fail("pool names are unique");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(NamedPoolTest.class);
+    }
+}
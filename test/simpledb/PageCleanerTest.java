@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+public class PageCleanerTest extends TestUtil.CreateHeapFile {
+
+    private static final int POOL_PAGES = 5;
+
+    private BufferPool bp;
+    private BufferPoolWriteTest.HeapFileDuplicates hfd;
+    private HeapFile other;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        other = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        File dupFile = File.createTempFile("dup", ".dat");
+        dupFile.deleteOnExit();
+        hfd = new BufferPoolWriteTest.HeapFileDuplicates(dupFile, empty.getTupleDesc(), POOL_PAGES);
+        Database.getCatalog().addTable(hfd, SystemTestUtil.getUUID());
+        bp = Database.resetBufferPool(POOL_PAGES);
+    }
+
+    /**
+     * Fill the pool with pages dirtied by a transaction that no longer
+     * holds any lock, as if it had committed without forcing its pages.
+     */
+    private void fillWithCommittedDirtyPages() throws Exception {
+        TransactionId writer = new TransactionId();
+        bp.insertTuple(writer, hfd.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(POOL_PAGES, bp.getDirtyPageCount());
+    }
+
+    /**
+     * Eviction writes out dirty pages of completed transactions instead of
+     * failing.
+     */
+    @Test public void evictionFindsVictim() throws Exception {
+        fillWithCommittedDirtyPages();
+
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(other.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(bp.getPageCleaner().getPagesWritten() > 0);
+        assertTrue(bp.getDirtyPageCount() < POOL_PAGES);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Without STEAL, pages of running transactions are never written by the
+     * cleaner.
+     */
+    @Test public void activeTransactionPagesStayDirty() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.getPageCleaner().setWatermarks(0, 0);
+        bp.getPageCleaner().setInterval(10);
+        bp.getPageCleaner().start();
+        Thread.sleep(100);
+        bp.getPageCleaner().shutdown();
+        assertEquals(1, bp.getDirtyPageCount());
+        assertEquals(0, bp.getPageCleaner().getPagesWritten());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * With STEAL, eviction writes out pages of a running transaction that
+     * fill the pool, and the transaction can still abort.
+     */
+    @Test public void evictionStealsRunningPages() throws Exception {
+        Transaction writer = new Transaction();
+        writer.start();
+        int i = 0;
+        while (bp.getDirtyPageCount() < POOL_PAGES) {
+            bp.insertTuple(writer.getId(), empty.getId(), Utility.getHeapTuple(i++, 2));
+        }
+        bp.setSteal(true);
+
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(other.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(bp.getPageCleaner().getPagesWritten() > 0);
+        assertTrue(bp.getDirtyPageCount() < POOL_PAGES);
+        bp.transactionComplete(tid);
+
+        writer.abort();
+        tid = new TransactionId();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * The background thread cleans down to the low watermark.
+     */
+    @Test public void backgroundCleaning() throws Exception {
+        fillWithCommittedDirtyPages();
+        PageCleaner cleaner = bp.getPageCleaner();
+        cleaner.setWatermarks(0.2, 0.5);
+        cleaner.setInterval(10);
+        cleaner.start();
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (bp.getDirtyPageCount() > 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, bp.getDirtyPageCount());
+        } finally {
+            cleaner.shutdown();
+        }
+        assertFalse(cleaner.isRunning());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
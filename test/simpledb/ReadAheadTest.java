@@ -0,0 +1,73 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 20;
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        assertEquals(PAGES, hf.numPages());
+    }
+
+    // scan the whole file, spending a little time on every tuple of a page
+    private void slowScan(TransactionId tid) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            if (++count % 504 == 0)
+                Thread.sleep(5);
+        }
+        it.close();
+        assertEquals(504 * PAGES, count);
+    }
+
+    /**
+     * A slow sequential scan finds most pages already prefetched.
+     */
+    @Test public void sequentialScanIsPrefetched() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        slowScan(tid);
+        assertTrue(bp.getReplacementPolicy().getMissCount() < PAGES / 2);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * With read-ahead disabled every page is a miss.
+     */
+    @Test public void disabled() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.getReadAhead().setEnabled(false);
+        TransactionId tid = new TransactionId();
+        slowScan(tid);
+        assertEquals(PAGES, bp.getReplacementPolicy().getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Unit test for ClockPolicy: referenced pages get a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy p = new ClockPolicy();
+        for (int i = 0; i < 4; i++)
+            p.pageLoaded(pid(i));
+        p.pageHit(pid(0));
+        p.pageHit(pid(1));
+
+        assertEquals(pid(2), p.chooseVictim(x -> true));
+        p.pageRemoved(pid(2));
+        assertEquals(pid(3), p.chooseVictim(x -> true));
+    }
+
+    /**
+     * Unit test for ClockPolicy: non-evictable pages are skipped.
+     */
+    @Test public void clockSkipsPinned() {
+        ReplacementPolicy p = new ClockPolicy();
+        for (int i = 0; i < 3; i++)
+            p.pageLoaded(pid(i));
+        assertEquals(pid(2), p.chooseVictim(x -> x.equals(pid(2))));
+        assertNull(p.chooseVictim(x -> false));
+    }
+
+    /**
+     * Unit test for LRUKPolicy: pages with fewer than K references go first.
+     */
+    @Test public void lruKPrefersCorrelatedOnce() {
+        ReplacementPolicy p = new LRUKPolicy(2);
+        p.pageLoaded(pid(0));
+        p.pageHit(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        p.pageHit(pid(2));
+
+        // pid(1) has only been referenced once
+        assertEquals(pid(1), p.chooseVictim(x -> true));
+        p.pageRemoved(pid(1));
+        // pid(0)'s second most recent reference is the oldest
+        assertEquals(pid(0), p.chooseVictim(x -> true));
+    }
+
+    /**
+     * Unit test for LRUKPolicy: history survives eviction.
+     */
+    @Test public void lruKRetainsHistory() {
+        ReplacementPolicy p = new LRUKPolicy(2);
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageRemoved(pid(0));
+        p.pageLoaded(pid(0));
+        // pid(0) now has two references, pid(1) only one
+        assertEquals(pid(1), p.chooseVictim(x -> true));
+    }
+
+    /**
+     * Unit test for TwoQueuePolicy: only pages seen again while in A1out
+     * reach the main queue.
+     */
+    @Test public void twoQueuePromotion() {
+        ReplacementPolicy p = new TwoQueuePolicy(1, 4);
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        assertEquals(pid(0), p.chooseVictim(x -> true));
+        p.pageRemoved(pid(0));
+
+        // pid(0) comes back while its id is in A1out: it goes to Am
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(2));
+        p.pageLoaded(pid(3));
+        for (int i = 0; i < 2; i++) {
+            PageId victim = p.chooseVictim(x -> true);
+            assertNotEquals(pid(0), victim);
+            p.pageRemoved(victim);
+        }
+    }
+
+    /**
+     * Unit test for TwoQueuePolicy: a discarded page leaves no ghost, so
+     * reading it again puts it back in A1in rather than Am.
+     */
+    @Test public void twoQueueDiscardNotPromoted() {
+        ReplacementPolicy p = new TwoQueuePolicy(1, 4);
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageDiscarded(pid(0));
+
+        p.pageLoaded(pid(0));
+        // A1in holds pid(1) then pid(0), over its target of one: oldest first
+        assertEquals(pid(1), p.chooseVictim(x -> true));
+        p.pageRemoved(pid(1));
+        assertEquals(pid(0), p.chooseVictim(x -> true));
+    }
+
+    /**
+     * Unit test for hit and miss counters.
+     */
+    @Test public void counters() {
+        ReplacementPolicy p = new LRUKPolicy();
+        p.pageLoaded(pid(0));
+        p.pageAdded(pid(1));
+        p.pageHit(pid(0));
+        p.pageHit(pid(1));
+        assertEquals(2, p.getHitCount());
+        assertEquals(1, p.getMissCount());
+    }
+
+    /**
+     * A hot page survives a scan through a buffer pool that uses LRU-2.
+     */
+    @Test public void hotPageSurvivesScan() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, null);
+        assertEquals(8, hf.numPages());
+        BufferPool bp = Database.resetBufferPool(4, new LRUKPolicy(2));
+        TransactionId tid = new TransactionId();
+
+        PageId hot = new HeapPageId(hf.getId(), 0);
+        bp.getPage(tid, hot, Permissions.READ_ONLY);
+        bp.getPage(tid, hot, Permissions.READ_ONLY);
+        for (int i = 1; i < hf.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        long misses = bp.getReplacementPolicy().getMissCount();
+        assertEquals(8, misses);
+        bp.getPage(tid, hot, Permissions.READ_ONLY);
+        assertEquals(misses, bp.getReplacementPolicy().getMissCount());
+        assertEquals(2, bp.getReplacementPolicy().getHitCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.LockManager;
+import simpledb.common.LockMode;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+public class RowLockingTest extends TestUtil.CreateHeapFile {
+
+    private BufferPool bp;
+    private LockManager lm;
+    private HeapPageId pid;
+    private Tuple first;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setRowLocking(true);
+        lm = bp.getLockManager();
+        TransactionId tid = new TransactionId();
+        first = Utility.getHeapTuple(1, 2);
+        bp.insertTuple(tid, empty.getId(), first);
+        bp.transactionComplete(tid);
+        pid = new HeapPageId(empty.getId(), 0);
+    }
+
+    private int countTuples() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+        int count = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        bp.transactionComplete(tid);
+        return count;
+    }
+
+    /**
+     * Two transactions insert into the same page at once, each holding only
+     * its own record.
+     */
+    @Test(timeout = 5000) public void insertersShareAPage() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        Tuple a = Utility.getHeapTuple(2, 2);
+        Tuple b = Utility.getHeapTuple(3, 2);
+        bp.insertTuple(t1, empty.getId(), a);
+        bp.insertTuple(t2, empty.getId(), b);
+
+        assertEquals(pid, a.getRecordId().getPageId());
+        assertEquals(pid, b.getRecordId().getPageId());
+        assertNotEquals(a.getRecordId(), b.getRecordId());
+        assertTrue(lm.holdsRecordLock(t1, a.getRecordId()));
+        assertFalse(lm.holdsRecordLock(t1, b.getRecordId()));
+        assertEquals(LockMode.IX, lm.getTableLock(t2, empty.getId()));
+        assertFalse(lm.isGranted(t1, pid, Permissions.READ_WRITE));
+
+        // a whole-page reader waits for both
+        TransactionId reader = new TransactionId();
+        assertFalse(lm.tryAcquireLock(reader, pid, Permissions.READ_ONLY));
+
+        bp.transactionComplete(t1);
+        bp.transactionComplete(t2);
+        assertEquals(3, countTuples());
+    }
+
+    /**
+     * An abort takes back only its own records from a page another
+     * transaction committed changes to.
+     */
+    @Test(timeout = 5000) public void abortKeepsOtherRows() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.insertTuple(t1, empty.getId(), Utility.getHeapTuple(2, 2));
+        bp.insertTuple(t2, empty.getId(), Utility.getHeapTuple(3, 2));
+        bp.transactionComplete(t1, true);
+        bp.transactionComplete(t2, false);
+        assertEquals(2, countTuples());
+
+        // and the page is written once t2 is gone
+        bp.flushAllPages();
+        bp.discardPage(pid);
+        assertEquals(2, countTuples());
+    }
+
+    /**
+     * Committing a page another transaction has a running insert on does
+     * not write or log that insert, so it is gone after the other
+     * transaction aborts and the database crashes.
+     */
+    @Test(timeout = 5000) public void abortedRowGoneAfterCrash() throws Exception {
+        Database.getLogFile().logCheckpoint();
+        Transaction t1 = new Transaction();
+        Transaction t2 = new Transaction();
+        t1.start();
+        t2.start();
+        bp.insertTuple(t1.getId(), empty.getId(), Utility.getHeapTuple(2, 2));
+        bp.insertTuple(t2.getId(), empty.getId(), Utility.getHeapTuple(3, 2));
+        t1.commit();
+        t2.abort();
+
+        File f = empty.getFile();
+        Database.reset();
+        HeapFile hf = Utility.openHeapFile(2, f);
+        Database.getLogFile().recover();
+
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        boolean[] seen = new boolean[4];
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            seen[((IntField) it.next().getField(0)).getValue()] = true;
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(seen[1]);
+        assertTrue(seen[2]);
+        assertFalse(seen[3]);
+    }
+
+    /**
+     * A slot emptied by a running delete is not reused until the delete
+     * commits, so an abort can put the record back where it was.
+     */
+    @Test(timeout = 5000) public void deletedSlotStaysFree() throws Exception {
+        TransactionId deleter = new TransactionId();
+        RecordId rid = first.getRecordId();
+        bp.deleteTuple(deleter, first);
+        assertTrue(lm.holdsRecordLock(deleter, rid));
+
+        TransactionId inserter = new TransactionId();
+        Tuple t = Utility.getHeapTuple(2, 2);
+        bp.insertTuple(inserter, empty.getId(), t);
+        assertNotEquals(rid, t.getRecordId());
+
+        bp.transactionComplete(deleter, false);
+        bp.transactionComplete(inserter, true);
+        assertEquals(2, countTuples());
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertTrue(page.isSlotUsed(rid.getTupleNumber()));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Row locking relies on before images being committed state.
+     */
+    @Test(expected = IllegalStateException.class) public void notWithSteal() {
+        bp.setSteal(true);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RowLockingTest.class);
+    }
+}
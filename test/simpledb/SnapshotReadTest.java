@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class SnapshotReadTest extends TestUtil.CreateHeapFile {
+
+    private BufferPool bp;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setSnapshotReads(true);
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(1, 2));
+        bp.transactionComplete(tid);
+        pid = new HeapPageId(empty.getId(), 0);
+    }
+
+    private int countTuples(TransactionId tid) throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+        int count = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * A snapshot reads the version committed when it began, without locking
+     * the page, even after a writer commits a newer one.
+     */
+    @Test public void readsCommittedVersion() throws Exception {
+        TransactionId writer = new TransactionId();
+        bp.insertTuple(writer, empty.getId(), Utility.getHeapTuple(2, 2));
+
+        TransactionId reader = new TransactionId();
+        assertTrue(bp.beginSnapshot(reader));
+        assertEquals(1, countTuples(reader));
+        assertFalse(bp.holdsLock(reader, pid));
+
+        bp.transactionComplete(writer);
+        assertEquals(1, countTuples(reader));
+        assertEquals(1, bp.getVersionStore().getVersionCount());
+
+        TransactionId later = new TransactionId();
+        bp.beginSnapshot(later);
+        assertEquals(2, countTuples(later));
+
+        bp.transactionComplete(reader);
+        bp.transactionComplete(later);
+        assertEquals(0, bp.getVersionStore().getVersionCount());
+        assertEquals(0, bp.getVersionStore().getSnapshotCount());
+    }
+
+    /**
+     * A writer is not held up by a snapshot reading the same page.
+     */
+    @Test public void writerDoesNotWait() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        countTuples(reader);
+
+        TransactionId writer = new TransactionId();
+        bp.getPage(writer, pid, Permissions.READ_WRITE);
+        assertTrue(bp.holdsLock(writer, pid));
+        bp.transactionComplete(writer);
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * A snapshot transaction cannot ask for a page to write.
+     */
+    @Test(expected = DbException.class) public void snapshotCannotWrite() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        bp.getPage(reader, pid, Permissions.READ_WRITE);
+    }
+
+    /**
+     * The committed image of a page is kept when an uncommitted version of
+     * it is written out and dropped from the pool.
+     */
+    @Test public void stolenPageKeepsCommittedVersion() throws Exception {
+        TransactionId writer = new TransactionId();
+        bp.insertTuple(writer, empty.getId(), Utility.getHeapTuple(2, 2));
+        bp.flushAllPages();
+        bp.discardPage(pid);
+
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        assertEquals(1, countTuples(reader));
+
+        bp.transactionComplete(writer);
+        assertEquals(1, countTuples(reader));
+        TransactionId later = new TransactionId();
+        bp.beginSnapshot(later);
+        assertEquals(2, countTuples(later));
+        bp.transactionComplete(reader);
+        bp.transactionComplete(later);
+        assertEquals(0, bp.getVersionStore().getVersionCount());
+    }
+
+    /**
+     * Without snapshot reads, read-only transactions lock pages as before.
+     */
+    @Test public void lockingWhenOff() throws Exception {
+        bp.setSnapshotReads(false);
+        TransactionId reader = new TransactionId();
+        assertFalse(bp.beginSnapshot(reader));
+        countTuples(reader);
+        assertTrue(bp.holdsLock(reader, pid));
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotReadTest.class);
+    }
+}
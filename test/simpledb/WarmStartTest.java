@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class WarmStartTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 10;
+    private static final int[] HOT = { 7, 1, 3, 8 };
+
+    private HeapFile hf;
+    private File saved;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        saved = File.createTempFile("warm", ".pages");
+        saved.deleteOnExit();
+    }
+
+    private BufferPool freshPool(int pages) {
+        BufferPool bp = Database.resetBufferPool(pages);
+        bp.getReadAhead().setEnabled(false);
+        return bp;
+    }
+
+    private void readHot(BufferPool bp) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int pgNo : HOT) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * The pages saved from one pool are resident in the next one.
+     */
+    @Test public void saveAndLoad() throws Exception {
+        BufferPool bp = freshPool(PAGES);
+        readHot(bp);
+        assertEquals(HOT.length, bp.saveResidentPages(saved));
+
+        bp = freshPool(PAGES);
+        assertEquals(HOT.length, bp.loadResidentPages(saved, 3));
+        readHot(bp);
+        BufferPoolMetrics.Snapshot s = bp.getMetrics().snapshot();
+        assertEquals(HOT.length, s.getHits());
+        assertEquals(0, s.getMisses());
+        assertEquals(HOT.length, s.getPrefetches());
+    }
+
+    /**
+     * Loading stops at the pool's capacity, and skips pages of tables that
+     * are gone.
+     */
+    @Test public void capacityAndMissingTables() throws Exception {
+        BufferPool bp = freshPool(PAGES);
+        readHot(bp);
+        bp.saveResidentPages(saved);
+
+        bp = freshPool(2);
+        assertEquals(2, bp.loadResidentPages(saved, 4));
+        assertEquals(2, bp.getMetrics().snapshot().getResidentPages());
+
+        Database.getCatalog().clear();
+        bp = freshPool(PAGES);
+        assertEquals(0, bp.loadResidentPages(saved, 4));
+    }
+
+    /**
+     * Database.warmStart loads an existing file and has checkpoints save it.
+     */
+    @Test public void checkpointSaves() throws Exception {
+        assertTrue(saved.delete());
+        BufferPool bp = freshPool(PAGES);
+        assertEquals(0, Database.warmStart(saved));
+        readHot(bp);
+        Database.getLogFile().logCheckpoint();
+        assertTrue(saved.exists());
+
+        freshPool(PAGES);
+        assertEquals(HOT.length, Database.warmStart(saved));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WarmStartTest.class);
+    }
+}
@@ -0,0 +1,87 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.storage.GroupCommit;
+import simpledb.transaction.Transaction;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the logging and recovery tests with commits written by the group
+ * commit flusher, plus commits from several threads at once.
+ */
+public class GroupCommitLogTest extends LogTest {
+    private static final int THREADS = 8;
+
+    private void configure() {
+        GroupCommit gc = Database.getLogFile().getGroupCommit();
+        gc.setMaxDelay(50000);
+        gc.start();
+    }
+
+    private void stop() throws IOException {
+        try {
+            Database.getLogFile().getGroupCommit().shutdown();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    void setup() throws IOException {
+        stop();
+        super.setup();
+        configure();
+    }
+
+    @Override
+    void crash() throws IOException {
+        stop();
+        super.crash();
+        configure();
+    }
+
+    @Test public void concurrentCommitsShareForces() throws Exception {
+        setup();
+        GroupCommit gc = Database.getLogFile().getGroupCommit();
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread th = new Thread(() -> {
+                try {
+                    Transaction t = new Transaction();
+                    t.start();
+                    t.commit();
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads.add(th);
+            th.start();
+        }
+        for (Thread th : threads) {
+            th.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(THREADS, gc.getCommitCount());
+        assertTrue(gc.getBatchCount() < THREADS);
+
+        // commits written after the batch are still recovered
+        doInsert(hf1, 1, 2);
+        crash();
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        t.commit();
+        stop();
+    }
+}
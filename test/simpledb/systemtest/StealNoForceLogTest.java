@@ -0,0 +1,161 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the logging and recovery tests with the buffer pool in STEAL/NO-FORCE
+ * mode, plus transactions that dirty more pages than the pool holds.
+ */
+public class StealNoForceLogTest extends LogTest {
+    // 800-byte tuples, five to a page
+    private static final int WIDTH = 200;
+    private static final int POOL_PAGES = 3;
+    private static final int ROWS = 5 * 2 * POOL_PAGES;
+
+    private File wideFile;
+    private HeapFile wide;
+
+    private void configure() {
+        BufferPool bp = Database.getBufferPool();
+        bp.setSteal(true);
+        bp.setForce(false);
+    }
+
+    @Override
+    void setup() throws IOException {
+        super.setup();
+        configure();
+    }
+
+    @Override
+    void crash() throws IOException {
+        Database.reset();
+        hf1 = Utility.openHeapFile(2, file1);
+        hf2 = Utility.openHeapFile(2, file2);
+        if (wideFile != null) {
+            wide = Utility.openHeapFile(WIDTH, wideFile);
+        }
+        Database.getLogFile().recover();
+        configure();
+    }
+
+    // set up an empty wide table and a pool smaller than ROWS tuples
+    private void setupWide() throws IOException {
+        setup();
+        wideFile = File.createTempFile("wide", ".dat");
+        wideFile.deleteOnExit();
+        wide = Utility.createEmptyHeapFile(wideFile.getAbsolutePath(), WIDTH);
+        Database.resetBufferPool(POOL_PAGES);
+        configure();
+    }
+
+    private void insertWide(Transaction t, int rows)
+            throws DbException, IOException, TransactionAbortedException {
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), wide.getId(), Utility.getHeapTuple(i, WIDTH));
+        }
+    }
+
+    private int countWide() throws DbException, IOException, TransactionAbortedException {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), wide.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        t.commit();
+        return count;
+    }
+
+    @Test public void commitDoesNotForcePages()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, -1);
+        Transaction t = new Transaction();
+        t.start();
+        insertRow(hf1, t, 2);
+        t.commit();
+
+        // *** Test:
+        // the commit left the page dirty, but the log has it
+        HeapPage onDisk = (HeapPage) hf1.readPage(new HeapPageId(hf1.getId(), 0));
+        HeapPage empty = new HeapPage(onDisk.getId(), HeapPage.createEmptyPageData());
+        assertEquals(empty.getNumEmptySlots() - 1, onDisk.getNumEmptySlots());
+
+        crash();
+
+        t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        t.commit();
+    }
+
+    @Test public void commitLargerThanPool()
+            throws IOException, DbException, TransactionAbortedException {
+        setupWide();
+        Transaction t = new Transaction();
+        t.start();
+        insertWide(t, ROWS);
+        t.commit();
+        assertEquals(ROWS, countWide());
+
+        crash();
+        assertEquals(ROWS, countWide());
+    }
+
+    @Test public void abortLargerThanPool()
+            throws IOException, DbException, TransactionAbortedException {
+        setupWide();
+        Transaction t = new Transaction();
+        t.start();
+        insertWide(t, ROWS / 2);
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        insertWide(t, ROWS);
+        t.abort();
+        assertEquals(ROWS / 2, countWide());
+    }
+
+    @Test public void crashLargerThanPool()
+            throws IOException, DbException, TransactionAbortedException {
+        setupWide();
+        Transaction t = new Transaction();
+        t.start();
+        insertWide(t, ROWS / 2);
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        insertWide(t, ROWS);
+
+        crash();
+        assertEquals(ROWS / 2, countWide());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StealNoForceLogTest.class);
+    }
+}